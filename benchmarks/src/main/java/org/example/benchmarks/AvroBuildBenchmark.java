@@ -0,0 +1,55 @@
+package org.example.benchmarks;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.example.util.AvroUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cucumber-style maps to Avro records ({@link AvroUtil#createAvroRequestFromData}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AvroBuildBenchmark {
+    @Param({"0", "50"})
+    public int extraFields;
+
+    @Param({"1", "20"})
+    public int items;
+
+    @Param({"100", "10000"})
+    public int batchSize;
+
+    private Schema schema;
+    private List<Map<String, Object>> orders;
+
+    @Setup
+    public void setUp() throws IOException {
+        schema = SyntheticOrders.schema(extraFields);
+        orders = SyntheticOrders.orders(42, batchSize, extraFields, items);
+    }
+
+    @Benchmark
+    public List<GenericRecord> createAvroRequestFromData() {
+        return AvroUtil.createAvroRequestFromData(orders, schema);
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.benchmarks;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.example.util.AvroUtil;
+import org.example.util.BigQueryRowEncoder;
+import org.example.util.JsonUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-row JSON comparison: the streaming {@link JsonUtil#compareJson} against the tree-based
+ * {@link JsonUtil#compareJsonValues} on the same row pairs. One operation compares {@code ROWS} pairs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCompareBenchmark {
+    private static final int ROWS = 1024;
+
+    @Param({"0", "50"})
+    public int extraFields;
+
+    @Param({"1", "20"})
+    public int items;
+
+    @Param({"0", "0.01", "0.1"})
+    public double mismatchRate;
+
+    private String[] expectedJson;
+    private String[] actualJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        Schema schema = SyntheticOrders.schema(extraFields);
+        BigQueryRowEncoder encoder = BigQueryRowEncoder.forSchema(schema);
+        Random random = new Random(7);
+        expectedJson = new String[ROWS];
+        actualJson = new String[ROWS];
+        int i = 0;
+        for (GenericRecord record : AvroUtil.createAvroRequestFromData(SyntheticOrders.orders(42, ROWS, extraFields, items), schema)) {
+            Map<String, Object> row = encoder.encode(record);
+            expectedJson[i] = JsonUtil.toJson(row);
+            if (random.nextDouble() < mismatchRate) {
+                row.put("total_amount", ((Number) row.get("total_amount")).doubleValue() + 1);
+            }
+            actualJson[i] = JsonUtil.toJson(row);
+            i++;
+        }
+    }
+
+    @Benchmark
+    public int streamingCompare() throws IOException {
+        int mismatches = 0;
+        for (int i = 0; i < ROWS; i++) {
+            if (!JsonUtil.compareJson(expectedJson[i], actualJson[i]).isMatch()) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    @Benchmark
+    public int treeCompare() throws IOException {
+        int mismatches = 0;
+        for (int i = 0; i < ROWS; i++) {
+            if (!JsonUtil.compareJsonValues(JsonUtil.parseJson(expectedJson[i]), JsonUtil.parseJson(actualJson[i]), "")) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+}
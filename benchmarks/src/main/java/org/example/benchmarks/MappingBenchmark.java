@@ -0,0 +1,66 @@
+package org.example.benchmarks;
+
+import org.apache.avro.Schema;
+import org.example.util.BigQueryRowEncoder;
+import org.example.util.FieldMappingPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Field mapping parsing ({@link FieldMappingPlan}) and column naming ({@link BigQueryRowEncoder#camelToUnderscore}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+    @Param({"0", "50"})
+    public int extraFields;
+
+    private String mappings;
+    private String[] fieldNames;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream in = MappingBenchmark.class.getResourceAsStream("/field-mappings.properties")) {
+            mappings = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        Schema schema = SyntheticOrders.schema(extraFields);
+        List<Schema.Field> fields = schema.getFields();
+        fieldNames = new String[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            fieldNames[i] = fields.get(i).name();
+        }
+    }
+
+    @Benchmark
+    public FieldMappingPlan parseFieldMappings() throws IOException {
+        return FieldMappingPlan.parse(new StringReader(mappings));
+    }
+
+    @Benchmark
+    public void camelToUnderscore(Blackhole blackhole) {
+        for (String name : fieldNames) {
+            blackhole.consume(BigQueryRowEncoder.camelToUnderscore(name));
+        }
+    }
+}
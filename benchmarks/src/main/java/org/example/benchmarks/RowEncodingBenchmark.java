@@ -0,0 +1,73 @@
+package org.example.benchmarks;
+
+import com.google.cloud.bigquery.InsertAllRequest;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.example.util.AvroUtil;
+import org.example.util.BigQueryRowEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Avro records to BigQuery {@code insertAll} rows ({@link BigQueryRowEncoder}), which replaced the reflective
+ * {@code convertFieldNames} pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowEncodingBenchmark {
+    @Param({"0", "50"})
+    public int extraFields;
+
+    @Param({"1", "20"})
+    public int items;
+
+    @Param({"100", "10000"})
+    public int batchSize;
+
+    private List<GenericRecord> records;
+    private BigQueryRowEncoder encoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        Schema schema = SyntheticOrders.schema(extraFields);
+        records = AvroUtil.createAvroRequestFromData(SyntheticOrders.orders(42, batchSize, extraFields, items), schema);
+        encoder = BigQueryRowEncoder.forSchema(schema);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> encode() {
+        List<Map<String, Object>> rows = new ArrayList<>(records.size());
+        for (GenericRecord record : records) {
+            rows.add(encoder.encode(record));
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public List<InsertAllRequest.RowToInsert> toRowsWithInsertIds() {
+        List<InsertAllRequest.RowToInsert> rows = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            rows.add(encoder.toRow(records.get(i), "bench-" + i));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,107 @@
+package org.example.benchmarks;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.ResolvingDecoder;
+import org.example.util.AvroUtil;
+import org.example.util.ResolvingRecordDecoder;
+import org.example.util.SchemaRegistry;
+import org.example.util.SyntheticRecordGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a stream of single-object messages written with a mix of schema versions into the current orders.avro:
+ * {@link ResolvingRecordDecoder} with cached readers per version pair, against resolving writer and reader schemas
+ * again for every message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaEvolutionBenchmark {
+    /** 1: current version only; 3: previous, current and next version interleaved. */
+    @Param({"1", "3"})
+    public int versions;
+
+    @Param({"1000"})
+    public int batchSize;
+
+    private Schema readerSchema;
+    private SchemaRegistry registry;
+    private ResolvingRecordDecoder decoder;
+    private List<byte[]> messages;
+
+    @Setup
+    public void setUp() throws IOException {
+        registry = new SchemaRegistry();
+        readerSchema = AvroUtil.loadSchema("orders.avro");
+        List<Schema> writerSchemas = new ArrayList<>();
+        writerSchemas.add(readerSchema);
+        if (versions == 3) {
+            writerSchemas.add(AvroUtil.loadSchema("schemas/orders-v1.avro"));
+            // Next version adds a field with a default, which the current reader skips
+            writerSchemas.add(new Schema.Parser().parse(readerSchema.toString().replace(
+                "{\"name\":\"discountApplied\",\"type\":\"boolean\"}",
+                "{\"name\":\"discountApplied\",\"type\":\"boolean\"},{\"name\":\"channel\",\"type\":\"string\",\"default\":\"web\"}")));
+        }
+        SyntheticRecordGenerator.Profile profile = SyntheticRecordGenerator.Profile.fromResource("/synthetic-orders.properties");
+        List<SyntheticRecordGenerator> generators = new ArrayList<>();
+        for (Schema writerSchema : writerSchemas) {
+            generators.add(new SyntheticRecordGenerator(writerSchema, 42, profile));
+        }
+        messages = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            messages.add(registry.encodeMessage(generators.get(i % generators.size()).record(i)));
+        }
+        decoder = new ResolvingRecordDecoder(registry);
+    }
+
+    @Benchmark
+    public void cachedReaders(Blackhole blackhole) {
+        for (byte[] message : messages) {
+            blackhole.consume(decoder.decodeMessage(message, readerSchema));
+        }
+    }
+
+    @Benchmark
+    public void resolvePerMessage(Blackhole blackhole) throws IOException {
+        PerMessageReader reader = new PerMessageReader();
+        BinaryDecoder binary = null;
+        for (byte[] message : messages) {
+            Schema writerSchema = registry.findByFingerprint(SchemaRegistry.fingerprintOf(message));
+            binary = DecoderFactory.get().binaryDecoder(message, 10, message.length - 10, binary);
+            ResolvingDecoder resolving = DecoderFactory.get().resolvingDecoder(writerSchema, readerSchema, binary);
+            blackhole.consume(reader.read(resolving, readerSchema));
+        }
+    }
+
+    // What GenericDatumReader.read does, minus its per-thread cache of resolving decoders
+    private static final class PerMessageReader extends GenericDatumReader<GenericRecord> {
+        GenericRecord read(ResolvingDecoder in, Schema readerSchema) throws IOException {
+            GenericRecord record = (GenericRecord) read(null, readerSchema, in);
+            in.drain();
+            return record;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.example.benchmarks;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.example.model.Order;
+import org.example.util.AvroBinaryCodec;
+import org.example.util.AvroUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generic vs generated SpecificRecord path for orders.avro: building records from Cucumber-style maps, and Avro
+ * binary encoding and decoding through {@link AvroBinaryCodec}. {@code encodeGenericUnreused} is the
+ * writer-and-encoder-per-record baseline the codec replaces.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpecificRecordBenchmark {
+    @Param({"1", "20"})
+    public int items;
+
+    @Param({"1000"})
+    public int batchSize;
+
+    private Schema schema;
+    private List<Map<String, Object>> data;
+    private List<GenericRecord> genericRecords;
+    private List<Order> orders;
+    private List<byte[]> encoded;
+    private AvroBinaryCodec<GenericRecord> genericCodec;
+    private AvroBinaryCodec<Order> orderCodec;
+
+    @Setup
+    public void setUp() throws IOException {
+        schema = SyntheticOrders.schema(0);
+        data = SyntheticOrders.orders(42, batchSize, 0, items);
+        genericRecords = AvroUtil.createAvroRequestFromData(data, schema);
+        orders = AvroUtil.createOrdersFromData(data);
+        genericCodec = AvroBinaryCodec.generic(schema);
+        orderCodec = AvroBinaryCodec.specific(Order.class);
+        encoded = new ArrayList<>(batchSize);
+        for (Order order : orders) {
+            encoded.add(orderCodec.encode(order));
+        }
+    }
+
+    @Benchmark
+    public List<GenericRecord> buildGeneric() {
+        return AvroUtil.createAvroRequestFromData(data, schema);
+    }
+
+    @Benchmark
+    public List<Order> buildSpecific() {
+        return AvroUtil.createOrdersFromData(data);
+    }
+
+    @Benchmark
+    public void encodeGenericUnreused(Blackhole blackhole) throws IOException {
+        for (GenericRecord record : genericRecords) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+            new GenericDatumWriter<GenericRecord>(schema).write(record, encoder);
+            encoder.flush();
+            blackhole.consume(out.toByteArray());
+        }
+    }
+
+    @Benchmark
+    public void encodeGeneric(Blackhole blackhole) {
+        for (GenericRecord record : genericRecords) {
+            blackhole.consume(genericCodec.encode(record));
+        }
+    }
+
+    @Benchmark
+    public void encodeSpecific(Blackhole blackhole) {
+        for (Order order : orders) {
+            blackhole.consume(orderCodec.encode(order));
+        }
+    }
+
+    @Benchmark
+    public void decodeGeneric(Blackhole blackhole) {
+        for (byte[] bytes : encoded) {
+            blackhole.consume(genericCodec.decode(bytes));
+        }
+    }
+
+    @Benchmark
+    public void decodeSpecific(Blackhole blackhole) {
+        for (byte[] bytes : encoded) {
+            blackhole.consume(orderCodec.decode(bytes));
+        }
+    }
+}
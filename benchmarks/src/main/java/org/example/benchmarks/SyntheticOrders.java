@@ -0,0 +1,110 @@
+package org.example.benchmarks;
+
+import org.apache.avro.Schema;
+import org.example.util.AvroUtil;
+import org.example.util.BigQueryRowEncoder;
+import org.example.util.FieldMappingPlan;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Seeded synthetic orders shaped like the Cucumber data table, with {@code extraFields} additional string columns to
+ * vary record width and {@code items} entries per order to vary array length.
+ */
+final class SyntheticOrders {
+    private static final String[] TIERS = {"GOLD", "SILVER", "BRONZE"};
+    private static final String[] CATEGORIES = {"Electronics", "Books", "Garden", "Toys"};
+
+    private SyntheticOrders() {
+    }
+
+    static Schema schema(int extraFields) throws IOException {
+        Schema orders = AvroUtil.loadSchema("orders.avro");
+        if (extraFields == 0) {
+            return orders;
+        }
+        List<Schema.Field> fields = new ArrayList<>();
+        for (Schema.Field field : orders.getFields()) {
+            fields.add(new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultVal()));
+        }
+        for (int i = 0; i < extraFields; i++) {
+            fields.add(new Schema.Field("attribute" + i, Schema.create(Schema.Type.STRING), null, (Object) null));
+        }
+        return Schema.createRecord(orders.getName() + "Wide" + extraFields, orders.getDoc(), orders.getNamespace(), false, fields);
+    }
+
+    static FieldMappingPlan mappingPlan(int extraFields) throws IOException {
+        StringBuilder mappings = new StringBuilder()
+            .append("orderId=order_id\n")
+            .append("customer=[customerId=customer_id,name=name,email=email,phone=phone,loyaltyTier=loyalty_tier]\n")
+            .append("items=[productId=product_id,productName=product_name,quantity=quantity,unitPrice=unit_price,category=category]\n")
+            .append("orderDate=order_date\n")
+            .append("shippingAddress=shipping_address:{street=street,city=city,state=state,zipCode=zip_code,country=country}\n")
+            .append("paymentMethod=payment_method\nstatus=status\nmetadata=metadata\n")
+            .append("totalAmount=total_amount\ntaxAmount=tax_amount\ndiscountApplied=discount_applied\n");
+        for (int i = 0; i < extraFields; i++) {
+            mappings.append("attribute").append(i).append('=').append(BigQueryRowEncoder.camelToUnderscore("attribute" + i)).append('\n');
+        }
+        return FieldMappingPlan.parse(new StringReader(mappings.toString()));
+    }
+
+    static List<Map<String, Object>> orders(long seed, int count, int extraFields, int items) {
+        Random random = new Random(seed);
+        List<Map<String, Object>> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            orders.add(order(random, i, extraFields, items));
+        }
+        return orders;
+    }
+
+    private static Map<String, Object> order(Random random, int index, int extraFields, int items) {
+        Map<String, Object> order = new HashMap<>();
+        order.put("orderId", "ORD_" + index);
+        order.put("orderDate", "2024-01-" + (1 + random.nextInt(28)));
+        order.put("paymentMethod", random.nextBoolean() ? "CREDIT_CARD" : "PAYPAL");
+        order.put("status", random.nextBoolean() ? "COMPLETED" : "PENDING");
+        order.put("metadata", "{\"source\":\"web\"}");
+        order.put("totalAmount", Math.round(random.nextDouble() * 100_000) / 100.0);
+        order.put("taxAmount", Math.round(random.nextDouble() * 10_000) / 100.0);
+        order.put("discountApplied", random.nextBoolean());
+
+        Map<String, Object> customer = new HashMap<>();
+        customer.put("customerId", "CUST_" + random.nextInt(100_000));
+        customer.put("name", "Customer " + random.nextInt(100_000));
+        customer.put("email", "customer" + random.nextInt(100_000) + "@example.com");
+        customer.put("phone", "+1-555-" + (1000 + random.nextInt(9000)));
+        customer.put("loyaltyTier", TIERS[random.nextInt(TIERS.length)]);
+        order.put("customer", customer);
+
+        List<Map<String, Object>> itemList = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("productId", "PROD_" + random.nextInt(10_000));
+            item.put("productName", "Product " + random.nextInt(10_000));
+            item.put("quantity", (long) (1 + random.nextInt(10)));
+            item.put("unitPrice", Math.round(random.nextDouble() * 100_000) / 100.0);
+            item.put("category", CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            itemList.add(item);
+        }
+        order.put("items", itemList);
+
+        Map<String, Object> address = new HashMap<>();
+        address.put("street", random.nextInt(1000) + " Main St");
+        address.put("city", "City " + random.nextInt(500));
+        address.put("state", "WA");
+        address.put("zipCode", String.valueOf(10_000 + random.nextInt(89_999)));
+        address.put("country", "USA");
+        order.put("shippingAddress", address);
+
+        for (int i = 0; i < extraFields; i++) {
+            order.put("attribute" + i, Long.toHexString(random.nextLong()));
+        }
+        return order;
+    }
+}
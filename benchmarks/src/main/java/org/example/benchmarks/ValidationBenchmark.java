@@ -0,0 +1,90 @@
+package org.example.benchmarks;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.example.util.AvroUtil;
+import org.example.util.BigQueryRowEncoder;
+import org.example.util.JsonUtil;
+import org.example.util.RecordValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key-joined record validation ({@link RecordValidator}) of retrieved rows, typed and as JSON, with a share of rows
+ * carrying a wrong {@code total_amount}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+    @Param({"0", "50"})
+    public int extraFields;
+
+    @Param({"1", "20"})
+    public int items;
+
+    @Param({"1000", "100000"})
+    public int batchSize;
+
+    @Param({"0", "0.01", "0.1"})
+    public double mismatchRate;
+
+    private List<Map<String, Object>> expected;
+    private List<Map<String, Object>> actual;
+    private List<String> actualJson;
+    private RecordValidator validator;
+
+    @Setup
+    public void setUp() throws IOException {
+        Schema schema = SyntheticOrders.schema(extraFields);
+        expected = SyntheticOrders.orders(42, batchSize, extraFields, items);
+        BigQueryRowEncoder encoder = BigQueryRowEncoder.forSchema(schema);
+        Random random = new Random(7);
+        actual = new ArrayList<>(batchSize);
+        actualJson = new ArrayList<>(batchSize);
+        for (GenericRecord record : AvroUtil.createAvroRequestFromData(expected, schema)) {
+            Map<String, Object> row = encoder.encode(record);
+            if (random.nextDouble() < mismatchRate) {
+                row.put("total_amount", ((Number) row.get("total_amount")).doubleValue() + 1);
+            }
+            actual.add(row);
+            actualJson.add(JsonUtil.toJson(row));
+        }
+        validator = new RecordValidator(SyntheticOrders.mappingPlan(extraFields), "orderId");
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        validator.close();
+    }
+
+    @Benchmark
+    public RecordValidator.Report validateTyped() throws InterruptedException {
+        return validator.validate(expected, actual.iterator());
+    }
+
+    @Benchmark
+    public RecordValidator.Report validateJson() throws InterruptedException {
+        return validator.validateJson(expected, actualJson.iterator());
+    }
+}
@@ -0,0 +1,106 @@
+package org.example.util;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecordBase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Supplier;
+
+/**
+ * Avro binary encoding of single records (no container header), for either {@link GenericRecord}s or generated
+ * SpecificRecord classes. Each thread keeps its own datum writer and reader, encoder, decoder and output buffer, so
+ * encoding a record allocates nothing but the returned bytes.
+ */
+public final class AvroBinaryCodec<T extends GenericRecord> {
+    private static final int INITIAL_BUFFER_BYTES = 1024;
+
+    private final Schema schema;
+    private final ThreadLocal<Buffers<T>> buffers;
+
+    private AvroBinaryCodec(Schema schema, Supplier<DatumWriter<T>> writers, Supplier<DatumReader<T>> readers) {
+        this.schema = schema;
+        this.buffers = ThreadLocal.withInitial(() -> new Buffers<>(writers.get(), readers.get()));
+    }
+
+    public static AvroBinaryCodec<GenericRecord> generic(Schema schema) {
+        return new AvroBinaryCodec<>(schema, () -> new GenericDatumWriter<>(schema), () -> new GenericDatumReader<>(schema));
+    }
+
+    /**
+     * Codec for a generated class such as {@code org.example.model.Order}, using its embedded schema. The generated
+     * field-by-field coders are switched on for this codec only; Avro leaves them off by default.
+     */
+    public static <T extends SpecificRecordBase> AvroBinaryCodec<T> specific(Class<T> type) {
+        SpecificData data = new SpecificData(type.getClassLoader());
+        data.setCustomCoders(true);
+        Schema schema = data.getSchema(type);
+        return new AvroBinaryCodec<>(schema, () -> new SpecificDatumWriter<>(schema, data),
+            () -> new SpecificDatumReader<>(schema, schema, data));
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public byte[] encode(T record) {
+        Buffers<T> local = buffers.get();
+        local.out.reset();
+        try {
+            local.encoder = EncoderFactory.get().binaryEncoder(local.out, local.encoder);
+            local.writer.write(record, local.encoder);
+            local.encoder.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode " + schema.getFullName() + " record", e);
+        }
+        return local.out.toByteArray();
+    }
+
+    public void encode(T record, OutputStream out) throws IOException {
+        Buffers<T> local = buffers.get();
+        local.encoder = EncoderFactory.get().binaryEncoder(out, local.encoder);
+        local.writer.write(record, local.encoder);
+        local.encoder.flush();
+    }
+
+    public T decode(byte[] bytes) {
+        return decode(bytes, 0, bytes.length, null);
+    }
+
+    /** Decodes into {@code reuse} when it is not null, avoiding a new record per call. */
+    public T decode(byte[] bytes, int offset, int length, T reuse) {
+        Buffers<T> local = buffers.get();
+        local.decoder = DecoderFactory.get().binaryDecoder(bytes, offset, length, local.decoder);
+        try {
+            return local.reader.read(reuse, local.decoder);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode " + schema.getFullName() + " record", e);
+        }
+    }
+
+    private static final class Buffers<T> {
+        private final DatumWriter<T> writer;
+        private final DatumReader<T> reader;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_BUFFER_BYTES);
+        private BinaryEncoder encoder;
+        private BinaryDecoder decoder;
+
+        Buffers(DatumWriter<T> writer, DatumReader<T> reader) {
+            this.writer = writer;
+            this.reader = reader;
+        }
+    }
+}
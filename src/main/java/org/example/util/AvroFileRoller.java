@@ -0,0 +1,194 @@
+package org.example.util;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Writes records into Avro container files, starting a new file once the current one reaches {@code maxFileBytes}.
+ * A single {@link DataFileWriter} (and its block encoder) is reused across files. Files only become visible through
+ * {@link #getCompletedFiles()} and the roll listener once they are closed, so they can be handed to a load job.
+ */
+public class AvroFileRoller implements Closeable {
+    public static final long DEFAULT_MAX_FILE_BYTES = 256L * 1024 * 1024;
+
+    private final Schema schema;
+    private final Path directory;
+    private final String filePrefix;
+    private final long maxFileBytes;
+    private final DataFileWriter<GenericRecord> writer;
+    private final List<Path> completedFiles = new ArrayList<>();
+    private Consumer<Path> rollListener = path -> { };
+    private DatumBuffer datum;
+    private BinaryEncoder datumEncoder;
+
+    private CountingOutputStream currentOut;
+    private Path currentFile;
+    private long currentRecords;
+    private long totalRecords;
+    private int fileIndex;
+
+    public AvroFileRoller(Schema schema, Path directory, String filePrefix, String codec, long maxFileBytes) throws IOException {
+        this.schema = schema;
+        this.directory = Files.createDirectories(directory);
+        this.filePrefix = filePrefix;
+        this.maxFileBytes = maxFileBytes;
+        this.writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(schema));
+        this.writer.setCodec(CodecFactory.fromString(codec));
+    }
+
+    public void setRollListener(Consumer<Path> rollListener) {
+        this.rollListener = rollListener;
+    }
+
+    public void append(GenericRecord record) throws IOException {
+        if (currentFile == null) {
+            open();
+        }
+        writer.append(record);
+        appended();
+    }
+
+    /** Appends a datum that is already Avro binary in this roller's schema. */
+    public void appendEncoded(ByteBuffer encoded) throws IOException {
+        if (currentFile == null) {
+            open();
+        }
+        writer.appendEncoded(encoded);
+        appended();
+    }
+
+    /**
+     * Appends every order staged in {@code columns}, encoding each one from the columns into a reused buffer rather
+     * than through a record. The roller's schema must be orders.avro or its column-named copy.
+     */
+    public void appendAll(OrderColumnBuffer columns) throws IOException {
+        if (!OrderColumnBuffer.canWrite(schema)) {
+            throw new IllegalArgumentException("Staged orders cannot be written as " + schema.getFullName());
+        }
+        if (datum == null) {
+            datum = new DatumBuffer();
+        }
+        for (int row = 0; row < columns.size(); row++) {
+            datum.reset();
+            datumEncoder = EncoderFactory.get().directBinaryEncoder(datum, datumEncoder);
+            columns.writeAvro(row, datumEncoder);
+            appendEncoded(datum.toByteBuffer());
+        }
+    }
+
+    private void appended() throws IOException {
+        currentRecords++;
+        totalRecords++;
+        // Only flushed blocks are counted, so a file can overshoot by at most one sync interval
+        if (currentOut.count >= maxFileBytes) {
+            roll();
+        }
+    }
+
+    public void appendAll(List<? extends GenericRecord> records) throws IOException {
+        for (GenericRecord record : records) {
+            append(record);
+        }
+    }
+
+    public void roll() throws IOException {
+        if (currentFile == null) {
+            return;
+        }
+        writer.close();
+        Path finished = currentFile;
+        currentFile = null;
+        currentOut = null;
+        if (currentRecords == 0) {
+            Files.deleteIfExists(finished);
+            return;
+        }
+        completedFiles.add(finished);
+        rollListener.accept(finished);
+    }
+
+    /** Closes the file being written and deletes it without handing it to the roll listener. */
+    public void abort() throws IOException {
+        if (currentFile == null) {
+            return;
+        }
+        Path discarded = currentFile;
+        currentFile = null;
+        currentOut = null;
+        try {
+            writer.close();
+        } finally {
+            Files.deleteIfExists(discarded);
+        }
+    }
+
+    public List<Path> getCompletedFiles() {
+        return Collections.unmodifiableList(completedFiles);
+    }
+
+    public long getTotalRecords() {
+        return totalRecords;
+    }
+
+    @Override
+    public void close() throws IOException {
+        roll();
+    }
+
+    private void open() throws IOException {
+        currentFile = directory.resolve(String.format("%s-%05d.avro", filePrefix, fileIndex++));
+        currentOut = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(currentFile), 64 * 1024));
+        currentRecords = 0;
+        writer.create(schema, currentOut);
+    }
+
+    // Exposes its array, so an encoded datum is appended without copying it out
+    private static class DatumBuffer extends ByteArrayOutputStream {
+        DatumBuffer() {
+            super(1024);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.TableId;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bulk sink that writes records into rolling Avro container files and loads each finished file into BigQuery with
+ * an Avro load job. Files use the BigQuery column names (see {@link BigQueryRowEncoder#toColumnSchema}), so the
+ * loaded columns line up with the streaming insert path. Closing a writer that was not finished aborts it: load jobs
+ * for files rolled earlier may already be committing rows, so they are awaited and the rows they committed are
+ * reported rather than left to land silently.
+ */
+public class AvroLoadJobWriter implements AutoCloseable {
+    public static final String DEFAULT_CODEC = "snappy";
+
+    private final BigQueryUtil bigQueryUtil;
+    private final TableId table;
+    private final Path directory;
+    private final String codec;
+    private final long maxFileBytes;
+    private final List<BigQueryClient.LoadJob> jobs = new ArrayList<>();
+    private AvroFileRoller roller;
+    private Schema recordSchema;
+    private boolean finished;
+
+    public AvroLoadJobWriter(BigQueryUtil bigQueryUtil, TableId table, Path directory) {
+        this(bigQueryUtil, table, directory, DEFAULT_CODEC, AvroFileRoller.DEFAULT_MAX_FILE_BYTES);
+    }
+
+    public AvroLoadJobWriter(BigQueryUtil bigQueryUtil, TableId table, Path directory, String codec, long maxFileBytes) {
+        this.bigQueryUtil = bigQueryUtil;
+        this.table = table;
+        this.directory = directory;
+        this.codec = codec;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    public void append(GenericRecord record) throws IOException {
+        roller(record.getSchema()).append(record);
+    }
+
+    public void appendAll(List<? extends GenericRecord> records) throws IOException {
+        for (GenericRecord record : records) {
+            append(record);
+        }
+    }
+
+    /** Writes the staged orders straight from their columns into the load files. */
+    public void appendAll(OrderColumnBuffer columns) throws IOException {
+        if (columns.size() > 0) {
+            roller(columns.getSchema()).appendAll(columns);
+        }
+    }
+
+    private AvroFileRoller roller(Schema schema) throws IOException {
+        if (roller == null) {
+            recordSchema = schema;
+            roller = new AvroFileRoller(BigQueryRowEncoder.toColumnSchema(recordSchema), directory, table.getTable(), codec, maxFileBytes);
+            // Upload each file as soon as it is rolled; the load jobs then run server-side while we keep writing
+            roller.setRollListener(this::startLoad);
+        } else if (recordSchema != schema && SchemaRegistry.fingerprint(recordSchema) != SchemaRegistry.fingerprint(schema)) {
+            throw new IllegalArgumentException("All records loaded into " + table + " must share schema " + recordSchema.getFullName());
+        }
+        return roller;
+    }
+
+    /**
+     * Closes the last file, waits for every load job, removes the files that were loaded and returns the number of
+     * rows the jobs loaded.
+     */
+    public long finish() throws IOException, InterruptedException {
+        if (roller == null) {
+            return 0;
+        }
+        roller.close();
+        long outputRows = 0;
+        for (BigQueryClient.LoadJob job : jobs) {
+            outputRows += job.awaitCompletion();
+        }
+        for (Path file : roller.getCompletedFiles()) {
+            Files.deleteIfExists(file);
+        }
+        finished = true;
+        Log.info("Loaded " + outputRows + " rows into " + table + " from " + jobs.size() + " Avro file(s)");
+        return outputRows;
+    }
+
+    /**
+     * Discards the file being written, waits for the load jobs already started and removes the files. Returns the
+     * number of rows those jobs committed, which stay in the table.
+     */
+    public long abort() throws InterruptedException {
+        finished = true;
+        if (roller == null) {
+            return 0;
+        }
+        try {
+            roller.abort();
+        } catch (IOException e) {
+            Log.warn(() -> "Failed to discard the open load file for " + table + ": " + e.getMessage());
+        }
+        long committedRows = 0;
+        int committedJobs = 0;
+        for (BigQueryClient.LoadJob job : jobs) {
+            try {
+                committedRows += job.awaitCompletion();
+                committedJobs++;
+            } catch (RuntimeException e) {
+                Log.warn(() -> "Load job " + job.getJobId() + " into " + table + " failed: " + e.getMessage());
+            }
+        }
+        for (Path file : roller.getCompletedFiles()) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                Log.warn(() -> "Failed to delete " + file + ": " + e.getMessage());
+            }
+        }
+        long rows = committedRows;
+        int loaded = committedJobs;
+        Log.warn(() -> "Aborted load into " + table + "; " + rows + " row(s) from " + loaded + " of " + jobs.size()
+            + " started load job(s) were already committed");
+        return committedRows;
+    }
+
+    /** Aborts the load unless {@link #finish} completed. */
+    @Override
+    public void close() throws InterruptedException {
+        if (!finished) {
+            abort();
+        }
+    }
+
+    /** Files rolled so far, each loaded by its own job. */
+    public int getFileCount() {
+        return jobs.size();
+    }
+
+    private void startLoad(Path file) {
+        try {
+            jobs.add(bigQueryUtil.startAvroLoad(table, file));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to upload " + file + " for load into " + table, e);
+        }
+    }
+}
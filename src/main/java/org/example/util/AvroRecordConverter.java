@@ -0,0 +1,241 @@
+package org.example.util;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts {@code Map<String, Object>} rows into {@link GenericData.Record}s using a plan compiled once per schema.
+ * Field positions, nested record plans and per-type value converters are resolved up front, so converting a row
+ * is a straight walk over arrays with no schema lookups.
+ */
+public final class AvroRecordConverter {
+    private static final Map<Schema, AvroRecordConverter> CACHE = new ConcurrentHashMap<>();
+
+    private final Schema schema;
+    private final String[] fieldNames;
+    private final int[] positions;
+    private final Schema[] fieldSchemas;
+    private final Object[] defaults;
+    private ValueConverter[] converters;
+
+    @FunctionalInterface
+    private interface ValueConverter {
+        Object convert(Object value);
+    }
+
+    private AvroRecordConverter(Schema schema) {
+        List<Schema.Field> fields = schema.getFields();
+        this.schema = schema;
+        this.fieldNames = new String[fields.size()];
+        this.positions = new int[fields.size()];
+        this.fieldSchemas = new Schema[fields.size()];
+        this.defaults = new Object[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            Schema.Field field = fields.get(i);
+            fieldNames[i] = field.name();
+            positions[i] = field.pos();
+            fieldSchemas[i] = field.schema();
+            defaults[i] = field.hasDefaultValue() ? GenericData.get().getDefaultValue(field) : null;
+        }
+    }
+
+    public static AvroRecordConverter forSchema(Schema schema) {
+        AvroRecordConverter cached = CACHE.get(schema);
+        if (cached != null) {
+            return cached;
+        }
+        if (schema.getType() != Schema.Type.RECORD) {
+            throw new IllegalArgumentException("Expected a record schema but got " + schema.getType());
+        }
+        // Compile outside computeIfAbsent: nested and recursive records are registered in 'compiled' first
+        Map<Schema, AvroRecordConverter> compiled = new IdentityHashMap<>();
+        AvroRecordConverter converter = compile(schema, compiled);
+        compiled.forEach(CACHE::putIfAbsent);
+        return CACHE.getOrDefault(schema, converter);
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public GenericData.Record convert(Map<String, Object> data) {
+        GenericData.Record record = new GenericData.Record(schema);
+        for (int i = 0; i < fieldNames.length; i++) {
+            Object value = data.get(fieldNames[i]);
+            if (value == null) {
+                Object defaultValue = defaults[i];
+                record.put(positions[i], defaultValue == null ? null : GenericData.get().deepCopy(fieldSchemas[i], defaultValue));
+            } else {
+                record.put(positions[i], converters[i].convert(value));
+            }
+        }
+        return record;
+    }
+
+    public List<GenericRecord> convertAll(List<Map<String, Object>> rows) {
+        List<GenericRecord> records = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            records.add(convert(row));
+        }
+        return records;
+    }
+
+    private static AvroRecordConverter compile(Schema recordSchema, Map<Schema, AvroRecordConverter> compiled) {
+        AvroRecordConverter existing = compiled.get(recordSchema);
+        if (existing != null) {
+            return existing;
+        }
+        AvroRecordConverter converter = new AvroRecordConverter(recordSchema);
+        compiled.put(recordSchema, converter);
+        List<Schema.Field> fields = recordSchema.getFields();
+        ValueConverter[] fieldConverters = new ValueConverter[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            fieldConverters[i] = converterFor(fields.get(i).schema(), compiled);
+        }
+        converter.converters = fieldConverters;
+        return converter;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ValueConverter converterFor(Schema fieldSchema, Map<Schema, AvroRecordConverter> compiled) {
+        switch (fieldSchema.getType()) {
+            case RECORD: {
+                AvroRecordConverter nested = compile(fieldSchema, compiled);
+                return value -> value instanceof Map ? nested.convert((Map<String, Object>) value) : value;
+            }
+            case ARRAY: {
+                ValueConverter element = converterFor(fieldSchema.getElementType(), compiled);
+                return value -> {
+                    List<Object> list = (List<Object>) value;
+                    GenericData.Array<Object> array = new GenericData.Array<>(list.size(), fieldSchema);
+                    for (Object item : list) {
+                        array.add(item == null ? null : element.convert(item));
+                    }
+                    return array;
+                };
+            }
+            case MAP: {
+                ValueConverter valueConverter = converterFor(fieldSchema.getValueType(), compiled);
+                return value -> {
+                    Map<Object, Object> map = (Map<Object, Object>) value;
+                    Map<String, Object> converted = new HashMap<>(map.size() * 4 / 3 + 1);
+                    for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                        Object entryValue = entry.getValue();
+                        converted.put(entry.getKey().toString(), entryValue == null ? null : valueConverter.convert(entryValue));
+                    }
+                    return converted;
+                };
+            }
+            case UNION:
+                return unionConverter(fieldSchema, compiled);
+            case ENUM: {
+                Map<String, GenericData.EnumSymbol> symbols = new HashMap<>();
+                for (String symbol : fieldSchema.getEnumSymbols()) {
+                    symbols.put(symbol, new GenericData.EnumSymbol(fieldSchema, symbol));
+                }
+                return value -> {
+                    GenericData.EnumSymbol symbol = symbols.get(value.toString());
+                    if (symbol == null) {
+                        throw new AvroRuntimeException("Unknown symbol " + value + " for enum " + fieldSchema.getFullName());
+                    }
+                    return symbol;
+                };
+            }
+            case FIXED:
+                return value -> value instanceof byte[] ? new GenericData.Fixed(fieldSchema, (byte[]) value) : value;
+            case BYTES:
+                return AvroRecordConverter::toBytes;
+            case STRING:
+                return value -> value instanceof CharSequence ? value : value.toString();
+            case INT:
+                return value -> value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+            case LONG:
+                return value -> value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+            case FLOAT:
+                return value -> value instanceof Number ? ((Number) value).floatValue() : Float.parseFloat(value.toString());
+            case DOUBLE:
+                return value -> value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+            case BOOLEAN:
+                return value -> value instanceof Boolean ? value : Boolean.parseBoolean(value.toString());
+            case NULL:
+                return value -> null;
+            default:
+                throw new IllegalArgumentException("Unsupported Avro type: " + fieldSchema.getType());
+        }
+    }
+
+    private static ValueConverter unionConverter(Schema unionSchema, Map<Schema, AvroRecordConverter> compiled) {
+        List<Schema> branches = new ArrayList<>();
+        for (Schema branch : unionSchema.getTypes()) {
+            if (branch.getType() != Schema.Type.NULL) {
+                branches.add(branch);
+            }
+        }
+        // Nullable fields ([null, T]) are by far the common case: delegate straight to T
+        if (branches.size() == 1) {
+            return converterFor(branches.get(0), compiled);
+        }
+        Schema.Type[] types = new Schema.Type[branches.size()];
+        ValueConverter[] branchConverters = new ValueConverter[branches.size()];
+        for (int i = 0; i < branches.size(); i++) {
+            types[i] = branches.get(i).getType();
+            branchConverters[i] = converterFor(branches.get(i), compiled);
+        }
+        return value -> {
+            for (int i = 0; i < types.length; i++) {
+                if (accepts(types[i], value)) {
+                    return branchConverters[i].convert(value);
+                }
+            }
+            throw new AvroRuntimeException("Value of type " + value.getClass().getName() + " does not match union " + unionSchema);
+        };
+    }
+
+    private static boolean accepts(Schema.Type type, Object value) {
+        switch (type) {
+            case RECORD:
+            case MAP:
+                return value instanceof Map;
+            case ARRAY:
+                return value instanceof List;
+            case STRING:
+            case ENUM:
+                return value instanceof CharSequence;
+            case BYTES:
+            case FIXED:
+                return value instanceof byte[] || value instanceof ByteBuffer;
+            case INT:
+                return value instanceof Integer || value instanceof Short || value instanceof Byte;
+            case LONG:
+                return value instanceof Long || value instanceof Integer;
+            case FLOAT:
+            case DOUBLE:
+                return value instanceof Number;
+            case BOOLEAN:
+                return value instanceof Boolean;
+            default:
+                return false;
+        }
+    }
+
+    private static Object toBytes(Object value) {
+        if (value instanceof ByteBuffer) {
+            return value;
+        }
+        if (value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value);
+        }
+        return ByteBuffer.wrap(value.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -3,85 +3,137 @@ package org.example.util;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
+import org.example.model.Address;
+import org.example.model.Customer;
+import org.example.model.Item;
+import org.example.model.Order;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class AvroUtil {
+    private static final ResolvingRecordDecoder RESOLVING_DECODER = new ResolvingRecordDecoder(SchemaRegistry.shared());
     
     public static Schema loadSchema(String schemaPath) throws IOException {
-        try (InputStream inputStream = AvroUtil.class.getClassLoader().getResourceAsStream(schemaPath)) {
-            return new Schema.Parser().parse(inputStream);
-        }
+        // Parsed once per process and registered by fingerprint; later calls return the same Schema instance
+        return SchemaRegistry.shared().loadSchema(schemaPath);
+    }
+    
+    /**
+     * Decodes an Avro single-object message written with any schema version registered in
+     * {@link SchemaRegistry#shared()} into {@code readerSchema}, e.g. the current orders.avro.
+     */
+    public static GenericRecord decodeMessage(byte[] message, Schema readerSchema) {
+        return RESOLVING_DECODER.decodeMessage(message, readerSchema);
     }
     
     public static List<GenericRecord> createAvroRequestFromData(List<Map<String, Object>> cucumberData, Schema schema) {
-        List<GenericRecord> records = new ArrayList<>();
-        
+        // Field positions and nested plans are compiled once per schema and cached
+        long start = System.nanoTime();
+        List<GenericRecord> records = AvroRecordConverter.forSchema(schema).convertAll(cucumberData);
+        Metrics.shared().record(Metrics.Phase.RECORD_BUILD, System.nanoTime() - start, records.size(), 0);
+        return records;
+    }
+    
+    /**
+     * Typed counterpart of {@link #createAvroRequestFromData} for orders.avro: fills the generated {@link Order}
+     * classes directly, so field types are checked at compile time and no schema lookups happen per record. The
+     * all-args constructors are used rather than the builders, which validate and copy every field again.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Order> createOrdersFromData(List<Map<String, Object>> cucumberData) {
+        long start = System.nanoTime();
+        List<Order> orders = new ArrayList<>(cucumberData.size());
         for (Map<String, Object> data : cucumberData) {
-            GenericRecord record = new GenericData.Record(schema);
-            
-            record.put("orderId", data.get("orderId"));
-            
-            // Create customer nested record
-            Map<String, Object> customerData = (Map<String, Object>) data.get("customer");
-            System.out.println("DEBUG: Looking for customer field in schema");
-            Schema.Field customerField = schema.getField("customer");
-            if (customerField == null) {
-                System.out.println("DEBUG: Customer field is null!");
-                throw new RuntimeException("Customer field not found in schema");
+            Map<String, Object> customer = (Map<String, Object>) data.get("customer");
+            Map<String, Object> address = (Map<String, Object>) data.get("shippingAddress");
+            List<Map<String, Object>> itemData = (List<Map<String, Object>>) data.get("items");
+            List<Item> items = new ArrayList<>(itemData.size());
+            for (Map<String, Object> item : itemData) {
+                items.add(new Item(
+                    (String) item.get("productId"),
+                    (String) item.get("productName"),
+                    ((Number) item.get("quantity")).longValue(),
+                    ((Number) item.get("unitPrice")).doubleValue(),
+                    (String) item.get("category")));
             }
-            Schema customerSchema = customerField.schema();
-            GenericRecord customerRecord = new GenericData.Record(customerSchema);
-            customerRecord.put("customerId", customerData.get("customerId"));
-            customerRecord.put("name", customerData.get("name"));
-            customerRecord.put("email", customerData.get("email"));
-            customerRecord.put("phone", customerData.get("phone"));
-            customerRecord.put("loyaltyTier", customerData.get("loyaltyTier"));
-            record.put("customer", customerRecord);
-            
-            // Create items array
-            List<Map<String, Object>> itemsData = (List<Map<String, Object>>) data.get("items");
-            Schema itemsSchema = schema.getField("items").schema();
-            Schema itemSchema = itemsSchema.getElementType();
-            List<GenericRecord> itemRecords = new ArrayList<>();
-            for (Map<String, Object> itemData : itemsData) {
-                GenericRecord itemRecord = new GenericData.Record(itemSchema);
-                itemRecord.put("productId", itemData.get("productId"));
-                itemRecord.put("productName", itemData.get("productName"));
-                itemRecord.put("quantity", itemData.get("quantity"));
-                itemRecord.put("unitPrice", itemData.get("unitPrice"));
-                itemRecord.put("category", itemData.get("category"));
-                itemRecords.add(itemRecord);
+            orders.add(new Order(
+                (String) data.get("orderId"),
+                new Customer(
+                    (String) customer.get("customerId"),
+                    (String) customer.get("name"),
+                    (String) customer.get("email"),
+                    (String) customer.get("phone"),
+                    (String) customer.get("loyaltyTier")),
+                items,
+                (String) data.get("orderDate"),
+                new Address(
+                    (String) address.get("street"),
+                    (String) address.get("city"),
+                    (String) address.get("state"),
+                    (String) address.get("zipCode"),
+                    (String) address.get("country")),
+                (String) data.get("paymentMethod"),
+                (String) data.get("status"),
+                (String) data.get("metadata"),
+                ((Number) data.get("totalAmount")).doubleValue(),
+                ((Number) data.get("taxAmount")).doubleValue(),
+                (Boolean) data.get("discountApplied")));
+        }
+        Metrics.shared().record(Metrics.Phase.RECORD_BUILD, System.nanoTime() - start, orders.size(), 0);
+        return orders;
+    }
+    
+    /**
+     * Columnar counterpart of {@link #createAvroRequestFromData} for orders.avro: the orders go straight into an
+     * off-heap {@link OrderColumnBuffer}, which the streaming and load paths read without building records.
+     */
+    public static OrderColumnBuffer stageOrdersFromData(List<Map<String, Object>> cucumberData) {
+        long start = System.nanoTime();
+        OrderColumnBuffer columns = new OrderColumnBuffer(Math.max(cucumberData.size(), 1));
+        for (Map<String, Object> data : cucumberData) {
+            columns.append(data);
+        }
+        Metrics.shared().record(Metrics.Phase.RECORD_BUILD, System.nanoTime() - start, columns.size(), columns.getOffHeapBytes());
+        return columns;
+    }
+    
+    /**
+     * Inverse of {@link #createAvroRequestFromData}: nested records become maps, arrays lists, and strings and enum
+     * symbols {@code String}s, so generated records can be validated like Cucumber data.
+     */
+    public static Map<String, Object> toMap(GenericRecord record) {
+        Map<String, Object> data = new HashMap<>();
+        for (Schema.Field field : record.getSchema().getFields()) {
+            data.put(field.name(), toPlainValue(record.get(field.pos())));
+        }
+        return data;
+    }
+    
+    private static Object toPlainValue(Object value) {
+        if (value instanceof GenericRecord) {
+            return toMap((GenericRecord) value);
+        }
+        if (value instanceof List) {
+            List<Object> values = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                values.add(toPlainValue(element));
             }
-            record.put("items", itemRecords);
-            
-            record.put("orderDate", data.get("orderDate"));
-            
-            // Create shipping address nested record
-            Map<String, Object> addressData = (Map<String, Object>) data.get("shippingAddress");
-            Schema addressSchema = schema.getField("shippingAddress").schema();
-            GenericRecord addressRecord = new GenericData.Record(addressSchema);
-            addressRecord.put("street", addressData.get("street"));
-            addressRecord.put("city", addressData.get("city"));
-            addressRecord.put("state", addressData.get("state"));
-            addressRecord.put("zipCode", addressData.get("zipCode"));
-            addressRecord.put("country", addressData.get("country"));
-            record.put("shippingAddress", addressRecord);
-            
-            record.put("paymentMethod", data.get("paymentMethod"));
-            record.put("status", data.get("status"));
-            record.put("metadata", data.get("metadata"));
-            record.put("totalAmount", data.get("totalAmount"));
-            record.put("taxAmount", data.get("taxAmount"));
-            record.put("discountApplied", data.get("discountApplied"));
-            
-            records.add(record);
+            return values;
         }
-        
-        return records;
+        if (value instanceof Map) {
+            Map<String, Object> values = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                values.put(entry.getKey().toString(), toPlainValue(entry.getValue()));
+            }
+            return values;
+        }
+        if (value instanceof CharSequence || value instanceof GenericData.EnumSymbol) {
+            return value.toString();
+        }
+        return value;
     }
-}
\ No newline at end of file
+}
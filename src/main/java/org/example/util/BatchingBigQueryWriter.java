@@ -0,0 +1,456 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.TableId;
+import com.google.common.base.Utf8;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams records through {@link BigQueryUtil#insertRows} in batches bounded by row count and estimated request size.
+ * Up to {@code maxInFlight} insertAll requests run concurrently; every row gets an insertId so that retries of the
+ * rows reported in {@code getInsertErrors()} are deduplicated by BigQuery.
+ */
+public class BatchingBigQueryWriter implements AutoCloseable {
+    // BigQuery recommends ~500 rows per request and rejects HTTP requests over 10 MB
+    public static final int DEFAULT_MAX_BATCH_ROWS = 500;
+    public static final long DEFAULT_MAX_BATCH_BYTES = 5L * 1024 * 1024;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final int ROW_OVERHEAD_BYTES = 64;
+
+    private final BigQueryUtil bigQueryUtil;
+    private final int maxBatchRows;
+    private final long maxBatchBytes;
+    private final int maxRetries;
+    private final Semaphore inFlight;
+    private final ExecutorService executor;
+    private final String insertIdPrefix = UUID.randomUUID().toString();
+    private final AtomicLong insertIdSequence = new AtomicLong();
+    private volatile RowSpool spool;
+
+    public BatchingBigQueryWriter(BigQueryUtil bigQueryUtil) {
+        this(bigQueryUtil, DEFAULT_MAX_BATCH_ROWS, DEFAULT_MAX_BATCH_BYTES, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_RETRIES);
+    }
+
+    public BatchingBigQueryWriter(BigQueryUtil bigQueryUtil, int maxBatchRows, long maxBatchBytes, int maxInFlight, int maxRetries) {
+        if (maxBatchRows <= 0 || maxBatchBytes <= 0 || maxInFlight <= 0 || maxRetries < 0) {
+            throw new IllegalArgumentException("Batch limits and in-flight count must be positive");
+        }
+        this.bigQueryUtil = bigQueryUtil;
+        this.maxBatchRows = maxBatchRows;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxRetries = maxRetries;
+        this.inFlight = new Semaphore(maxInFlight);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+            Thread thread = new Thread(runnable, "bigquery-insert-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * With a spool, rows that fail with a retryable error are appended to it straight away instead of being retried
+     * here, so a throttled write never sleeps on the caller's path; a {@link SpoolReplayer} resends them later.
+     */
+    public void setSpool(RowSpool spool) {
+        this.spool = spool;
+    }
+
+    public WriteResult write(String datasetId, String tableId, List<? extends GenericRecord> records) throws InterruptedException {
+        TableId table = bigQueryUtil.tableId(datasetId, tableId);
+        long start = System.nanoTime();
+
+        List<Future<BatchStats>> futures = new ArrayList<>();
+        Batch batch = new Batch(futures.size());
+        long batchStart = System.nanoTime();
+        BigQueryRowEncoder encoder = null;
+        for (GenericRecord record : records) {
+            if (encoder == null || encoder.getSchema() != record.getSchema()) {
+                encoder = BigQueryRowEncoder.forSchema(record.getSchema());
+            }
+            String insertId = insertIdPrefix + "-" + insertIdSequence.incrementAndGet();
+            InsertAllRequest.RowToInsert row = encoder.toRow(record, insertId);
+            long rowBytes = estimateBytes(row.getContent()) + insertId.length() + ROW_OVERHEAD_BYTES;
+            if (!batch.isEmpty() && (batch.size() >= maxBatchRows || batch.bytes + rowBytes > maxBatchBytes)) {
+                Metrics.shared().record(Metrics.Phase.ROW_ENCODE, System.nanoTime() - batchStart, batch.size(), batch.bytes);
+                futures.add(submit(table, batch));
+                batch = new Batch(futures.size());
+                batchStart = System.nanoTime();
+            }
+            batch.add(record, row, rowBytes);
+        }
+        if (!batch.isEmpty()) {
+            Metrics.shared().record(Metrics.Phase.ROW_ENCODE, System.nanoTime() - batchStart, batch.size(), batch.bytes);
+            futures.add(submit(table, batch));
+        }
+
+        List<BatchStats> batches = new ArrayList<>(futures.size());
+        for (Future<BatchStats> future : futures) {
+            try {
+                batches.add(future.get());
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Batch insert failed", e.getCause());
+            }
+        }
+        return new WriteResult(table, batches, System.nanoTime() - start);
+    }
+
+    /**
+     * Sends rows that are already encoded, with insertIds, as one insertAll batch on the calling thread, retrying with
+     * the same policy as {@link #write}. The batch limits of this writer are not applied.
+     */
+    public BatchStats writeRows(TableId table, int batchIndex, List<? extends GenericRecord> records,
+                                List<InsertAllRequest.RowToInsert> rows) throws InterruptedException {
+        if (records.size() != rows.size()) {
+            throw new IllegalArgumentException("Expected one record per row but got " + records.size() + " records for " + rows.size() + " rows");
+        }
+        Batch batch = new Batch(batchIndex);
+        for (int i = 0; i < rows.size(); i++) {
+            InsertAllRequest.RowToInsert row = rows.get(i);
+            String insertId = row.getId();
+            batch.add(records.get(i), row, estimateBytes(row.getContent()) + (insertId != null ? insertId.length() : 0) + ROW_OVERHEAD_BYTES);
+        }
+        return send(table, batch);
+    }
+
+    private Future<BatchStats> submit(TableId table, Batch batch) throws InterruptedException {
+        // Blocks the producer once maxInFlight requests are outstanding
+        inFlight.acquire();
+        try {
+            return executor.submit(() -> {
+                try {
+                    return send(table, batch);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private BatchStats send(TableId table, Batch batch) throws InterruptedException {
+        long start = System.nanoTime();
+        List<Integer> pending = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            pending.add(i);
+        }
+        List<FailedRow> failed = new ArrayList<>();
+        RowSpool retrySpool = spool;
+        int spooled = 0;
+        int attempts = 0;
+        while (!pending.isEmpty()) {
+            attempts++;
+            boolean canRetry = attempts <= maxRetries;
+            List<InsertAllRequest.RowToInsert> rows = new ArrayList<>(pending.size());
+            for (int index : pending) {
+                rows.add(batch.rows.get(index));
+            }
+            List<Integer> retry = new ArrayList<>();
+            try {
+                Map<Long, List<BigQueryError>> insertErrors = bigQueryUtil.insertRows(table, rows);
+                for (Map.Entry<Long, List<BigQueryError>> entry : insertErrors.entrySet()) {
+                    int index = pending.get(entry.getKey().intValue());
+                    if (canRetry && isRetryable(entry.getValue())) {
+                        retry.add(index);
+                    } else {
+                        failed.add(new FailedRow(batch.records.get(index), batch.rows.get(index).getId(), entry.getValue()));
+                    }
+                }
+            } catch (BigQueryException e) {
+                if (canRetry && isRetryable(e)) {
+                    retry = pending;
+                } else {
+                    BigQueryError error = e.getError() != null ? e.getError() : new BigQueryError("backendError", null, e.getMessage());
+                    for (int index : pending) {
+                        failed.add(new FailedRow(batch.records.get(index), batch.rows.get(index).getId(), Collections.singletonList(error)));
+                    }
+                }
+            }
+            if (retrySpool != null && !retry.isEmpty()) {
+                List<GenericRecord> records = new ArrayList<>(retry.size());
+                List<String> insertIds = new ArrayList<>(retry.size());
+                for (int index : retry) {
+                    records.add(batch.records.get(index));
+                    insertIds.add(batch.rows.get(index).getId());
+                }
+                retrySpool.appendAll(table, records, insertIds);
+                spooled += retry.size();
+                retry = Collections.emptyList();
+            }
+            pending = retry;
+            if (!pending.isEmpty()) {
+                Thread.sleep(backoffMillis(attempts));
+            }
+        }
+        return new BatchStats(batch.index, batch.size(), batch.bytes, attempts, failed, spooled, System.nanoTime() - start);
+    }
+
+    // "invalid" means the row itself was rejected; "stopped", "timeout" and backend errors are worth resending
+    private static boolean isRetryable(List<BigQueryError> errors) {
+        for (BigQueryError error : errors) {
+            if ("invalid".equals(error.getReason())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Streaming quota errors come back as 403s, which the client library does not flag as retryable
+    static boolean isRetryable(BigQueryException e) {
+        if (e.isRetryable()) {
+            return true;
+        }
+        String reason = e.getError() != null ? e.getError().getReason() : e.getReason();
+        return "rateLimitExceeded".equals(reason) || "quotaExceeded".equals(reason)
+            || "backendError".equals(reason) || "internalError".equals(reason);
+    }
+
+    private static long backoffMillis(int attempt) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    // Rough JSON size of an encoded row, good enough to stay under the request size limit
+    static long estimateBytes(Object value) {
+        if (value == null) {
+            return 4;
+        }
+        if (value instanceof CharSequence) {
+            return utf8Bytes((CharSequence) value) + 2;
+        }
+        if (value instanceof Map) {
+            long bytes = 2;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                bytes += utf8Bytes(entry.getKey().toString()) + 4 + estimateBytes(entry.getValue());
+            }
+            return bytes;
+        }
+        if (value instanceof List) {
+            long bytes = 2;
+            for (Object item : (List<?>) value) {
+                bytes += estimateBytes(item) + 1;
+            }
+            return bytes;
+        }
+        if (value instanceof Boolean) {
+            return 5;
+        }
+        return 24;
+    }
+
+    // Requests are limited in bytes on the wire, so non-ASCII text counts for up to 3 bytes per char
+    private static long utf8Bytes(CharSequence value) {
+        try {
+            return Utf8.encodedLength(value);
+        } catch (IllegalArgumentException e) {
+            // Unpaired surrogate; count the worst case rather than fail the estimate
+            return 3L * value.length();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Batch {
+        private final int index;
+        private final List<GenericRecord> records = new ArrayList<>();
+        private final List<InsertAllRequest.RowToInsert> rows = new ArrayList<>();
+        private long bytes;
+
+        Batch(int index) {
+            this.index = index;
+        }
+
+        void add(GenericRecord record, InsertAllRequest.RowToInsert row, long rowBytes) {
+            records.add(record);
+            rows.add(row);
+            bytes += rowBytes;
+        }
+
+        int size() {
+            return rows.size();
+        }
+
+        boolean isEmpty() {
+            return rows.isEmpty();
+        }
+    }
+
+    public static class FailedRow {
+        private final GenericRecord record;
+        private final String insertId;
+        private final List<BigQueryError> errors;
+
+        FailedRow(GenericRecord record, String insertId, List<BigQueryError> errors) {
+            this.record = record;
+            this.insertId = insertId;
+            this.errors = errors;
+        }
+
+        public GenericRecord getRecord() {
+            return record;
+        }
+
+        public String getInsertId() {
+            return insertId;
+        }
+
+        public List<BigQueryError> getErrors() {
+            return errors;
+        }
+    }
+
+    public static class BatchStats {
+        private final int index;
+        private final int rows;
+        private final long estimatedBytes;
+        private final int attempts;
+        private final List<FailedRow> failedRows;
+        private final int spooledRows;
+        private final long latencyNanos;
+
+        BatchStats(int index, int rows, long estimatedBytes, int attempts, List<FailedRow> failedRows, int spooledRows, long latencyNanos) {
+            this.index = index;
+            this.rows = rows;
+            this.estimatedBytes = estimatedBytes;
+            this.attempts = attempts;
+            this.failedRows = failedRows;
+            this.spooledRows = spooledRows;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public List<FailedRow> getFailedRows() {
+            return failedRows;
+        }
+
+        /** Rows handed to the spool for a later replay; they are neither written nor failed. */
+        public int getSpooledRows() {
+            return spooledRows;
+        }
+
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        public double getRowsPerSecond() {
+            return latencyNanos == 0 ? 0 : rows * 1e9 / latencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("batch %d: %d rows, ~%d bytes, %d attempt(s), %d failed, %d spooled, %.1f ms, %.0f rows/s",
+                index, rows, estimatedBytes, attempts, failedRows.size(), spooledRows, latencyNanos / 1e6, getRowsPerSecond());
+        }
+    }
+
+    public static class WriteResult {
+        private final TableId table;
+        private final List<BatchStats> batches;
+        private final long elapsedNanos;
+
+        WriteResult(TableId table, List<BatchStats> batches, long elapsedNanos) {
+            this.table = table;
+            this.batches = batches;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public TableId getTable() {
+            return table;
+        }
+
+        public List<BatchStats> getBatches() {
+            return batches;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public int getTotalRows() {
+            int rows = 0;
+            for (BatchStats batch : batches) {
+                rows += batch.getRows();
+            }
+            return rows;
+        }
+
+        public List<FailedRow> getFailedRows() {
+            List<FailedRow> failed = new ArrayList<>();
+            for (BatchStats batch : batches) {
+                failed.addAll(batch.getFailedRows());
+            }
+            return failed;
+        }
+
+        public int getSpooledRows() {
+            int spooled = 0;
+            for (BatchStats batch : batches) {
+                spooled += batch.getSpooledRows();
+            }
+            return spooled;
+        }
+
+        public boolean hasFailures() {
+            for (BatchStats batch : batches) {
+                if (!batch.getFailedRows().isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : getTotalRows() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Inserted %d rows into %s.%s in %d batch(es), %d failed, %d spooled, %.1f ms, %.0f rows/s",
+                getTotalRows(), table.getDataset(), table.getTable(), batches.size(), getFailedRows().size(), getSpooledRows(), elapsedNanos / 1e6, getRowsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.TableId;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The BigQuery operations used by {@link BigQueryUtil}. {@link CloudBigQueryClient} talks to the real service;
+ * {@link InMemoryBigQueryClient} keeps rows in process so ingest and validation can be load-tested offline.
+ */
+public interface BigQueryClient {
+
+    String getProjectId();
+
+    /**
+     * Opens the connection, credentials included, and checks that the table exists, so the first write does not pay
+     * for it. Throws if the table cannot be reached. Clients without a remote end do nothing.
+     */
+    default void warmUp(TableId table) {
+    }
+
+    /**
+     * Streams rows into the table and returns the per-row insert errors keyed by row index (empty when every row
+     * was accepted). Request-level failures such as quota errors surface as {@code BigQueryException}.
+     */
+    Map<Long, List<BigQueryError>> insertAll(TableId table, List<InsertAllRequest.RowToInsert> rows);
+
+    /**
+     * Runs one parameterized lookup for the rows whose {@code keyColumn} is one of {@code keys}, ordered by key, and
+     * hands them to {@code handler} as JSON object strings one page of at most {@code pageSize} rows at a time.
+     */
+    void queryRowsAsJson(TableId table, String keyColumn, Collection<String> keys, int pageSize, PageHandler<String> handler) throws InterruptedException;
+
+    /**
+     * Like {@link #queryRowsAsJson(TableId, String, Collection, int, PageHandler)} but selects only the projected
+     * columns and returns them as typed values (see {@link TypedRowDecoder}) instead of JSON strings.
+     */
+    void queryProjectedRows(TableId table, ColumnProjection projection, String keyColumn, Collection<String> keys,
+                            int pageSize, PageHandler<Map<String, Object>> handler) throws InterruptedException;
+
+    /**
+     * Collects every row of the lookup into memory; only meant for small key sets.
+     */
+    default List<String> queryRowsAsJson(TableId table, String keyColumn, Collection<String> keys) throws InterruptedException {
+        List<String> rows = new ArrayList<>();
+        queryRowsAsJson(table, keyColumn, keys, Integer.MAX_VALUE, rows::addAll);
+        return rows;
+    }
+
+    /**
+     * Returns the subset of {@code keys} that currently has at least one row visible to queries.
+     */
+    Set<String> findVisibleKeys(TableId table, String keyColumn, Collection<String> keys) throws InterruptedException;
+
+    /**
+     * Groups rows by {@code keyHash(keyColumn) % modulus} (see {@link RowFingerprint#keyHash}) and returns each
+     * bucket's row count and fingerprint sum. Only rows whose {@code keyHash % parentModulus} is in
+     * {@code parentBuckets} are included (all rows when {@code parentModulus} is 1) and, when {@code scope} is not
+     * null, only rows whose key is in {@code scope}. Rows with a NULL key are ignored.
+     */
+    Map<Long, RowFingerprint.Bucket> aggregateFingerprints(TableId table, RowFingerprint fingerprint, String keyColumn,
+                                                           Collection<String> scope, long parentModulus,
+                                                           Collection<Long> parentBuckets, long modulus) throws InterruptedException;
+
+    /**
+     * Returns (key, fingerprint) for every row whose {@code keyHash % modulus} is in {@code buckets}, page by page.
+     */
+    void queryFingerprints(TableId table, RowFingerprint fingerprint, String keyColumn, Collection<String> scope,
+                           long modulus, Collection<Long> buckets, int pageSize,
+                           PageHandler<Map.Entry<String, Long>> handler) throws InterruptedException;
+
+    /**
+     * Uploads an Avro container file and starts a load job appending it to the table.
+     */
+    LoadJob loadAvroFile(TableId table, Path avroFile) throws IOException;
+
+    @FunctionalInterface
+    interface PageHandler<T> {
+        void onPage(List<T> rows) throws InterruptedException;
+    }
+
+    interface LoadJob {
+        String getJobId();
+
+        /**
+         * Blocks until the job finishes and returns the number of rows loaded; throws if the job failed.
+         */
+        long awaitCompletion() throws InterruptedException;
+    }
+}
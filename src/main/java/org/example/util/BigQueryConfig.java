@@ -0,0 +1,197 @@
+package org.example.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Project, dataset and per-table routes read from {@code application.properties}. A system property with the same
+ * key overrides the file, e.g. {@code -Dgoogle.cloud.project.id=...}. Each name in {@code bigquery.routes} is
+ * configured by {@code bigquery.route.<name>.*} keys:
+ * <pre>
+ * bigquery.route.orders.schema=orders.avro                   # classpath schema; records are routed by its full name
+ * bigquery.route.orders.table=orders                         # or dataset.table; the dataset defaults to bigquery.dataset.id
+ * bigquery.route.orders.key.column=order_id                  # optional, for visibility checks and lookups
+ * bigquery.route.orders.mappings=/field-mappings.properties  # optional, checked against the schema at warm-up
+ * bigquery.route.orders.max.batch.rows=500                   # optional writer limits, see BatchingBigQueryWriter
+ * bigquery.route.orders.max.batch.bytes=5242880
+ * bigquery.route.orders.max.in.flight=4
+ * </pre>
+ */
+public final class BigQueryConfig {
+    public static final String DEFAULT_RESOURCE = "/application.properties";
+    public static final String DEFAULT_PROJECT_ID = "kafka-microservice-bigquery";
+
+    private final String projectId;
+    private final String datasetId;
+    private final List<Route> routes;
+
+    private BigQueryConfig(String projectId, String datasetId, List<Route> routes) {
+        this.projectId = projectId;
+        this.datasetId = datasetId;
+        this.routes = Collections.unmodifiableList(routes);
+    }
+
+    /** The configuration in {@link #DEFAULT_RESOURCE}, or only the defaults if there is none. */
+    public static BigQueryConfig load() {
+        return BigQueryConfig.class.getResource(DEFAULT_RESOURCE) == null
+            ? fromProperties(new Properties()) : fromResource(DEFAULT_RESOURCE);
+    }
+
+    public static BigQueryConfig fromResource(String resource) {
+        InputStream in = BigQueryConfig.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IllegalArgumentException("BigQuery configuration resource not found: " + resource);
+        }
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load BigQuery configuration from " + resource, e);
+        }
+        return fromProperties(properties);
+    }
+
+    public static BigQueryConfig fromProperties(Properties properties) {
+        Properties merged = new Properties();
+        merged.putAll(properties);
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("google.cloud.") || key.startsWith("bigquery.")) {
+                merged.setProperty(key, System.getProperty(key));
+            }
+        }
+        String projectId = merged.getProperty("google.cloud.project.id", DEFAULT_PROJECT_ID).trim();
+        String datasetId = value(merged, "bigquery.dataset.id");
+        List<Route> routes = new ArrayList<>();
+        for (String name : merged.getProperty("bigquery.routes", "").split(",")) {
+            if (!name.trim().isEmpty()) {
+                routes.add(Route.parse(name.trim(), merged, datasetId));
+            }
+        }
+        return new BigQueryConfig(projectId, datasetId, routes);
+    }
+
+    private static String value(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    public String getProjectId() {
+        return projectId;
+    }
+
+    public String getDatasetId() {
+        return datasetId;
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    @Override
+    public String toString() {
+        return "BigQueryConfig{project=" + projectId + ", dataset=" + datasetId + ", routes=" + routes + "}";
+    }
+
+    public static final class Route {
+        private final String name;
+        private final String schemaResource;
+        private final String datasetId;
+        private final String tableId;
+        private final String keyColumn;
+        private final String mappingsResource;
+        private final int maxBatchRows;
+        private final long maxBatchBytes;
+        private final int maxInFlight;
+
+        private Route(String name, String schemaResource, String datasetId, String tableId, String keyColumn,
+                      String mappingsResource, int maxBatchRows, long maxBatchBytes, int maxInFlight) {
+            this.name = name;
+            this.schemaResource = schemaResource;
+            this.datasetId = datasetId;
+            this.tableId = tableId;
+            this.keyColumn = keyColumn;
+            this.mappingsResource = mappingsResource;
+            this.maxBatchRows = maxBatchRows;
+            this.maxBatchBytes = maxBatchBytes;
+            this.maxInFlight = maxInFlight;
+        }
+
+        static Route parse(String name, Properties properties, String defaultDataset) {
+            String prefix = "bigquery.route." + name + ".";
+            String schema = value(properties, prefix + "schema");
+            String table = value(properties, prefix + "table");
+            if (schema == null || table == null) {
+                throw new IllegalArgumentException("Route " + name + " needs " + prefix + "schema and " + prefix + "table");
+            }
+            String dataset = defaultDataset;
+            int dot = table.indexOf('.');
+            if (dot >= 0) {
+                dataset = table.substring(0, dot);
+                table = table.substring(dot + 1);
+            }
+            if (dataset == null) {
+                throw new IllegalArgumentException("Route " + name + " has no dataset and bigquery.dataset.id is not set");
+            }
+            try {
+                return new Route(name, schema, dataset, table, value(properties, prefix + "key.column"),
+                    value(properties, prefix + "mappings"),
+                    Integer.parseInt(properties.getProperty(prefix + "max.batch.rows",
+                        String.valueOf(BatchingBigQueryWriter.DEFAULT_MAX_BATCH_ROWS)).trim()),
+                    Long.parseLong(properties.getProperty(prefix + "max.batch.bytes",
+                        String.valueOf(BatchingBigQueryWriter.DEFAULT_MAX_BATCH_BYTES)).trim()),
+                    Integer.parseInt(properties.getProperty(prefix + "max.in.flight",
+                        String.valueOf(BatchingBigQueryWriter.DEFAULT_MAX_IN_FLIGHT)).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid writer limit for route " + name + ": " + e.getMessage(), e);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSchemaResource() {
+            return schemaResource;
+        }
+
+        public String getDatasetId() {
+            return datasetId;
+        }
+
+        public String getTableId() {
+            return tableId;
+        }
+
+        public String getKeyColumn() {
+            return keyColumn;
+        }
+
+        public String getMappingsResource() {
+            return mappingsResource;
+        }
+
+        public int getMaxBatchRows() {
+            return maxBatchRows;
+        }
+
+        public long getMaxBatchBytes() {
+            return maxBatchBytes;
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + schemaResource + " -> " + datasetId + "." + tableId + ")";
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.InsertAllRequest;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.GenericRecord;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes Avro records straight into BigQuery {@code insertAll} row content.
+ * Column names (camelCase to snake_case) and per-field value encoders are computed once per schema.
+ */
+public final class BigQueryRowEncoder {
+    private static final Map<Schema, BigQueryRowEncoder> CACHE = new ConcurrentHashMap<>();
+    private static final Map<Schema, Schema> COLUMN_SCHEMAS = new ConcurrentHashMap<>();
+
+    private final Schema schema;
+    private final String[] columnNames;
+    private final int[] positions;
+    private ValueEncoder[] encoders;
+
+    @FunctionalInterface
+    private interface ValueEncoder {
+        Object encode(Object value);
+    }
+
+    private BigQueryRowEncoder(Schema schema) {
+        List<Schema.Field> fields = schema.getFields();
+        this.schema = schema;
+        this.columnNames = new String[fields.size()];
+        this.positions = new int[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            columnNames[i] = camelToUnderscore(fields.get(i).name());
+            positions[i] = fields.get(i).pos();
+        }
+    }
+
+    public static BigQueryRowEncoder forSchema(Schema schema) {
+        BigQueryRowEncoder cached = CACHE.get(schema);
+        if (cached != null) {
+            return cached;
+        }
+        if (schema.getType() != Schema.Type.RECORD) {
+            throw new IllegalArgumentException("Expected a record schema but got " + schema.getType());
+        }
+        Map<Schema, BigQueryRowEncoder> compiled = new IdentityHashMap<>();
+        BigQueryRowEncoder encoder = compile(schema, compiled);
+        compiled.forEach(CACHE::putIfAbsent);
+        return CACHE.getOrDefault(schema, encoder);
+    }
+
+    public static String camelToUnderscore(String camelCase) {
+        return camelCase.replaceAll("([a-z])([A-Z])", "$1_$2").toLowerCase();
+    }
+
+    /**
+     * Returns a copy of the schema whose field names are the BigQuery column names. Avro binary data is positional,
+     * so records of the original schema can be written with it, e.g. into container files for load jobs.
+     */
+    public static Schema toColumnSchema(Schema schema) {
+        return COLUMN_SCHEMAS.computeIfAbsent(schema, s -> renameFields(s, new IdentityHashMap<>()));
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    public Map<String, Object> encode(GenericRecord record) {
+        Map<String, Object> row = new HashMap<>(columnNames.length * 4 / 3 + 1);
+        for (int i = 0; i < columnNames.length; i++) {
+            Object value = record.get(positions[i]);
+            if (value != null) {
+                row.put(columnNames[i], encoders[i].encode(value));
+            }
+        }
+        return row;
+    }
+
+    public InsertAllRequest.RowToInsert toRow(GenericRecord record) {
+        return InsertAllRequest.RowToInsert.of(encode(record));
+    }
+
+    public InsertAllRequest.RowToInsert toRow(GenericRecord record, String insertId) {
+        return InsertAllRequest.RowToInsert.of(insertId, encode(record));
+    }
+
+    private static BigQueryRowEncoder compile(Schema recordSchema, Map<Schema, BigQueryRowEncoder> compiled) {
+        BigQueryRowEncoder existing = compiled.get(recordSchema);
+        if (existing != null) {
+            return existing;
+        }
+        BigQueryRowEncoder encoder = new BigQueryRowEncoder(recordSchema);
+        compiled.put(recordSchema, encoder);
+        List<Schema.Field> fields = recordSchema.getFields();
+        ValueEncoder[] fieldEncoders = new ValueEncoder[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            fieldEncoders[i] = encoderFor(fields.get(i).schema(), compiled);
+        }
+        encoder.encoders = fieldEncoders;
+        return encoder;
+    }
+
+    private static Schema renameFields(Schema schema, Map<Schema, Schema> renamed) {
+        switch (schema.getType()) {
+            case RECORD: {
+                Schema existing = renamed.get(schema);
+                if (existing != null) {
+                    return existing;
+                }
+                Schema copy = Schema.createRecord(schema.getName(), schema.getDoc(), schema.getNamespace(), schema.isError());
+                renamed.put(schema, copy);
+                List<Schema.Field> fields = new ArrayList<>(schema.getFields().size());
+                for (Schema.Field field : schema.getFields()) {
+                    Schema.Field column = new Schema.Field(camelToUnderscore(field.name()), renameFields(field.schema(), renamed),
+                        field.doc(), field.defaultVal(), field.order());
+                    if (!column.name().equals(field.name())) {
+                        column.addAlias(field.name());
+                    }
+                    fields.add(column);
+                }
+                copy.setFields(fields);
+                return copy;
+            }
+            case ARRAY:
+                return Schema.createArray(renameFields(schema.getElementType(), renamed));
+            case MAP:
+                return Schema.createMap(renameFields(schema.getValueType(), renamed));
+            case UNION: {
+                List<Schema> branches = new ArrayList<>(schema.getTypes().size());
+                for (Schema branch : schema.getTypes()) {
+                    branches.add(renameFields(branch, renamed));
+                }
+                return Schema.createUnion(branches);
+            }
+            default:
+                return schema;
+        }
+    }
+
+    private static ValueEncoder encoderFor(Schema fieldSchema, Map<Schema, BigQueryRowEncoder> compiled) {
+        switch (fieldSchema.getType()) {
+            case RECORD: {
+                BigQueryRowEncoder nested = compile(fieldSchema, compiled);
+                return value -> nested.encode((GenericRecord) value);
+            }
+            case ARRAY: {
+                ValueEncoder element = encoderFor(fieldSchema.getElementType(), compiled);
+                return value -> {
+                    List<?> list = (List<?>) value;
+                    List<Object> encoded = new ArrayList<>(list.size());
+                    for (Object item : list) {
+                        encoded.add(item == null ? null : element.encode(item));
+                    }
+                    return encoded;
+                };
+            }
+            case MAP: {
+                // BigQuery has no map type; mirror its Avro load layout of ARRAY<STRUCT<key, value>>
+                ValueEncoder valueEncoder = encoderFor(fieldSchema.getValueType(), compiled);
+                return value -> {
+                    Map<?, ?> map = (Map<?, ?>) value;
+                    List<Object> entries = new ArrayList<>(map.size());
+                    for (Map.Entry<?, ?> entry : map.entrySet()) {
+                        Map<String, Object> kv = new HashMap<>(4);
+                        kv.put("key", entry.getKey().toString());
+                        if (entry.getValue() != null) {
+                            kv.put("value", valueEncoder.encode(entry.getValue()));
+                        }
+                        entries.add(kv);
+                    }
+                    return entries;
+                };
+            }
+            case UNION: {
+                List<Schema> branches = fieldSchema.getTypes();
+                ValueEncoder[] branchEncoders = new ValueEncoder[branches.size()];
+                for (int i = 0; i < branches.size(); i++) {
+                    branchEncoders[i] = encoderFor(branches.get(i), compiled);
+                }
+                return value -> branchEncoders[GenericData.get().resolveUnion(fieldSchema, value)].encode(value);
+            }
+            case STRING:
+            case ENUM:
+                return Object::toString;
+            case BYTES:
+                return value -> {
+                    ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    return Base64.getEncoder().encodeToString(bytes);
+                };
+            case FIXED:
+                return value -> Base64.getEncoder().encodeToString(((GenericFixed) value).bytes());
+            case NULL:
+                return value -> null;
+            default:
+                // INT, LONG, FLOAT, DOUBLE and BOOLEAN are already JSON-native
+                return value -> value;
+        }
+    }
+}
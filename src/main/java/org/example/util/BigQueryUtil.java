@@ -1,119 +1,280 @@
 package org.example.util;
 
 import com.google.cloud.bigquery.*;
+import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
 
 public class BigQueryUtil {
-    private final BigQuery bigQuery;
+    public enum WriteMode {
+        STREAMING_INSERT,
+        AVRO_LOAD_JOB
+    }
+    
+    private final BigQueryClient client;
+    private volatile VisibilityTracker visibilityTracker;
+    private volatile RowSpool spool;
+    private volatile InsertCoalescer coalescer;
+    private final String insertIdPrefix = UUID.randomUUID().toString();
+    private final AtomicLong insertIdSequence = new AtomicLong();
     
     public BigQueryUtil() {
-        this.bigQuery = BigQueryOptions.newBuilder()
-            .setProjectId("kafka-microservice-bigquery")
-            .build()
-            .getService();
+        this(new CloudBigQueryClient(BigQueryConfig.load().getProjectId()));
     }
-
-    public void insertDataAsJson(String datasetId, String tableId, List<GenericRecord> records) throws InterruptedException {
-        String projectId = "kafka-microservice-bigquery";
-        TableId table = TableId.of(projectId, datasetId, tableId);
+    
+    public BigQueryUtil(BigQueryClient client) {
+        this.client = client;
+    }
+    
+    public BigQueryClient getClient() {
+        return client;
+    }
+    
+    /**
+     * Starts recording the {@code keyColumn} value of every row streamed through this util, so callers can wait
+     * for their writes to become queryable instead of sleeping.
+     */
+    public VisibilityTracker trackVisibility(String keyColumn) {
+        VisibilityTracker tracker = new VisibilityTracker(client, keyColumn);
+        this.visibilityTracker = tracker;
+        return tracker;
+    }
+    
+    /**
+     * Sends rows that {@link #insertDataAsJson} could not stream, including whole requests rejected for quota, to
+     * {@code spool} for a {@link SpoolReplayer} to resend, instead of only logging them. Null turns spooling off.
+     */
+    public void spoolFailedRows(RowSpool spool) {
+        this.spool = spool;
+    }
+    
+    public RowSpool getSpool() {
+        return spool;
+    }
+    
+    /**
+     * Routes the inserts of {@link #insertDataAsJson} through {@code coalescer}, so concurrent callers share
+     * insertAll requests instead of sending one each. Null sends them directly again.
+     */
+    public void coalesceInserts(InsertCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+    
+    public void insertDataAsJson(String datasetId, String tableId, List<? extends GenericRecord> records) throws InterruptedException {
+        TableId table = tableId(datasetId, tableId);
         
-        System.out.println("DEBUG: Using JSON streaming insert for table: " + table);
+        Log.debug(() -> "Using JSON streaming insert for table: " + table);
         
-        List<InsertAllRequest.RowToInsert> rows = new ArrayList<>();
-        for (int i = 0; i < records.size(); i++) {
-            GenericRecord record = records.get(i);
-            
-            // Convert Avro record to JSON string
-            String jsonString = record.toString();
-            System.out.println("DEBUG: Avro JSON [" + i + "]: " + jsonString);
-            
-            // Parse JSON and convert field names to BigQuery format
-            try {
-                com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-                @SuppressWarnings("unchecked")
-                Map<String, Object> jsonMap = mapper.readValue(jsonString, Map.class);
-                
-                // Convert field names from camelCase to underscore_separated
-                Map<String, Object> rowContent = convertFieldNames(jsonMap);
-                
-                System.out.println("DEBUG: BigQuery JSON insert row [" + i + "]: " + rowContent);
-                rows.add(InsertAllRequest.RowToInsert.of(rowContent));
-            } catch (Exception e) {
-                System.out.println("DEBUG: Error converting JSON: " + e.getMessage());
-                throw new RuntimeException("Failed to convert Avro to JSON", e);
+        long encodeStart = System.nanoTime();
+        List<InsertAllRequest.RowToInsert> rows = new ArrayList<>(records.size());
+        BigQueryRowEncoder encoder = null;
+        for (GenericRecord record : records) {
+            // Column names are resolved once per schema; rows are walked straight into RowToInsert content
+            if (encoder == null || encoder.getSchema() != record.getSchema()) {
+                encoder = BigQueryRowEncoder.forSchema(record.getSchema());
             }
+            rows.add(encoder.toRow(record, nextInsertId()));
         }
+        Metrics.shared().record(Metrics.Phase.ROW_ENCODE, System.nanoTime() - encodeStart, rows.size(), 0);
+        sendJsonRows(table, rows, records::get);
+    }
+    
+    /**
+     * Streams orders staged in {@code columns}, encoding each row straight from the columns. Rows that fail are
+     * rebuilt as records only if they are spooled.
+     */
+    public void insertColumnsAsJson(String datasetId, String tableId, OrderColumnBuffer columns) throws InterruptedException {
+        TableId table = tableId(datasetId, tableId);
         
-        InsertAllRequest insertRequest = InsertAllRequest.newBuilder(table)
-            .setRows(rows)
-            .build();
-            
-        System.out.println("DEBUG: Sending JSON insert request to BigQuery...");
-        InsertAllResponse response = bigQuery.insertAll(insertRequest);
+        Log.debug(() -> "Using JSON streaming insert of " + columns + " for table: " + table);
         
-        System.out.println("DEBUG: BigQuery JSON insert response received");
-        if (response.hasErrors()) {
-            System.out.println("DEBUG: Insert errors: " + response.getInsertErrors());
-            for (Map.Entry<Long, List<BigQueryError>> entry : response.getInsertErrors().entrySet()) {
-                System.out.println("DEBUG: Row " + entry.getKey() + " errors: " + entry.getValue());
-            }
-        } else {
-            System.out.println("DEBUG: JSON data inserted successfully - no errors");
+        long encodeStart = System.nanoTime();
+        List<InsertAllRequest.RowToInsert> rows = new ArrayList<>(columns.size());
+        for (int row = 0; row < columns.size(); row++) {
+            rows.add(columns.toRow(row, nextInsertId()));
         }
+        Metrics.shared().record(Metrics.Phase.ROW_ENCODE, System.nanoTime() - encodeStart, rows.size(), 0);
+        sendJsonRows(table, rows, columns::toRecord);
     }
     
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> convertFieldNames(Map<String, Object> input) {
-        Map<String, Object> output = new HashMap<>();
+    // Every streamed row carries an insertId, so a spooled row replayed after a lost response is deduplicated
+    private String nextInsertId() {
+        return insertIdPrefix + "-" + insertIdSequence.incrementAndGet();
+    }
+    
+    private void sendJsonRows(TableId table, List<InsertAllRequest.RowToInsert> rows, IntFunction<GenericRecord> records) throws InterruptedException {
+        Log.debug("Sending JSON insert request to BigQuery...");
+        RowSpool failedRows = spool;
+        InsertCoalescer sharedInserts = coalescer;
+        Map<Long, List<BigQueryError>> insertErrors;
+        try {
+            insertErrors = sharedInserts != null ? sharedInserts.insertRows(table, rows) : insertRows(table, rows);
+        } catch (BigQueryException e) {
+            // A missing table or malformed request would fail the same way on every replay
+            if (failedRows == null || !BatchingBigQueryWriter.isRetryable(e)) {
+                throw e;
+            }
+            Log.warn(() -> "Insert request failed (" + e.getMessage() + "), spooling " + rows.size() + " row(s)");
+            List<GenericRecord> all = new ArrayList<>(rows.size());
+            List<String> insertIds = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                all.add(records.apply(i));
+                insertIds.add(rows.get(i).getId());
+            }
+            failedRows.appendAll(table, all, insertIds);
+            return;
+        }
         
-        for (Map.Entry<String, Object> entry : input.entrySet()) {
-            String key = entry.getKey();
-            Object value = entry.getValue();
-            
-            // Convert camelCase to underscore_separated
-            String convertedKey = camelToUnderscore(key);
-            
-            if (value instanceof Map) {
-                output.put(convertedKey, convertFieldNames((Map<String, Object>) value));
-            } else if (value instanceof List) {
-                List<Object> list = (List<Object>) value;
-                List<Object> convertedList = new ArrayList<>();
-                for (Object item : list) {
-                    if (item instanceof Map) {
-                        convertedList.add(convertFieldNames((Map<String, Object>) item));
-                    } else {
-                        convertedList.add(item);
-                    }
+        Log.debug("BigQuery JSON insert response received");
+        if (!insertErrors.isEmpty()) {
+            Log.warn(() -> insertErrors.size() + " row(s) failed to insert into " + table.getTable());
+            for (Map.Entry<Long, List<BigQueryError>> entry : insertErrors.entrySet()) {
+                Log.debug(() -> "Row " + entry.getKey() + " errors: " + entry.getValue());
+            }
+            if (failedRows != null) {
+                List<GenericRecord> failed = new ArrayList<>(insertErrors.size());
+                List<String> insertIds = new ArrayList<>(insertErrors.size());
+                for (Long index : insertErrors.keySet()) {
+                    failed.add(records.apply(index.intValue()));
+                    insertIds.add(rows.get(index.intValue()).getId());
                 }
-                output.put(convertedKey, convertedList);
-            } else {
-                output.put(convertedKey, value);
+                failedRows.appendAll(table, failed, insertIds);
+                Log.info(() -> "Spooled " + failed.size() + " failed row(s)");
             }
+        } else {
+            Log.debug("JSON data inserted successfully - no errors");
         }
-        return output;
     }
     
-    private String camelToUnderscore(String camelCase) {
-        return camelCase.replaceAll("([a-z])([A-Z])", "$1_$2").toLowerCase();
+    public void writeData(WriteMode mode, String datasetId, String tableId, List<? extends GenericRecord> records) throws InterruptedException, IOException {
+        if (mode == WriteMode.AVRO_LOAD_JOB) {
+            loadDataAsAvro(datasetId, tableId, records);
+        } else {
+            insertDataAsJson(datasetId, tableId, records);
+        }
     }
-
-    public List<String> queryDataAsJson(String datasetId, String tableId, String timestampSuffix) throws InterruptedException {
-        String projectId = "kafka-microservice-bigquery";
-        String query = String.format("SELECT TO_JSON_STRING(t) as json_data FROM `%s.%s.%s` t WHERE order_id IN ('ORD_001_%s', 'ORD_002_%s') ORDER BY order_id", projectId, datasetId, tableId, timestampSuffix, timestampSuffix);
-        
-        QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query).build();
-        TableResult result = bigQuery.query(queryConfig);
-        
+    
+    public void loadDataAsAvro(String datasetId, String tableId, List<? extends GenericRecord> records) throws InterruptedException, IOException {
+        Path directory = Files.createTempDirectory("bigquery-load-");
+        try (AvroLoadJobWriter writer = new AvroLoadJobWriter(this, tableId(datasetId, tableId), directory)) {
+            writer.appendAll(records);
+            writer.finish();
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+    
+    /** Loads orders staged in {@code columns} with Avro load jobs, writing the files straight from the columns. */
+    public void loadColumnsAsAvro(String datasetId, String tableId, OrderColumnBuffer columns) throws InterruptedException, IOException {
+        Path directory = Files.createTempDirectory("bigquery-load-");
+        try (AvroLoadJobWriter writer = new AvroLoadJobWriter(this, tableId(datasetId, tableId), directory)) {
+            writer.appendAll(columns);
+            writer.finish();
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+    
+    // Also removes files a failed load left behind; a leftover temp file is logged rather than masking the failure
+    private static void deleteDirectory(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    Log.warn(() -> "Failed to delete " + path + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            Log.warn(() -> "Failed to delete " + directory + ": " + e.getMessage());
+        }
+    }
+    
+    public BigQueryClient.LoadJob startAvroLoad(TableId table, Path avroFile) throws IOException {
+        return client.loadAvroFile(table, avroFile);
+    }
+    
+    public TableId tableId(String datasetId, String tableId) {
+        return TableId.of(client.getProjectId(), datasetId, tableId);
+    }
+    
+    public Map<Long, List<BigQueryError>> insertRows(TableId table, List<InsertAllRequest.RowToInsert> rows) {
+        long start = System.nanoTime();
+        Map<Long, List<BigQueryError>> insertErrors;
+        try {
+            insertErrors = client.insertAll(table, rows);
+        } catch (RuntimeException e) {
+            Metrics.shared().recordErrors(Metrics.Phase.INSERT_ALL, rows.size());
+            throw e;
+        }
+        long bytes = 0;
+        for (InsertAllRequest.RowToInsert row : rows) {
+            bytes += BatchingBigQueryWriter.estimateBytes(row.getContent());
+        }
+        Metrics.shared().record(Metrics.Phase.INSERT_ALL, System.nanoTime() - start, rows.size() - insertErrors.size(), bytes);
+        Metrics.shared().recordErrors(Metrics.Phase.INSERT_ALL, insertErrors.size());
+        VisibilityTracker tracker = visibilityTracker;
+        if (tracker != null) {
+            List<String> keys = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                Object key = rows.get(i).getContent().get(tracker.getKeyColumn());
+                if (key != null && !insertErrors.containsKey((long) i)) {
+                    keys.add(key.toString());
+                }
+            }
+            tracker.recordWrites(table, keys);
+        }
+        return insertErrors;
+    }
+    
+    public List<String> queryDataAsJson(String datasetId, String tableId, Collection<String> orderIds) {
         List<String> jsonData = new ArrayList<>();
-        for (FieldValueList row : result.iterateAll()) {
-            String json = row.get(0).getStringValue();
-            jsonData.add(json);
+        try (KeyedRowReader<String> reader = readDataAsJson(datasetId, tableId, orderIds)) {
+            reader.forEachRemaining(jsonData::add);
         }
         return jsonData;
     }
-}
\ No newline at end of file
+    
+    /**
+     * Streams the rows for any number of order ids in order_id order without materializing the result.
+     * Close the reader (or the stream from {@link KeyedRowReader#stream()}) when done.
+     */
+    public KeyedRowReader<String> readDataAsJson(String datasetId, String tableId, Collection<String> orderIds) {
+        return KeyedRowReader.json(client, tableId(datasetId, tableId), "order_id", orderIds);
+    }
+    
+    /**
+     * Streams only the projected columns for the given order ids, decoded into typed values rather than JSON strings.
+     */
+    public KeyedRowReader<Map<String, Object>> readProjectedData(String datasetId, String tableId, ColumnProjection projection,
+                                                                 Collection<String> orderIds) {
+        return KeyedRowReader.projected(client, tableId(datasetId, tableId), projection, "order_id", orderIds);
+    }
+    
+    /**
+     * Reconciles the table with the records through per-bucket fingerprint aggregates, fetching only the rows of
+     * buckets that differ. {@code scopeToRecords} limits the table side to the records' order ids.
+     */
+    public FingerprintReconciler.Result reconcileData(String datasetId, String tableId, Schema schema, List<? extends GenericRecord> records,
+                                                      boolean scopeToRecords) throws InterruptedException {
+        FingerprintReconciler.Result result = new FingerprintReconciler(client, "order_id")
+            .reconcile(tableId(datasetId, tableId), schema, records, scopeToRecords);
+        Metrics.shared().record(Metrics.Phase.RECONCILE, result.getElapsedNanos(), records.size(), 0);
+        if (!result.isReconciled()) {
+            Metrics.shared().recordErrors(Metrics.Phase.RECONCILE, 1);
+        }
+        return result;
+    }
+}
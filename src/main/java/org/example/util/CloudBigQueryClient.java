@@ -0,0 +1,217 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.FormatOptions;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatistics;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.QueryParameterValue;
+import com.google.cloud.bigquery.TableDataWriteChannel;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableResult;
+import com.google.cloud.bigquery.WriteChannelConfiguration;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class CloudBigQueryClient implements BigQueryClient {
+    private final BigQuery bigQuery;
+    private final String projectId;
+
+    public CloudBigQueryClient(String projectId) {
+        this(BigQueryOptions.newBuilder().setProjectId(projectId).build().getService(), projectId);
+    }
+
+    public CloudBigQueryClient(BigQuery bigQuery, String projectId) {
+        this.bigQuery = bigQuery;
+        this.projectId = projectId;
+    }
+
+    public BigQuery getBigQuery() {
+        return bigQuery;
+    }
+
+    @Override
+    public String getProjectId() {
+        return projectId;
+    }
+
+    private String qualifiedName(TableId table) {
+        return (table.getProject() != null ? table.getProject() : projectId) + "." + table.getDataset() + "." + table.getTable();
+    }
+
+    @Override
+    public void warmUp(TableId table) {
+        if (bigQuery.getTable(table, BigQuery.TableOption.fields(BigQuery.TableField.ID)) == null) {
+            throw new IllegalStateException("Table " + qualifiedName(table) + " does not exist");
+        }
+    }
+
+    @Override
+    public Map<Long, List<BigQueryError>> insertAll(TableId table, List<InsertAllRequest.RowToInsert> rows) {
+        return bigQuery.insertAll(InsertAllRequest.newBuilder(table).setRows(rows).build()).getInsertErrors();
+    }
+
+    @Override
+    public void queryRowsAsJson(TableId table, String keyColumn, Collection<String> keys, int pageSize, PageHandler<String> handler) throws InterruptedException {
+        // The query text only depends on the table and key column, so BigQuery can reuse cached plans and results
+        String query = String.format("SELECT TO_JSON_STRING(t) as json_data FROM `%s` t WHERE %s IN UNNEST(@keys) ORDER BY %s",
+            qualifiedName(table), keyColumn, keyColumn);
+        QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query)
+            .addNamedParameter("keys", QueryParameterValue.array(keys.toArray(new String[0]), String.class))
+            .build();
+        TableResult page = bigQuery.create(JobInfo.of(queryConfig))
+            .getQueryResults(BigQuery.QueryResultsOption.pageSize(pageSize));
+        while (page != null) {
+            List<String> jsonData = new ArrayList<>();
+            for (FieldValueList row : page.getValues()) {
+                jsonData.add(row.get(0).getStringValue());
+            }
+            handler.onPage(jsonData);
+            page = page.hasNextPage() ? page.getNextPage() : null;
+        }
+    }
+
+    @Override
+    public void queryProjectedRows(TableId table, ColumnProjection projection, String keyColumn, Collection<String> keys,
+                                   int pageSize, PageHandler<Map<String, Object>> handler) throws InterruptedException {
+        String query = String.format("SELECT %s FROM `%s` t WHERE t.%s IN UNNEST(@keys) ORDER BY t.%s",
+            projection.toSelectList("t"), qualifiedName(table), keyColumn, keyColumn);
+        QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query)
+            .addNamedParameter("keys", QueryParameterValue.array(keys.toArray(new String[0]), String.class))
+            .build();
+        TableResult page = bigQuery.create(JobInfo.of(queryConfig))
+            .getQueryResults(BigQuery.QueryResultsOption.pageSize(pageSize));
+        FieldList fields = page.getSchema().getFields();
+        while (page != null) {
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (FieldValueList row : page.getValues()) {
+                rows.add(TypedRowDecoder.decode(row, fields));
+            }
+            handler.onPage(rows);
+            page = page.hasNextPage() ? page.getNextPage() : null;
+        }
+    }
+
+    @Override
+    public Set<String> findVisibleKeys(TableId table, String keyColumn, Collection<String> keys) throws InterruptedException {
+        String query = String.format("SELECT DISTINCT %s FROM `%s` WHERE %s IN UNNEST(@keys)",
+            keyColumn, qualifiedName(table), keyColumn);
+        QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query)
+            .addNamedParameter("keys", QueryParameterValue.array(keys.toArray(new String[0]), String.class))
+            .build();
+        Set<String> visible = new HashSet<>();
+        for (FieldValueList row : bigQuery.query(queryConfig).iterateAll()) {
+            visible.add(row.get(0).getStringValue());
+        }
+        return visible;
+    }
+
+    @Override
+    public Map<Long, RowFingerprint.Bucket> aggregateFingerprints(TableId table, RowFingerprint fingerprint, String keyColumn,
+                                                                  Collection<String> scope, long parentModulus,
+                                                                  Collection<Long> parentBuckets, long modulus) throws InterruptedException {
+        String query = String.format("SELECT MOD(h, @modulus) AS bucket, COUNT(*) AS row_count, SUM(CAST(%s AS NUMERIC)) AS fingerprint_sum"
+                + " FROM (%s)%s GROUP BY bucket",
+            fingerprint.toSql("t"), hashedRows(table, keyColumn, scope),
+            parentModulus > 1 ? " WHERE MOD(h, @parent_modulus) IN UNNEST(@parent_buckets)" : "");
+        QueryJobConfiguration.Builder queryConfig = QueryJobConfiguration.newBuilder(query)
+            .addNamedParameter("modulus", QueryParameterValue.int64(modulus));
+        if (parentModulus > 1) {
+            queryConfig.addNamedParameter("parent_modulus", QueryParameterValue.int64(parentModulus))
+                .addNamedParameter("parent_buckets", QueryParameterValue.array(parentBuckets.toArray(new Long[0]), Long.class));
+        }
+        addScope(queryConfig, scope);
+        Map<Long, RowFingerprint.Bucket> buckets = new HashMap<>();
+        for (FieldValueList row : bigQuery.query(queryConfig.build()).iterateAll()) {
+            buckets.put(row.get(0).getLongValue(),
+                RowFingerprint.Bucket.of(row.get(1).getLongValue(), row.get(2).getNumericValue().toBigIntegerExact()));
+        }
+        return buckets;
+    }
+
+    @Override
+    public void queryFingerprints(TableId table, RowFingerprint fingerprint, String keyColumn, Collection<String> scope,
+                                  long modulus, Collection<Long> buckets, int pageSize,
+                                  PageHandler<Map.Entry<String, Long>> handler) throws InterruptedException {
+        String query = String.format("SELECT t.%s, %s FROM (%s) WHERE MOD(h, @modulus) IN UNNEST(@buckets)",
+            keyColumn, fingerprint.toSql("t"), hashedRows(table, keyColumn, scope));
+        QueryJobConfiguration.Builder queryConfig = QueryJobConfiguration.newBuilder(query)
+            .addNamedParameter("modulus", QueryParameterValue.int64(modulus))
+            .addNamedParameter("buckets", QueryParameterValue.array(buckets.toArray(new Long[0]), Long.class));
+        addScope(queryConfig, scope);
+        TableResult page = bigQuery.create(JobInfo.of(queryConfig.build()))
+            .getQueryResults(BigQuery.QueryResultsOption.pageSize(pageSize));
+        while (page != null) {
+            List<Map.Entry<String, Long>> rows = new ArrayList<>();
+            for (FieldValueList row : page.getValues()) {
+                rows.add(new AbstractMap.SimpleImmutableEntry<>(row.get(0).getStringValue(), row.get(1).getLongValue()));
+            }
+            handler.onPage(rows);
+            page = page.hasNextPage() ? page.getNextPage() : null;
+        }
+    }
+
+    // Whole rows as STRUCT t plus the key hash h, so fingerprints are only computed for rows that pass the bucket filter
+    private String hashedRows(TableId table, String keyColumn, Collection<String> scope) {
+        return String.format("SELECT t, %s AS h FROM `%s` t WHERE t.%s IS NOT NULL%s",
+            RowFingerprint.keyHashSql("t." + keyColumn), qualifiedName(table), keyColumn,
+            scope != null ? " AND t." + keyColumn + " IN UNNEST(@scope)" : "");
+    }
+
+    private static void addScope(QueryJobConfiguration.Builder queryConfig, Collection<String> scope) {
+        if (scope != null) {
+            queryConfig.addNamedParameter("scope", QueryParameterValue.array(scope.toArray(new String[0]), String.class));
+        }
+    }
+
+    @Override
+    public LoadJob loadAvroFile(TableId table, Path avroFile) throws IOException {
+        WriteChannelConfiguration config = WriteChannelConfiguration.newBuilder(table)
+            .setFormatOptions(FormatOptions.avro())
+            .setUseAvroLogicalTypes(true)
+            .setWriteDisposition(JobInfo.WriteDisposition.WRITE_APPEND)
+            .build();
+        TableDataWriteChannel channel = bigQuery.writer(config);
+        try (OutputStream out = Channels.newOutputStream(channel)) {
+            Files.copy(avroFile, out);
+        }
+        Job job = channel.getJob();
+        return new LoadJob() {
+            @Override
+            public String getJobId() {
+                return job.getJobId().getJob();
+            }
+
+            @Override
+            public long awaitCompletion() throws InterruptedException {
+                Job completed = job.waitFor();
+                if (completed == null) {
+                    throw new RuntimeException("Load job " + getJobId() + " no longer exists");
+                }
+                if (completed.getStatus().getError() != null) {
+                    throw new RuntimeException("Load job " + getJobId() + " failed: " + completed.getStatus().getExecutionErrors());
+                }
+                JobStatistics.LoadStatistics stats = completed.getStatistics();
+                return stats.getOutputRows() != null ? stats.getOutputRows() : 0;
+            }
+        };
+    }
+}
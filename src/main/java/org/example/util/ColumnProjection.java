@@ -0,0 +1,154 @@
+package org.example.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable tree of the BigQuery columns a lookup should return: top-level scalars, STRUCT columns and
+ * ARRAY&lt;STRUCT&gt; columns with the subset of sub-fields needed. Only these columns are scanned and transferred.
+ */
+public final class ColumnProjection {
+    public enum Kind {
+        SCALAR,
+        STRUCT,
+        REPEATED_STRUCT
+    }
+
+    public static final class Column {
+        private final String name;
+        private final Kind kind;
+        private final List<Column> children;
+
+        private Column(String name, Kind kind, List<Column> children) {
+            this.name = name;
+            this.kind = kind;
+            this.children = Collections.unmodifiableList(new ArrayList<>(children));
+        }
+
+        public static Column scalar(String name) {
+            return new Column(name, Kind.SCALAR, Collections.emptyList());
+        }
+
+        public static Column struct(String name, List<Column> children) {
+            return new Column(name, Kind.STRUCT, children);
+        }
+
+        public static Column repeatedStruct(String name, List<Column> children) {
+            return new Column(name, Kind.REPEATED_STRUCT, children);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public List<Column> getChildren() {
+            return children;
+        }
+    }
+
+    private final List<Column> columns;
+
+    private ColumnProjection(List<Column> columns) {
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+    }
+
+    public static ColumnProjection of(List<Column> columns) {
+        return new ColumnProjection(columns);
+    }
+
+    public static ColumnProjection of(Column... columns) {
+        return new ColumnProjection(Arrays.asList(columns));
+    }
+
+    public List<Column> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Renders the SELECT list against table alias {@code alias}. Nested columns are rebuilt with only the projected
+     * sub-fields, keeping NULL structs NULL instead of turning them into structs of NULLs.
+     */
+    public String toSelectList(String alias) {
+        StringBuilder sql = new StringBuilder();
+        for (Column column : columns) {
+            if (sql.length() > 0) {
+                sql.append(", ");
+            }
+            sql.append(expression(alias + "." + column.name, column)).append(" AS ").append(column.name);
+        }
+        return sql.toString();
+    }
+
+    private static String expression(String path, Column column) {
+        switch (column.kind) {
+            case STRUCT:
+                return "IF(" + path + " IS NULL, NULL, STRUCT(" + children(path, column) + "))";
+            case REPEATED_STRUCT: {
+                String element = "e_" + column.name;
+                return "ARRAY(SELECT AS STRUCT " + children(element, column) + " FROM UNNEST(" + path + ") AS " + element + ")";
+            }
+            default:
+                return path;
+        }
+    }
+
+    private static String children(String path, Column column) {
+        StringBuilder sql = new StringBuilder();
+        for (Column child : column.children) {
+            if (sql.length() > 0) {
+                sql.append(", ");
+            }
+            sql.append(expression(path + "." + child.name, child)).append(" AS ").append(child.name);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Applies the projection to a row that is already held as a map, e.g. by {@link InMemoryBigQueryClient}.
+     * Numbers are widened to the INT64/FLOAT64 types BigQuery returns.
+     */
+    public Map<String, Object> apply(Map<String, Object> row) {
+        return project(row, columns);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> project(Map<String, Object> row, List<Column> columns) {
+        Map<String, Object> projected = new LinkedHashMap<>(columns.size() * 4 / 3 + 1);
+        for (Column column : columns) {
+            Object value = row.get(column.name);
+            if (value == null) {
+                projected.put(column.name, column.kind == Kind.REPEATED_STRUCT ? Collections.emptyList() : null);
+            } else if (column.kind == Kind.STRUCT) {
+                projected.put(column.name, project((Map<String, Object>) value, column.children));
+            } else if (column.kind == Kind.REPEATED_STRUCT) {
+                List<Object> elements = (List<Object>) value;
+                List<Object> projectedElements = new ArrayList<>(elements.size());
+                for (Object element : elements) {
+                    projectedElements.add(element == null ? null : project((Map<String, Object>) element, column.children));
+                }
+                projected.put(column.name, projectedElements);
+            } else {
+                projected.put(column.name, widen(value));
+            }
+        }
+        return projected;
+    }
+
+    private static Object widen(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        }
+        return value;
+    }
+}
@@ -0,0 +1,175 @@
+package org.example.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads length-prefixed messages (a 4-byte big-endian length, then the message) from the files in a directory, in
+ * file name order, standing in for a topic when testing offline. Producers append to the newest file and start a
+ * new one with a later name, never going back to an older file. A frame is only returned once it is complete, so a
+ * file can be read while it is being written. When following, the source keeps waiting for new frames and files;
+ * otherwise it is exhausted once every file has been read to the end.
+ */
+public class DirectoryTailSource implements MessageSource {
+    public static final String DEFAULT_GLOB = "*.msgs";
+    public static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+
+    private static final long TAIL_INTERVAL_MILLIS = 20;
+    private static final int LENGTH_BYTES = 4;
+
+    private final Path directory;
+    private final String glob;
+    private final boolean follow;
+    private final Set<Path> finishedFiles = new HashSet<>();
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(LENGTH_BYTES);
+
+    private Path currentFile;
+    private FileChannel channel;
+    private long position;
+    private boolean exhausted;
+
+    public DirectoryTailSource(Path directory, boolean follow) {
+        this(directory, DEFAULT_GLOB, follow);
+    }
+
+    public DirectoryTailSource(Path directory, String glob, boolean follow) {
+        this.directory = directory;
+        this.glob = glob;
+        this.follow = follow;
+    }
+
+    /** Appends messages to {@code file} in the framing this source reads, creating the file if needed. */
+    public static void appendMessages(Path file, List<byte[]> messages) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024))) {
+            for (byte[] message : messages) {
+                out.writeInt(message.length);
+                out.write(message);
+            }
+        }
+    }
+
+    @Override
+    public byte[] poll(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!exhausted) {
+            byte[] message = readFrame();
+            if (message != null) {
+                return message;
+            }
+            if (nextFile()) {
+                continue;
+            }
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (exhausted || remainingMillis <= 0) {
+                return null;
+            }
+            Thread.sleep(Math.min(TAIL_INTERVAL_MILLIS, remainingMillis));
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    /** The file being read and the offset of the next frame in it, for logging. */
+    public String getPosition() {
+        return currentFile == null ? "none" : currentFile.getFileName() + "@" + position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // A complete frame at the current position, or null if the file does not hold one (yet)
+    private byte[] readFrame() throws IOException {
+        if (channel == null) {
+            return null;
+        }
+        long size = channel.size();
+        if (position + LENGTH_BYTES > size) {
+            return null;
+        }
+        lengthBuffer.clear();
+        readFully(lengthBuffer, position);
+        int length = lengthBuffer.getInt(0);
+        if (length < 0 || length > MAX_MESSAGE_BYTES) {
+            throw new IOException("Corrupt frame length " + length + " at " + getPosition());
+        }
+        if (position + LENGTH_BYTES + length > size) {
+            return null;
+        }
+        byte[] message = new byte[length];
+        readFully(ByteBuffer.wrap(message), position + LENGTH_BYTES);
+        position += LENGTH_BYTES + length;
+        return message;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+            if (read < 0) {
+                throw new EOFException("File truncated at " + getPosition());
+            }
+        }
+    }
+
+    // Moves on to the next file once the current one is read to the end and a later one exists
+    private boolean nextFile() throws IOException {
+        List<Path> pending = pendingFiles();
+        if (channel != null) {
+            boolean atEnd = position == channel.size();
+            if (!atEnd && !follow) {
+                throw new IOException("Incomplete frame at the end of " + getPosition());
+            }
+            if (!atEnd || (pending.isEmpty() && follow)) {
+                return false;
+            }
+            Log.debug(() -> "Finished reading " + getPosition());
+            finishedFiles.add(currentFile);
+            close();
+            currentFile = null;
+        }
+        if (pending.isEmpty()) {
+            exhausted = !follow;
+            return false;
+        }
+        currentFile = pending.get(0);
+        channel = FileChannel.open(currentFile, StandardOpenOption.READ);
+        position = 0;
+        return true;
+    }
+
+    private List<Path> pendingFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : stream) {
+                if (!finishedFiles.contains(file) && !file.equals(currentFile)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,175 @@
+package org.example.util;
+
+import org.apache.avro.Schema;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, pre-parsed form of {@code field-mappings.properties}. Each line such as
+ * {@code shippingAddress=shipping_address:{street=street,zipCode=zip_code}} is split once into a tree of
+ * source-to-BigQuery field paths, so validators walk plain objects instead of re-splitting strings per record.
+ */
+public final class FieldMappingPlan {
+
+    public static final class Mapping {
+        private final String source;
+        private final String target;
+        private final String path;
+        private final List<Mapping> children;
+
+        private Mapping(String source, String target, String path, List<Mapping> children) {
+            this.source = source;
+            this.target = target;
+            this.path = path;
+            this.children = Collections.unmodifiableList(new ArrayList<>(children));
+        }
+
+        /** Field name in the source (Cucumber / Avro) record. */
+        public String getSource() {
+            return source;
+        }
+
+        /** Column name in the BigQuery row. */
+        public String getTarget() {
+            return target;
+        }
+
+        /** Dotted source path used to aggregate mismatches, e.g. {@code shippingAddress.zipCode}. */
+        public String getPath() {
+            return path;
+        }
+
+        public boolean isNested() {
+            return !children.isEmpty();
+        }
+
+        public List<Mapping> getChildren() {
+            return children;
+        }
+    }
+
+    private final List<Mapping> mappings;
+
+    private FieldMappingPlan(List<Mapping> mappings) {
+        this.mappings = Collections.unmodifiableList(new ArrayList<>(mappings));
+    }
+
+    public static FieldMappingPlan fromResource(String resource) {
+        InputStream in = FieldMappingPlan.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IllegalArgumentException("Field mapping resource not found: " + resource);
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load field mappings from " + resource, e);
+        }
+    }
+
+    public static FieldMappingPlan parse(Reader source) throws IOException {
+        BufferedReader reader = new BufferedReader(source);
+        List<Mapping> mappings = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("=", 2);
+            if (parts.length == 2) {
+                mappings.add(parseMapping(parts[0].trim(), parts[1].trim()));
+            }
+        }
+        return new FieldMappingPlan(mappings);
+    }
+
+    // items=[productId=product_id,...] keeps the field name; shipping_address:{street=street,...} renames it
+    private static Mapping parseMapping(String field, String config) {
+        int open = indexOfNestedStart(config);
+        if (open < 0) {
+            return new Mapping(field, config, field, Collections.emptyList());
+        }
+        String target = open > 0 && config.charAt(open - 1) == ':' ? config.substring(0, open - 1) : field;
+        char close = config.charAt(open) == '[' ? ']' : '}';
+        if (config.charAt(config.length() - 1) != close) {
+            throw new IllegalArgumentException("Unbalanced nested mapping for " + field + ": " + config);
+        }
+        List<Mapping> children = new ArrayList<>();
+        for (String child : config.substring(open + 1, config.length() - 1).split(",")) {
+            String[] kv = child.trim().split("=", 2);
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Invalid nested mapping for " + field + ": " + child);
+            }
+            children.add(new Mapping(kv[0], kv[1], field + "." + kv[0], Collections.emptyList()));
+        }
+        return new Mapping(field, target, field, children);
+    }
+
+    private static int indexOfNestedStart(String config) {
+        int bracket = config.indexOf('[');
+        int brace = config.indexOf('{');
+        if (bracket < 0) {
+            return brace;
+        }
+        return brace < 0 ? bracket : Math.min(bracket, brace);
+    }
+
+    public List<Mapping> getMappings() {
+        return mappings;
+    }
+
+    /** BigQuery column for a top-level source field, or {@code null} if it is not mapped. */
+    public String targetOf(String source) {
+        for (Mapping mapping : mappings) {
+            if (mapping.source.equals(source)) {
+                return mapping.target;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Column projection covering exactly the mapped columns; nested fields become STRUCT or ARRAY&lt;STRUCT&gt;
+     * depending on the Avro type of the source field.
+     */
+    public ColumnProjection toColumnProjection(Schema schema) {
+        List<ColumnProjection.Column> columns = new ArrayList<>(mappings.size());
+        for (Mapping mapping : mappings) {
+            if (!mapping.isNested()) {
+                columns.add(ColumnProjection.Column.scalar(mapping.target));
+                continue;
+            }
+            List<ColumnProjection.Column> children = new ArrayList<>(mapping.children.size());
+            for (Mapping child : mapping.children) {
+                children.add(ColumnProjection.Column.scalar(child.target));
+            }
+            Schema.Field field = schema.getField(mapping.source);
+            if (field == null) {
+                throw new IllegalArgumentException("Mapped field " + mapping.source + " is not in schema " + schema.getFullName());
+            }
+            columns.add(isArray(field.schema())
+                ? ColumnProjection.Column.repeatedStruct(mapping.target, children)
+                : ColumnProjection.Column.struct(mapping.target, children));
+        }
+        return ColumnProjection.of(columns);
+    }
+
+    private static boolean isArray(Schema schema) {
+        if (schema.getType() == Schema.Type.UNION) {
+            for (Schema branch : schema.getTypes()) {
+                if (branch.getType() != Schema.Type.NULL) {
+                    return branch.getType() == Schema.Type.ARRAY;
+                }
+            }
+        }
+        return schema.getType() == Schema.Type.ARRAY;
+    }
+}
@@ -0,0 +1,294 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.TableId;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Reconciles a BigQuery table against local Avro records without pulling the table back. Rows are bucketed by
+ * {@link RowFingerprint#keyHash} of the key; per bucket, BigQuery's row count and fingerprint sum are compared with
+ * the same aggregate computed locally. Mismatched buckets are split {@code fanout} ways and compared again until they
+ * are small enough, and only then are (key, fingerprint) pairs fetched for them and diffed. Bytes transferred grow
+ * with the number of differences rather than with the table size.
+ */
+public class FingerprintReconciler {
+    public static final int DEFAULT_FANOUT = 1024;
+    public static final int DEFAULT_LEAF_BUCKET_ROWS = 16;
+    private static final int FETCH_PAGE_SIZE = 10_000;
+    private static final int MAX_SAMPLES = 20;
+
+    private final BigQueryClient client;
+    private final String keyColumn;
+    private final int fanout;
+    private final int leafBucketRows;
+
+    public FingerprintReconciler(BigQueryClient client, String keyColumn) {
+        this(client, keyColumn, DEFAULT_FANOUT, DEFAULT_LEAF_BUCKET_ROWS);
+    }
+
+    public FingerprintReconciler(BigQueryClient client, String keyColumn, int fanout, int leafBucketRows) {
+        if (fanout < 2 || leafBucketRows <= 0) {
+            throw new IllegalArgumentException("Fanout must be at least 2 and leaf bucket rows positive");
+        }
+        this.client = client;
+        this.keyColumn = keyColumn;
+        this.fanout = fanout;
+        this.leafBucketRows = leafBucketRows;
+    }
+
+    /**
+     * Reconciles the whole table against {@code records}, which are all of {@code schema}.
+     */
+    public Result reconcile(TableId table, Schema schema, List<? extends GenericRecord> records) throws InterruptedException {
+        return reconcile(table, schema, records, false);
+    }
+
+    /**
+     * With {@code scopeToRecords}, only table rows whose key belongs to {@code records} are considered, for tables
+     * shared with other writers; the key list is then sent with every query.
+     */
+    public Result reconcile(TableId table, Schema schema, List<? extends GenericRecord> records, boolean scopeToRecords) throws InterruptedException {
+        long start = System.nanoTime();
+        if (records.isEmpty() && scopeToRecords) {
+            return new Result(0, 0, 0, 0, 0, new Differences(), System.nanoTime() - start);
+        }
+        RowFingerprint fingerprint = RowFingerprint.forSchema(schema);
+        int keyPosition = fingerprint.positionOf(keyColumn);
+        if (keyPosition < 0) {
+            throw new IllegalArgumentException("Key column " + keyColumn + " is not in schema " + fingerprint.getSchema().getFullName());
+        }
+
+        // Key, key hash and row fingerprint are computed once; later levels only revisit the rows still in doubt
+        int size = records.size();
+        String[] keys = new String[size];
+        long[] hashes = new long[size];
+        long[] fingerprints = new long[size];
+        int[] candidates = new int[size];
+        int candidateCount = 0;
+        for (int i = 0; i < size; i++) {
+            GenericRecord record = records.get(i);
+            Object key = record.get(keyPosition);
+            if (key == null) {
+                continue;
+            }
+            keys[i] = key.toString();
+            hashes[i] = RowFingerprint.keyHash(keys[i]);
+            fingerprints[i] = fingerprint.fingerprint(record);
+            candidates[candidateCount++] = i;
+        }
+        Collection<String> scope = null;
+        if (scopeToRecords) {
+            Set<String> scopeKeys = new HashSet<>(candidateCount * 4 / 3 + 1);
+            for (int i = 0; i < candidateCount; i++) {
+                scopeKeys.add(keys[candidates[i]]);
+            }
+            scope = scopeKeys;
+        }
+
+        long parentModulus = 1;
+        Collection<Long> parents = Collections.singletonList(0L);
+        long modulus = fanout;
+        long localRows = candidateCount;
+        long remoteRows = -1;
+        int levels = 0;
+        long bucketsCompared = 0;
+        while (true) {
+            levels++;
+            Map<Long, RowFingerprint.Bucket> remote = client.aggregateFingerprints(table, fingerprint, keyColumn, scope,
+                parentModulus, parents, modulus);
+            if (remoteRows < 0) {
+                remoteRows = 0;
+                for (RowFingerprint.Bucket bucket : remote.values()) {
+                    remoteRows += bucket.getCount();
+                }
+            }
+            Map<Long, RowFingerprint.Bucket> local = new HashMap<>();
+            for (int i = 0; i < candidateCount; i++) {
+                int row = candidates[i];
+                local.computeIfAbsent(hashes[row] % modulus, b -> new RowFingerprint.Bucket()).add(fingerprints[row]);
+            }
+            Set<Long> allBuckets = new HashSet<>(local.keySet());
+            allBuckets.addAll(remote.keySet());
+            bucketsCompared += allBuckets.size();
+            TreeSet<Long> mismatched = new TreeSet<>();
+            long remoteRowsInMismatched = 0;
+            long localRowsInMismatched = 0;
+            for (Long bucket : allBuckets) {
+                RowFingerprint.Bucket localBucket = local.get(bucket);
+                RowFingerprint.Bucket remoteBucket = remote.get(bucket);
+                if (!Objects.equals(localBucket, remoteBucket)) {
+                    mismatched.add(bucket);
+                    localRowsInMismatched += localBucket == null ? 0 : localBucket.getCount();
+                    remoteRowsInMismatched += remoteBucket == null ? 0 : remoteBucket.getCount();
+                }
+            }
+            if (mismatched.isEmpty()) {
+                return new Result(localRows, remoteRows, levels, bucketsCompared, 0, new Differences(), System.nanoTime() - start);
+            }
+
+            int kept = 0;
+            for (int i = 0; i < candidateCount; i++) {
+                if (mismatched.contains(hashes[candidates[i]] % modulus)) {
+                    candidates[kept++] = candidates[i];
+                }
+            }
+            candidateCount = kept;
+
+            boolean canNarrow = modulus <= Long.MAX_VALUE / fanout;
+            if (!canNarrow || Math.max(localRowsInMismatched, remoteRowsInMismatched) <= (long) mismatched.size() * leafBucketRows) {
+                Differences differences = new Differences();
+                long fetched = diffRows(table, fingerprint, scope, modulus, mismatched, keys, fingerprints, candidates,
+                    candidateCount, differences);
+                return new Result(localRows, remoteRows, levels, bucketsCompared, fetched, differences, System.nanoTime() - start);
+            }
+            parentModulus = modulus;
+            parents = mismatched;
+            modulus *= fanout;
+        }
+    }
+
+    private long diffRows(TableId table, RowFingerprint fingerprint, Collection<String> scope, long modulus, Set<Long> buckets,
+                          String[] keys, long[] fingerprints, int[] candidates, int candidateCount,
+                          Differences differences) throws InterruptedException {
+        Map<String, List<Long>> local = new HashMap<>();
+        for (int i = 0; i < candidateCount; i++) {
+            int row = candidates[i];
+            local.computeIfAbsent(keys[row], k -> new ArrayList<>(1)).add(fingerprints[row]);
+        }
+        Map<String, List<Long>> remote = new HashMap<>();
+        long[] fetched = new long[1];
+        client.queryFingerprints(table, fingerprint, keyColumn, scope, modulus, buckets, FETCH_PAGE_SIZE, page -> {
+            for (Map.Entry<String, Long> row : page) {
+                remote.computeIfAbsent(row.getKey(), k -> new ArrayList<>(1)).add(row.getValue());
+            }
+            fetched[0] += page.size();
+        });
+        Set<String> allKeys = new TreeSet<>(local.keySet());
+        allKeys.addAll(remote.keySet());
+        for (String key : allKeys) {
+            List<Long> expected = local.get(key);
+            List<Long> actual = remote.get(key);
+            if (actual == null) {
+                differences.missing.add(key);
+            } else if (expected == null) {
+                differences.unexpected.add(key);
+            } else if (expected.size() != actual.size()) {
+                differences.duplicated.add(key);
+            } else if (!new TreeSet<>(expected).equals(new TreeSet<>(actual))) {
+                differences.changed.add(key);
+            }
+        }
+        return fetched[0];
+    }
+
+    private static class Differences {
+        private final List<String> missing = new ArrayList<>();
+        private final List<String> unexpected = new ArrayList<>();
+        private final List<String> changed = new ArrayList<>();
+        private final List<String> duplicated = new ArrayList<>();
+    }
+
+    public static class Result {
+        private final long localRows;
+        private final long remoteRows;
+        private final int levels;
+        private final long bucketsCompared;
+        private final long rowsFetched;
+        private final Differences differences;
+        private final long elapsedNanos;
+
+        Result(long localRows, long remoteRows, int levels, long bucketsCompared, long rowsFetched,
+               Differences differences, long elapsedNanos) {
+            this.localRows = localRows;
+            this.remoteRows = remoteRows;
+            this.levels = levels;
+            this.bucketsCompared = bucketsCompared;
+            this.rowsFetched = rowsFetched;
+            this.differences = differences;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean isReconciled() {
+            return differences.missing.isEmpty() && differences.unexpected.isEmpty()
+                && differences.changed.isEmpty() && differences.duplicated.isEmpty();
+        }
+
+        public long getLocalRows() {
+            return localRows;
+        }
+
+        public long getRemoteRows() {
+            return remoteRows;
+        }
+
+        public int getLevels() {
+            return levels;
+        }
+
+        public long getBucketsCompared() {
+            return bucketsCompared;
+        }
+
+        /** Number of (key, fingerprint) pairs pulled from BigQuery to pinpoint the differences. */
+        public long getRowsFetched() {
+            return rowsFetched;
+        }
+
+        /** Keys present locally but not in the table. */
+        public List<String> getMissingKeys() {
+            return differences.missing;
+        }
+
+        /** Keys present in the table but not locally. */
+        public List<String> getUnexpectedKeys() {
+            return differences.unexpected;
+        }
+
+        /** Keys present on both sides whose row contents differ. */
+        public List<String> getChangedKeys() {
+            return differences.changed;
+        }
+
+        /** Keys with a different number of rows on each side. */
+        public List<String> getDuplicatedKeys() {
+            return differences.duplicated;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder summary = new StringBuilder(String.format(
+                "%d local row(s), %d table row(s); %d missing, %d unexpected, %d changed, %d duplicated; %d level(s), %d bucket(s) compared, %d row fingerprint(s) fetched in %.1f ms",
+                localRows, remoteRows, differences.missing.size(), differences.unexpected.size(), differences.changed.size(),
+                differences.duplicated.size(), levels, bucketsCompared, rowsFetched, elapsedNanos / 1e6));
+            appendSample(summary, "missing", differences.missing);
+            appendSample(summary, "unexpected", differences.unexpected);
+            appendSample(summary, "changed", differences.changed);
+            appendSample(summary, "duplicated", differences.duplicated);
+            return summary.toString();
+        }
+
+        private static void appendSample(StringBuilder summary, String label, List<String> keys) {
+            if (!keys.isEmpty()) {
+                summary.append("\n  ").append(label).append(": ").append(keys.subList(0, Math.min(MAX_SAMPLES, keys.size())));
+                if (keys.size() > MAX_SAMPLES) {
+                    summary.append(" ...");
+                }
+            }
+        }
+    }
+}
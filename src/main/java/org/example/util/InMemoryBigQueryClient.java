@@ -0,0 +1,411 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.TableId;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for BigQuery. Rows are stored per table (deduplicated by insertId, like the streaming API) and
+ * keyed lookups are served from a lazily built per-column index. Latency, request-level quota errors, a cap on
+ * concurrent requests and partial row failures can be injected to measure throughput and backpressure offline.
+ */
+public class InMemoryBigQueryClient implements BigQueryClient {
+    private final String projectId;
+    private final Map<String, TableData> tables = new ConcurrentHashMap<>();
+    private final Random random;
+
+    private volatile long latencyMillis;
+    private volatile long latencyJitterMillis;
+    private volatile double quotaErrorRate;
+    private volatile double rowFailureRate;
+    private volatile Semaphore concurrencyLimit;
+    private volatile long visibilityDelayMillis;
+    private volatile long visibilityJitterMillis;
+
+    private final AtomicLong insertRequests = new AtomicLong();
+    private final AtomicLong rowsInserted = new AtomicLong();
+    private final AtomicLong rowsFailed = new AtomicLong();
+    private final AtomicLong quotaErrors = new AtomicLong();
+    private final AtomicLong loadJobs = new AtomicLong();
+
+    public InMemoryBigQueryClient() {
+        this("in-memory-project", 42L);
+    }
+
+    public InMemoryBigQueryClient(String projectId, long seed) {
+        this.projectId = projectId;
+        this.random = new Random(seed);
+    }
+
+    /** Adds {@code latencyMillis} plus up to {@code jitterMillis} of uniform jitter to every insert, query and load. */
+    public InMemoryBigQueryClient withLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = jitterMillis;
+        return this;
+    }
+
+    /** Fails this fraction of insert requests as a whole with a retryable {@code rateLimitExceeded} error. */
+    public InMemoryBigQueryClient withQuotaErrorRate(double quotaErrorRate) {
+        this.quotaErrorRate = quotaErrorRate;
+        return this;
+    }
+
+    /** Rejects this fraction of rows within otherwise successful inserts with a retryable {@code backendError}. */
+    public InMemoryBigQueryClient withRowFailureRate(double rowFailureRate) {
+        this.rowFailureRate = rowFailureRate;
+        return this;
+    }
+
+    /** Throttles inserts beyond this many concurrent requests, like BigQuery's per-table streaming quota. */
+    public InMemoryBigQueryClient withMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.concurrencyLimit = maxConcurrentRequests > 0 ? new Semaphore(maxConcurrentRequests) : null;
+        return this;
+    }
+
+    /** Hides streamed rows from queries for this long (plus jitter), like BigQuery's streaming buffer under load. */
+    public InMemoryBigQueryClient withVisibilityDelay(long delayMillis, long jitterMillis) {
+        this.visibilityDelayMillis = delayMillis;
+        this.visibilityJitterMillis = jitterMillis;
+        return this;
+    }
+
+    @Override
+    public String getProjectId() {
+        return projectId;
+    }
+
+    @Override
+    public Map<Long, List<BigQueryError>> insertAll(TableId table, List<InsertAllRequest.RowToInsert> rows) {
+        insertRequests.incrementAndGet();
+        Semaphore limit = concurrencyLimit;
+        if (limit != null && !limit.tryAcquire()) {
+            quotaErrors.incrementAndGet();
+            throw rateLimitExceeded("Too many concurrent insertAll requests for " + table);
+        }
+        try {
+            simulateLatency();
+            if (quotaErrorRate > 0 && nextDouble() < quotaErrorRate) {
+                quotaErrors.incrementAndGet();
+                throw rateLimitExceeded("Exceeded rate limits: too many rows inserted into " + table);
+            }
+            Map<Long, List<BigQueryError>> errors = new TreeMap<>();
+            List<InsertAllRequest.RowToInsert> accepted = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                if (rowFailureRate > 0 && nextDouble() < rowFailureRate) {
+                    errors.put((long) i, Collections.singletonList(new BigQueryError("backendError", "", "Injected row failure")));
+                } else {
+                    accepted.add(rows.get(i));
+                }
+            }
+            table(table).insert(accepted, System.nanoTime() + visibilityDelayNanos());
+            rowsInserted.addAndGet(accepted.size());
+            rowsFailed.addAndGet(errors.size());
+            return errors;
+        } finally {
+            if (limit != null) {
+                limit.release();
+            }
+        }
+    }
+
+    @Override
+    public void queryRowsAsJson(TableId table, String keyColumn, Collection<String> keys, int pageSize, PageHandler<String> handler) throws InterruptedException {
+        simulateLatency();
+        List<Map<String, Object>> rows = table(table).lookup(keyColumn, keys);
+        for (int from = 0; from < rows.size(); from += pageSize) {
+            List<Map<String, Object>> pageRows = rows.subList(from, (int) Math.min(rows.size(), (long) from + pageSize));
+            List<String> jsonData = new ArrayList<>(pageRows.size());
+            try {
+                for (Map<String, Object> row : pageRows) {
+                    jsonData.add(JsonUtil.toJson(row));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to serialize in-memory row", e);
+            }
+            handler.onPage(jsonData);
+        }
+    }
+
+    @Override
+    public void queryProjectedRows(TableId table, ColumnProjection projection, String keyColumn, Collection<String> keys,
+                                   int pageSize, PageHandler<Map<String, Object>> handler) throws InterruptedException {
+        simulateLatency();
+        List<Map<String, Object>> rows = table(table).lookup(keyColumn, keys);
+        for (int from = 0; from < rows.size(); from += pageSize) {
+            List<Map<String, Object>> pageRows = rows.subList(from, (int) Math.min(rows.size(), (long) from + pageSize));
+            List<Map<String, Object>> projected = new ArrayList<>(pageRows.size());
+            for (Map<String, Object> row : pageRows) {
+                projected.add(projection.apply(row));
+            }
+            handler.onPage(projected);
+        }
+    }
+
+    @Override
+    public Set<String> findVisibleKeys(TableId table, String keyColumn, Collection<String> keys) throws InterruptedException {
+        simulateLatency();
+        return table(table).visibleKeys(keyColumn, keys);
+    }
+
+    @Override
+    public Map<Long, RowFingerprint.Bucket> aggregateFingerprints(TableId table, RowFingerprint fingerprint, String keyColumn,
+                                                                  Collection<String> scope, long parentModulus,
+                                                                  Collection<Long> parentBuckets, long modulus) throws InterruptedException {
+        simulateLatency();
+        Set<Long> parents = new HashSet<>(parentBuckets);
+        Set<String> keys = scope != null ? new HashSet<>(scope) : null;
+        Map<Long, RowFingerprint.Bucket> buckets = new HashMap<>();
+        for (Map<String, Object> row : table(table).visibleRows()) {
+            Object key = row.get(keyColumn);
+            if (key == null || (keys != null && !keys.contains(key.toString()))) {
+                continue;
+            }
+            long hash = RowFingerprint.keyHash(key.toString());
+            if (parentModulus > 1 && !parents.contains(hash % parentModulus)) {
+                continue;
+            }
+            buckets.computeIfAbsent(hash % modulus, b -> new RowFingerprint.Bucket()).add(fingerprint.fingerprint(row));
+        }
+        return buckets;
+    }
+
+    @Override
+    public void queryFingerprints(TableId table, RowFingerprint fingerprint, String keyColumn, Collection<String> scope,
+                                  long modulus, Collection<Long> buckets, int pageSize,
+                                  PageHandler<Map.Entry<String, Long>> handler) throws InterruptedException {
+        simulateLatency();
+        Set<Long> wanted = new HashSet<>(buckets);
+        Set<String> keys = scope != null ? new HashSet<>(scope) : null;
+        List<Map.Entry<String, Long>> page = new ArrayList<>();
+        for (Map<String, Object> row : table(table).visibleRows()) {
+            Object key = row.get(keyColumn);
+            if (key == null || (keys != null && !keys.contains(key.toString()))
+                    || !wanted.contains(RowFingerprint.keyHash(key.toString()) % modulus)) {
+                continue;
+            }
+            page.add(new AbstractMap.SimpleImmutableEntry<>(key.toString(), fingerprint.fingerprint(row)));
+            if (page.size() == pageSize) {
+                handler.onPage(page);
+                page = new ArrayList<>();
+            }
+        }
+        if (!page.isEmpty()) {
+            handler.onPage(page);
+        }
+    }
+
+    @Override
+    public LoadJob loadAvroFile(TableId table, Path avroFile) throws IOException {
+        simulateLatency();
+        // Files are written with BigQuery column names already, so the encoder maps names one to one
+        List<Map<String, Object>> rows = new ArrayList<>();
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(avroFile.toFile(), new GenericDatumReader<>())) {
+            BigQueryRowEncoder encoder = BigQueryRowEncoder.forSchema(reader.getSchema());
+            for (GenericRecord record : reader) {
+                rows.add(encoder.encode(record));
+            }
+        }
+        table(table).append(rows);
+        String jobId = "in-memory-load-" + loadJobs.incrementAndGet();
+        return new LoadJob() {
+            @Override
+            public String getJobId() {
+                return jobId;
+            }
+
+            @Override
+            public long awaitCompletion() {
+                return rows.size();
+            }
+        };
+    }
+
+    public List<Map<String, Object>> getRows(String datasetId, String tableId) {
+        TableData data = tables.get(datasetId + "." + tableId);
+        return data == null ? Collections.emptyList() : data.snapshot();
+    }
+
+    public long getInsertRequests() {
+        return insertRequests.get();
+    }
+
+    public long getRowsInserted() {
+        return rowsInserted.get();
+    }
+
+    public long getRowsFailed() {
+        return rowsFailed.get();
+    }
+
+    public long getQuotaErrors() {
+        return quotaErrors.get();
+    }
+
+    private TableData table(TableId table) {
+        return tables.computeIfAbsent(table.getDataset() + "." + table.getTable(), key -> new TableData());
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private long visibilityDelayNanos() {
+        long jitter = visibilityJitterMillis;
+        long delay = visibilityDelayMillis + (jitter > 0 ? (long) (nextDouble() * jitter) : 0);
+        return TimeUnit.MILLISECONDS.toNanos(delay);
+    }
+
+    private void simulateLatency() {
+        long base = latencyMillis;
+        long jitter = latencyJitterMillis;
+        if (base <= 0 && jitter <= 0) {
+            return;
+        }
+        long delay = base + (jitter > 0 ? (long) (nextDouble() * jitter) : 0);
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BigQueryException(BigQueryException.UNKNOWN_CODE, "Interrupted while simulating latency", e);
+        }
+    }
+
+    private static BigQueryException rateLimitExceeded(String message) {
+        return new BigQueryException(403, message, new BigQueryError("rateLimitExceeded", "", message));
+    }
+
+    private static class StoredRow {
+        private final Map<String, Object> content;
+        private final long visibleAtNanos;
+
+        StoredRow(Map<String, Object> content, long visibleAtNanos) {
+            this.content = content;
+            this.visibleAtNanos = visibleAtNanos;
+        }
+
+        boolean isVisible(long now) {
+            return now - visibleAtNanos >= 0;
+        }
+    }
+
+    private static class TableData {
+        private final List<StoredRow> rows = new ArrayList<>();
+        private final Set<String> insertIds = new HashSet<>();
+        private final Map<String, Map<Object, List<StoredRow>>> indexes = new HashMap<>();
+
+        synchronized void insert(List<InsertAllRequest.RowToInsert> toInsert, long visibleAtNanos) {
+            for (InsertAllRequest.RowToInsert row : toInsert) {
+                // Best-effort dedup on insertId, the same contract BigQuery's streaming API offers
+                if (row.getId() == null || insertIds.add(row.getId())) {
+                    add(new StoredRow(new LinkedHashMap<>(row.getContent()), visibleAtNanos));
+                }
+            }
+        }
+
+        synchronized void append(List<Map<String, Object>> toAppend) {
+            long now = System.nanoTime();
+            for (Map<String, Object> row : toAppend) {
+                add(new StoredRow(row, now));
+            }
+        }
+
+        synchronized List<Map<String, Object>> lookup(String keyColumn, Collection<String> keys) {
+            Map<Object, List<StoredRow>> index = index(keyColumn);
+            long now = System.nanoTime();
+            // ORDER BY keyColumn
+            TreeMap<String, List<StoredRow>> matches = new TreeMap<>();
+            for (String key : keys) {
+                List<StoredRow> found = index.get(key);
+                if (found != null) {
+                    matches.put(key, found);
+                }
+            }
+            List<Map<String, Object>> result = new ArrayList<>();
+            for (List<StoredRow> found : matches.values()) {
+                for (StoredRow row : found) {
+                    if (row.isVisible(now)) {
+                        result.add(row.content);
+                    }
+                }
+            }
+            return result;
+        }
+
+        synchronized Set<String> visibleKeys(String keyColumn, Collection<String> keys) {
+            Map<Object, List<StoredRow>> index = index(keyColumn);
+            long now = System.nanoTime();
+            Set<String> visible = new HashSet<>();
+            for (String key : keys) {
+                List<StoredRow> found = index.get(key);
+                if (found != null) {
+                    for (StoredRow row : found) {
+                        if (row.isVisible(now)) {
+                            visible.add(key);
+                            break;
+                        }
+                    }
+                }
+            }
+            return visible;
+        }
+
+        synchronized List<Map<String, Object>> visibleRows() {
+            long now = System.nanoTime();
+            List<Map<String, Object>> visible = new ArrayList<>(rows.size());
+            for (StoredRow row : rows) {
+                if (row.isVisible(now)) {
+                    visible.add(row.content);
+                }
+            }
+            return visible;
+        }
+
+        synchronized List<Map<String, Object>> snapshot() {
+            List<Map<String, Object>> snapshot = new ArrayList<>(rows.size());
+            for (StoredRow row : rows) {
+                snapshot.add(row.content);
+            }
+            return snapshot;
+        }
+
+        private Map<Object, List<StoredRow>> index(String keyColumn) {
+            return indexes.computeIfAbsent(keyColumn, column -> {
+                Map<Object, List<StoredRow>> built = new HashMap<>();
+                for (StoredRow row : rows) {
+                    built.computeIfAbsent(row.content.get(column), k -> new ArrayList<>(1)).add(row);
+                }
+                return built;
+            });
+        }
+
+        private void add(StoredRow row) {
+            rows.add(row);
+            for (Map.Entry<String, Map<Object, List<StoredRow>>> index : indexes.entrySet()) {
+                index.getValue().computeIfAbsent(row.content.get(index.getKey()), k -> new ArrayList<>(1)).add(row);
+            }
+        }
+    }
+}
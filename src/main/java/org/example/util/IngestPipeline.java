@@ -0,0 +1,534 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.TableId;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running ingestion from a {@link MessageSource} into a {@link Sink}, in four stages connected by bounded
+ * queues: the source thread, decode workers ({@link ResolvingRecordDecoder}, so any registered writer version is
+ * read into the reader schema), encode workers ({@link BigQueryRowEncoder} with insertIds) and a batcher that hands
+ * batches to sink workers. A batch is flushed once it reaches {@code maxBatchRows} rows or
+ * {@link BatchingBigQueryWriter#DEFAULT_MAX_BATCH_BYTES} estimated bytes, or {@code lingerMillis} after its first
+ * row. Every queue blocks when full, so a slow sink holds up the batcher, then the encoders and decoders, and
+ * finally the source. Rows are not kept in source order across workers.
+ */
+public class IngestPipeline implements AutoCloseable {
+    public static final int DEFAULT_MAX_BATCH_ROWS = BatchingBigQueryWriter.DEFAULT_MAX_BATCH_ROWS;
+    public static final long DEFAULT_LINGER_MILLIS = 200;
+    public static final int DEFAULT_QUEUE_CAPACITY = 2048;
+    public static final int DEFAULT_SINK_WORKERS = BatchingBigQueryWriter.DEFAULT_MAX_IN_FLIGHT;
+
+    private static final long SOURCE_POLL_MILLIS = 100;
+    private static final boolean VIRTUAL_THREADS = hasVirtualThreads();
+    private static final byte[] END_OF_MESSAGES = new byte[0];
+    private static final GenericRecord END_OF_RECORDS = new GenericData.Record(
+        Schema.createRecord("EndOfRecords", null, "org.example.util", false, Collections.emptyList()));
+    private static final EncodedRow END_OF_ROWS = new EncodedRow(null, null, 0, 0);
+    private static final Batch END_OF_BATCHES = new Batch(-1);
+
+    /** Writes one batch and returns how many of its rows could not be written. */
+    @FunctionalInterface
+    public interface Sink {
+        int write(Batch batch) throws InterruptedException;
+    }
+
+    public enum FlushReason { SIZE, LINGER, DRAIN }
+
+    private final MessageSource source;
+    private final ResolvingRecordDecoder decoder;
+    private final Schema readerSchema;
+    private final BigQueryRowEncoder encoder;
+    private final Sink sink;
+    private final int maxBatchRows;
+    private final long lingerNanos;
+    private final int workers;
+    private final int sinkWorkers;
+    private final BlockingQueue<byte[]> messages;
+    private final BlockingQueue<GenericRecord> records;
+    private final BlockingQueue<EncodedRow> rows;
+    private final BlockingQueue<Batch> batches;
+    private final String insertIdPrefix = UUID.randomUUID().toString();
+    private final AtomicLong insertIdSequence = new AtomicLong();
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicInteger decodersRunning = new AtomicInteger();
+    private final AtomicInteger encodersRunning = new AtomicInteger();
+
+    private final AtomicLong messagesRead = new AtomicLong();
+    private final AtomicLong sourceBlockedNanos = new AtomicLong();
+    private final AtomicLong recordsDecoded = new AtomicLong();
+    private final AtomicLong decodeFailures = new AtomicLong();
+    private final AtomicLong rowsEncoded = new AtomicLong();
+    private final AtomicLong[] flushes = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong rowsFailed = new AtomicLong();
+
+    private volatile boolean stopRequested;
+    private volatile Throwable failure;
+    private volatile long startNanos;
+    private volatile long elapsedNanos;
+
+    public IngestPipeline(MessageSource source, ResolvingRecordDecoder decoder, Schema readerSchema, Sink sink) {
+        this(source, decoder, readerSchema, sink, DEFAULT_MAX_BATCH_ROWS, DEFAULT_LINGER_MILLIS, DEFAULT_QUEUE_CAPACITY,
+            Runtime.getRuntime().availableProcessors(), DEFAULT_SINK_WORKERS);
+    }
+
+    public IngestPipeline(MessageSource source, ResolvingRecordDecoder decoder, Schema readerSchema, Sink sink,
+                          int maxBatchRows, long lingerMillis, int queueCapacity, int workers, int sinkWorkers) {
+        if (maxBatchRows <= 0 || lingerMillis <= 0 || queueCapacity <= 0 || workers <= 0 || sinkWorkers <= 0) {
+            throw new IllegalArgumentException("Batch size, linger, queue capacity and worker counts must be positive");
+        }
+        this.source = source;
+        this.decoder = decoder;
+        this.readerSchema = readerSchema;
+        this.encoder = BigQueryRowEncoder.forSchema(readerSchema);
+        this.sink = sink;
+        this.maxBatchRows = maxBatchRows;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.workers = workers;
+        this.sinkWorkers = sinkWorkers;
+        this.messages = new ArrayBlockingQueue<>(queueCapacity);
+        this.records = new ArrayBlockingQueue<>(queueCapacity);
+        this.rows = new ArrayBlockingQueue<>(queueCapacity);
+        // Batches are large, so only enough to keep every sink worker busy are queued
+        this.batches = new ArrayBlockingQueue<>(sinkWorkers);
+    }
+
+    /** Sink that streams each batch with {@link BatchingBigQueryWriter#writeRows}, retrying failed rows there. */
+    public static Sink bigQuerySink(BatchingBigQueryWriter writer, TableId table) {
+        return batch -> {
+            BatchingBigQueryWriter.BatchStats stats = writer.writeRows(table, batch.getIndex(), batch.getRecords(), batch.getRows());
+            for (BatchingBigQueryWriter.FailedRow failed : stats.getFailedRows()) {
+                Log.warn(() -> "Row " + failed.getInsertId() + " failed: " + failed.getErrors());
+            }
+            return stats.getFailedRows().size();
+        };
+    }
+
+    /**
+     * Worker threads for the pipeline stages. Virtual threads need Java 21 while this project targets 11, so they are
+     * looked up reflectively; on older runtimes platform daemon threads are used instead.
+     */
+    static ThreadFactory workerThreads(String prefix) {
+        if (!VIRTUAL_THREADS) {
+            AtomicInteger threadCount = new AtomicInteger();
+            return runnable -> {
+                Thread thread = new Thread(runnable, prefix + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Failed to create virtual thread factory", e);
+        }
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            // Java 19 and 20 have the method but throw unless preview features are enabled
+            Thread.class.getMethod("ofVirtual").invoke(null);
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    public synchronized IngestPipeline start() {
+        if (startNanos != 0) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        startNanos = System.nanoTime();
+        decodersRunning.set(workers);
+        encodersRunning.set(workers);
+        threads.add(workerThreads("ingest-source").newThread(this::runSource));
+        ThreadFactory decodeThreads = workerThreads("ingest-decode");
+        ThreadFactory encodeThreads = workerThreads("ingest-encode");
+        for (int i = 0; i < workers; i++) {
+            threads.add(decodeThreads.newThread(this::runDecoder));
+            threads.add(encodeThreads.newThread(this::runEncoder));
+        }
+        threads.add(workerThreads("ingest-batch").newThread(this::runBatcher));
+        ThreadFactory sinkThreads = workerThreads("ingest-sink");
+        for (int i = 0; i < sinkWorkers; i++) {
+            threads.add(sinkThreads.newThread(this::runSink));
+        }
+        Log.info(() -> "Starting ingest pipeline into " + readerSchema.getFullName() + " with " + workers
+            + " decode/encode worker(s), " + sinkWorkers + " sink worker(s)"
+            + (VIRTUAL_THREADS ? " on virtual threads" : ""));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        return this;
+    }
+
+    /** Waits until the source is exhausted and every message read has been written or failed. */
+    public Stats awaitCompletion() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Stats stats;
+        synchronized (this) {
+            boolean first = elapsedNanos == 0;
+            if (first) {
+                elapsedNanos = System.nanoTime() - startNanos;
+            }
+            stats = getStats();
+            if (first) {
+                Log.info(stats::toString);
+            }
+        }
+        if (failure != null) {
+            throw new RuntimeException("Ingest pipeline failed", failure);
+        }
+        return stats;
+    }
+
+    /** Stops reading from the source; messages already read are still written. */
+    public Stats stop() throws InterruptedException {
+        stopRequested = true;
+        return awaitCompletion();
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        try {
+            if (startNanos != 0) {
+                stop();
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    public Stats getStats() {
+        long elapsed = elapsedNanos != 0 ? elapsedNanos : (startNanos == 0 ? 0 : System.nanoTime() - startNanos);
+        return new Stats(messagesRead.get(), sourceBlockedNanos.get(), recordsDecoded.get(), decodeFailures.get(),
+            rowsEncoded.get(), flushes[0].get(), flushes[1].get(), flushes[2].get(), rowsWritten.get(), rowsFailed.get(),
+            messages.size() + records.size() + rows.size(), elapsed);
+    }
+
+    private void runSource() {
+        try {
+            while (!stopRequested && !source.isExhausted()) {
+                byte[] message = source.poll(SOURCE_POLL_MILLIS);
+                if (message == null) {
+                    continue;
+                }
+                messagesRead.incrementAndGet();
+                // Time spent here is backpressure: the decoders are not keeping up
+                if (!messages.offer(message)) {
+                    long blockedAt = System.nanoTime();
+                    messages.put(message);
+                    sourceBlockedNanos.addAndGet(System.nanoTime() - blockedAt);
+                }
+            }
+            for (int i = 0; i < workers; i++) {
+                messages.put(END_OF_MESSAGES);
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void runDecoder() {
+        try {
+            while (true) {
+                byte[] message = messages.take();
+                if (message == END_OF_MESSAGES) {
+                    break;
+                }
+                GenericRecord record;
+                try {
+                    record = decoder.decodeMessage(message, readerSchema);
+                } catch (RuntimeException e) {
+                    // One bad message must not stop the pipeline
+                    decodeFailures.incrementAndGet();
+                    Log.warn(() -> "Skipping message that could not be decoded: " + e.getMessage());
+                    continue;
+                }
+                recordsDecoded.incrementAndGet();
+                records.put(record);
+            }
+            if (decodersRunning.decrementAndGet() == 0) {
+                for (int i = 0; i < workers; i++) {
+                    records.put(END_OF_RECORDS);
+                }
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void runEncoder() {
+        try {
+            while (true) {
+                GenericRecord record = records.take();
+                if (record == END_OF_RECORDS) {
+                    break;
+                }
+                long start = System.nanoTime();
+                String insertId = insertIdPrefix + "-" + insertIdSequence.incrementAndGet();
+                InsertAllRequest.RowToInsert row = encoder.toRow(record, insertId);
+                long bytes = BatchingBigQueryWriter.estimateBytes(row.getContent()) + insertId.length();
+                rowsEncoded.incrementAndGet();
+                rows.put(new EncodedRow(record, row, bytes, System.nanoTime() - start));
+            }
+            if (encodersRunning.decrementAndGet() == 0) {
+                rows.put(END_OF_ROWS);
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void runBatcher() {
+        try {
+            int batchIndex = 0;
+            Batch batch = null;
+            long deadline = 0;
+            while (true) {
+                EncodedRow row = batch == null ? rows.take() : rows.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (row == null) {
+                    flush(batch, FlushReason.LINGER);
+                    batch = null;
+                    continue;
+                }
+                if (row == END_OF_ROWS) {
+                    if (batch != null) {
+                        flush(batch, FlushReason.DRAIN);
+                    }
+                    break;
+                }
+                if (batch != null && batch.bytes + row.bytes > BatchingBigQueryWriter.DEFAULT_MAX_BATCH_BYTES) {
+                    flush(batch, FlushReason.SIZE);
+                    batch = null;
+                }
+                if (batch == null) {
+                    batch = new Batch(batchIndex++);
+                    deadline = System.nanoTime() + lingerNanos;
+                }
+                batch.add(row);
+                if (batch.size() >= maxBatchRows) {
+                    flush(batch, FlushReason.SIZE);
+                    batch = null;
+                }
+            }
+            for (int i = 0; i < sinkWorkers; i++) {
+                batches.put(END_OF_BATCHES);
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void flush(Batch batch, FlushReason reason) throws InterruptedException {
+        batch.reason = reason;
+        flushes[reason.ordinal()].incrementAndGet();
+        // Rows are encoded one by one on the workers; their encode time is recorded per batch
+        Metrics.shared().record(Metrics.Phase.ROW_ENCODE, batch.encodeNanos, batch.size(), batch.bytes);
+        batches.put(batch);
+    }
+
+    private void runSink() {
+        try {
+            while (true) {
+                Batch batch = batches.take();
+                if (batch == END_OF_BATCHES) {
+                    break;
+                }
+                int failed = sink.write(batch);
+                rowsWritten.addAndGet(batch.size() - failed);
+                rowsFailed.addAndGet(failed);
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    // The other stages may be blocked on a queue this thread will no longer serve, so all of them are interrupted
+    private synchronized void fail(Throwable t) {
+        if (failure != null || t instanceof InterruptedException) {
+            return;
+        }
+        failure = t;
+        stopRequested = true;
+        Log.warn(() -> "Ingest pipeline failed in " + Thread.currentThread().getName() + ": " + t);
+        for (Thread thread : threads) {
+            if (thread != Thread.currentThread()) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    private static final class EncodedRow {
+        private final GenericRecord record;
+        private final InsertAllRequest.RowToInsert row;
+        private final long bytes;
+        private final long encodeNanos;
+
+        EncodedRow(GenericRecord record, InsertAllRequest.RowToInsert row, long bytes, long encodeNanos) {
+            this.record = record;
+            this.row = row;
+            this.bytes = bytes;
+            this.encodeNanos = encodeNanos;
+        }
+    }
+
+    /** Rows flushed together, with the records they were encoded from. */
+    public static final class Batch {
+        private final int index;
+        private final List<GenericRecord> records = new ArrayList<>();
+        private final List<InsertAllRequest.RowToInsert> rows = new ArrayList<>();
+        private long bytes;
+        private long encodeNanos;
+        private FlushReason reason;
+
+        Batch(int index) {
+            this.index = index;
+        }
+
+        void add(EncodedRow row) {
+            records.add(row.record);
+            rows.add(row.row);
+            bytes += row.bytes;
+            encodeNanos += row.encodeNanos;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public List<GenericRecord> getRecords() {
+            return records;
+        }
+
+        public List<InsertAllRequest.RowToInsert> getRows() {
+            return rows;
+        }
+
+        public long getEstimatedBytes() {
+            return bytes;
+        }
+
+        public FlushReason getReason() {
+            return reason;
+        }
+
+        public int size() {
+            return rows.size();
+        }
+    }
+
+    public static class Stats {
+        private final long messagesRead;
+        private final long sourceBlockedNanos;
+        private final long recordsDecoded;
+        private final long decodeFailures;
+        private final long rowsEncoded;
+        private final long sizeFlushes;
+        private final long lingerFlushes;
+        private final long drainFlushes;
+        private final long rowsWritten;
+        private final long rowsFailed;
+        private final int queued;
+        private final long elapsedNanos;
+
+        Stats(long messagesRead, long sourceBlockedNanos, long recordsDecoded, long decodeFailures, long rowsEncoded,
+              long sizeFlushes, long lingerFlushes, long drainFlushes, long rowsWritten, long rowsFailed, int queued,
+              long elapsedNanos) {
+            this.messagesRead = messagesRead;
+            this.sourceBlockedNanos = sourceBlockedNanos;
+            this.recordsDecoded = recordsDecoded;
+            this.decodeFailures = decodeFailures;
+            this.rowsEncoded = rowsEncoded;
+            this.sizeFlushes = sizeFlushes;
+            this.lingerFlushes = lingerFlushes;
+            this.drainFlushes = drainFlushes;
+            this.rowsWritten = rowsWritten;
+            this.rowsFailed = rowsFailed;
+            this.queued = queued;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getMessagesRead() {
+            return messagesRead;
+        }
+
+        /** Time the source spent waiting for room in the decode queue. */
+        public long getSourceBlockedNanos() {
+            return sourceBlockedNanos;
+        }
+
+        public long getRecordsDecoded() {
+            return recordsDecoded;
+        }
+
+        public long getDecodeFailures() {
+            return decodeFailures;
+        }
+
+        public long getRowsEncoded() {
+            return rowsEncoded;
+        }
+
+        public long getBatches() {
+            return sizeFlushes + lingerFlushes + drainFlushes;
+        }
+
+        public long getSizeFlushes() {
+            return sizeFlushes;
+        }
+
+        public long getLingerFlushes() {
+            return lingerFlushes;
+        }
+
+        public long getRowsWritten() {
+            return rowsWritten;
+        }
+
+        public long getRowsFailed() {
+            return rowsFailed;
+        }
+
+        /** Messages, records and rows waiting between stages. */
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rowsWritten * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Ingested %d of %d messages (%d undecodable, %d failed) in %d batch(es) "
+                    + "[%d size, %d linger, %d drain], %d queued, source blocked %.1f ms, %.1f ms, %.0f rows/s",
+                rowsWritten, messagesRead, decodeFailures, rowsFailed, getBatches(), sizeFlushes, lingerFlushes,
+                drainFlushes, queued, sourceBlockedNanos / 1e6, elapsedNanos / 1e6, getRowsPerSecond());
+        }
+    }
+}
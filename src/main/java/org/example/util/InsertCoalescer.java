@@ -0,0 +1,317 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.TableId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges the insertAll calls of concurrent callers into shared requests per table, so many small writers (parallel
+ * test scenarios, request handlers) cost a few full batches instead of one request each. Rows wait at most
+ * {@code lingerMillis} for others to join them; a caller's rows may be split across batches. Each caller gets back
+ * the errors for its own rows, indexed as in its own list. When a whole batch fails, every caller with rows in it
+ * gets the original exception, as if it had sent the request itself, and applies its own retry or spool policy;
+ * rows of that caller that went out in another batch are resent too, and deduplicated by their insertIds.
+ */
+public class InsertCoalescer implements AutoCloseable {
+    public static final long DEFAULT_LINGER_MILLIS = 10;
+
+    private final BigQueryUtil bigQueryUtil;
+    private final int maxBatchRows;
+    private final long maxBatchBytes;
+    private final long lingerNanos;
+    private final Semaphore inFlight;
+    private final ExecutorService executor;
+    private final Thread flusher;
+    private final Map<TableId, Pending> pending = new LinkedHashMap<>();
+
+    private final AtomicLong requestsSubmitted = new AtomicLong();
+    private final AtomicLong rowsSubmitted = new AtomicLong();
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong batchesFailed = new AtomicLong();
+    private boolean closed;
+
+    public InsertCoalescer(BigQueryUtil bigQueryUtil) {
+        this(bigQueryUtil, BatchingBigQueryWriter.DEFAULT_MAX_BATCH_ROWS, BatchingBigQueryWriter.DEFAULT_MAX_BATCH_BYTES,
+            DEFAULT_LINGER_MILLIS, BatchingBigQueryWriter.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public InsertCoalescer(BigQueryUtil bigQueryUtil, int maxBatchRows, long maxBatchBytes, long lingerMillis, int maxInFlight) {
+        if (maxBatchRows <= 0 || maxBatchBytes <= 0 || lingerMillis < 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("Batch limits and in-flight count must be positive");
+        }
+        this.bigQueryUtil = bigQueryUtil;
+        this.maxBatchRows = maxBatchRows;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.inFlight = new Semaphore(maxInFlight);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+            Thread thread = new Thread(runnable, "coalesced-insert-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher = new Thread(this::run, "insert-coalescer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /** Same contract as {@link BigQueryUtil#insertRows}, once the batches holding these rows have been sent. */
+    public Map<Long, List<BigQueryError>> insertRows(TableId table, List<InsertAllRequest.RowToInsert> rows) throws InterruptedException {
+        try {
+            return submit(table, rows).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException("Coalesced insert into " + table + " failed", e.getCause());
+        }
+    }
+
+    public CompletableFuture<Map<Long, List<BigQueryError>>> submit(TableId table, List<InsertAllRequest.RowToInsert> rows) {
+        Request request = new Request(rows);
+        if (rows.isEmpty()) {
+            request.result.complete(Collections.emptyMap());
+            return request.result;
+        }
+        requestsSubmitted.incrementAndGet();
+        rowsSubmitted.addAndGet(rows.size());
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Insert coalescer is closed");
+            }
+            pending.computeIfAbsent(table, key -> new Pending()).add(request);
+            notifyAll();
+        }
+        return request.result;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Batch batch;
+                synchronized (this) {
+                    batch = nextBatch();
+                    while (batch == null) {
+                        if (closed && pending.isEmpty()) {
+                            return;
+                        }
+                        long waitNanos = nextDeadline() - System.nanoTime();
+                        if (waitNanos > 0) {
+                            TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                        }
+                        batch = nextBatch();
+                    }
+                }
+                inFlight.acquire();
+                Batch toSend = batch;
+                executor.execute(() -> {
+                    try {
+                        send(toSend);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The oldest table whose rows fill a batch or have lingered long enough, taken off the pending map
+    private Batch nextBatch() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<TableId, Pending>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<TableId, Pending> entry = it.next();
+            Pending tablePending = entry.getValue();
+            if (closed || tablePending.rows >= maxBatchRows || tablePending.bytes >= maxBatchBytes
+                    || now - tablePending.oldestNanos() >= lingerNanos) {
+                Batch batch = tablePending.take(entry.getKey(), maxBatchRows, maxBatchBytes);
+                if (tablePending.requests.isEmpty()) {
+                    it.remove();
+                }
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private long nextDeadline() {
+        long deadline = Long.MAX_VALUE;
+        for (Pending tablePending : pending.values()) {
+            deadline = Math.min(deadline, tablePending.oldestNanos() + lingerNanos);
+        }
+        return deadline == Long.MAX_VALUE ? System.nanoTime() + TimeUnit.SECONDS.toNanos(1) : deadline;
+    }
+
+    private void send(Batch batch) {
+        Map<Long, List<BigQueryError>> insertErrors;
+        try {
+            insertErrors = bigQueryUtil.insertRows(batch.table, batch.rows);
+            batchesSent.incrementAndGet();
+        } catch (RuntimeException | Error e) {
+            // Callers are blocked on these rows and decide themselves whether the failure is worth retrying
+            batchesFailed.incrementAndGet();
+            for (Part part : batch.parts) {
+                part.request.result.completeExceptionally(e);
+            }
+            return;
+        }
+        for (Part part : batch.parts) {
+            Map<Long, List<BigQueryError>> partErrors = new HashMap<>();
+            for (int i = 0; i < part.length; i++) {
+                List<BigQueryError> errors = insertErrors.get((long) (part.batchOffset + i));
+                if (errors != null) {
+                    partErrors.put((long) (part.requestOffset + i), errors);
+                }
+            }
+            part.request.complete(part.length, partErrors);
+        }
+    }
+
+    public long getRequestsSubmitted() {
+        return requestsSubmitted.get();
+    }
+
+    public long getBatchesSent() {
+        return batchesSent.get();
+    }
+
+    /** Sends whatever is still pending without waiting for it to linger, then stops the flusher. */
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        flusher.join();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.MINUTES);
+        Log.info(this::toString);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Coalesced %d insert request(s) of %d row(s) into %d insertAll request(s), %d failed",
+            requestsSubmitted.get(), rowsSubmitted.get(), batchesSent.get() + batchesFailed.get(), batchesFailed.get());
+    }
+
+    private static class Request {
+        private final List<InsertAllRequest.RowToInsert> rows;
+        private final long[] rowBytes;
+        private final long enqueuedNanos = System.nanoTime();
+        private final CompletableFuture<Map<Long, List<BigQueryError>>> result = new CompletableFuture<>();
+        private final Map<Long, List<BigQueryError>> errors = new HashMap<>();
+        private int remaining;
+        private int next;
+
+        Request(List<InsertAllRequest.RowToInsert> rows) {
+            this.rows = rows;
+            this.rowBytes = new long[rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                rowBytes[i] = BatchingBigQueryWriter.estimateBytes(rows.get(i).getContent());
+            }
+            this.remaining = rows.size();
+        }
+
+        synchronized void complete(int rowCount, Map<Long, List<BigQueryError>> partErrors) {
+            errors.putAll(partErrors);
+            remaining -= rowCount;
+            if (remaining == 0) {
+                result.complete(errors);
+            }
+        }
+    }
+
+    // Rows of one table waiting to be sent, in arrival order
+    private static class Pending {
+        private final Deque<Request> requests = new ArrayDeque<>();
+        private int rows;
+        private long bytes;
+
+        void add(Request request) {
+            requests.add(request);
+            rows += request.rows.size();
+            for (long rowBytes : request.rowBytes) {
+                bytes += rowBytes;
+            }
+        }
+
+        long oldestNanos() {
+            return requests.peekFirst().enqueuedNanos;
+        }
+
+        Batch take(TableId table, int maxRows, long maxBytes) {
+            Batch batch = new Batch(table);
+            long batchBytes = 0;
+            while (!requests.isEmpty() && batch.rows.size() < maxRows) {
+                Request request = requests.peekFirst();
+                int start = request.next;
+                int end = start;
+                // At least one row per batch, however large
+                while (end < request.rows.size() && batch.rows.size() + end - start < maxRows
+                        && (batch.rows.isEmpty() && end == start || batchBytes + request.rowBytes[end] <= maxBytes)) {
+                    batchBytes += request.rowBytes[end];
+                    bytes -= request.rowBytes[end];
+                    end++;
+                }
+                if (end == start) {
+                    break;
+                }
+                batch.parts.add(new Part(request, start, batch.rows.size(), end - start));
+                batch.rows.addAll(request.rows.subList(start, end));
+                rows -= end - start;
+                request.next = end;
+                if (end == request.rows.size()) {
+                    requests.pollFirst();
+                }
+            }
+            return batch;
+        }
+    }
+
+    private static class Batch {
+        private final TableId table;
+        private final List<InsertAllRequest.RowToInsert> rows = new ArrayList<>();
+        private final List<Part> parts = new ArrayList<>();
+
+        Batch(TableId table) {
+            this.table = table;
+        }
+    }
+
+    // A run of one request's rows inside a batch
+    private static class Part {
+        private final Request request;
+        private final int requestOffset;
+        private final int batchOffset;
+        private final int length;
+
+        Part(Request request, int requestOffset, int batchOffset, int length) {
+            this.request = request;
+            this.requestOffset = requestOffset;
+            this.batchOffset = batchOffset;
+            this.length = length;
+        }
+    }
+}
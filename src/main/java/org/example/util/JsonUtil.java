@@ -1,80 +1,325 @@
 package org.example.util;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class JsonUtil {
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    public static final int DEFAULT_MAX_MISMATCHES = 100;
+    /** Floating point allowance for numbers compared by value, in JSON and in projected rows alike. */
+    public static final double NUMERIC_TOLERANCE = 0.001;
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<Map<String, Object>>() { };
+    
+    /** True if two numbers differ by less than {@link #NUMERIC_TOLERANCE}, so Long vs Double and FLOAT64 rounding do not matter. */
+    public static boolean numbersMatch(double expected, double actual) {
+        return Math.abs(expected - actual) < NUMERIC_TOLERANCE;
+    }
     
     public static JsonNode parseJson(String jsonString) throws IOException {
         return objectMapper.readTree(jsonString);
     }
     
+    public static Map<String, Object> parseJsonToMap(String jsonString) throws IOException {
+        return objectMapper.readValue(jsonString, MAP_TYPE);
+    }
+    
     public static String toJson(Object object) throws IOException {
         return objectMapper.writeValueAsString(object);
     }
     
+    /**
+     * Type-aware comparison of two JSON values: numbers within 0.001, objects on the expected object's fields,
+     * arrays element by element. Stops at the first difference.
+     */
     public static boolean compareJsonValues(JsonNode expected, JsonNode actual, String fieldPath) {
-        System.out.println("DEBUG: Comparing field: " + fieldPath);
-        System.out.println("  Expected type: " + (expected != null ? expected.getNodeType() : "null") + ", value: " + expected);
-        System.out.println("  Actual type: " + (actual != null ? actual.getNodeType() : "null") + ", value: " + actual);
-        
-        if (expected == null && actual == null) {
-            System.out.println("  -> Both null, match: true");
-            return true;
-        }
         if (expected == null || actual == null) {
-            System.out.println("  -> Null mismatch, match: false");
-            return false;
-        }
-        
-        if (expected.isObject() && actual.isObject()) {
-            System.out.println("  -> Object comparison");
-            return compareJsonObjects(expected, actual, fieldPath);
-        } else if (expected.isArray() && actual.isArray()) {
-            System.out.println("  -> Array comparison");
-            return compareJsonArrays(expected, actual, fieldPath);
-        } else if (expected.isNumber() && actual.isNumber()) {
-            System.out.println("  -> Numeric comparison");
-            // Handle numeric comparisons (Double vs Integer)
-            double expectedValue = expected.asDouble();
-            double actualValue = actual.asDouble();
-            boolean match = Math.abs(expectedValue - actualValue) < 0.001; // Allow small floating point differences
-            System.out.println("  -> Expected: " + expectedValue + ", Actual: " + actualValue + ", match: " + match);
-            return match;
-        } else {
-            System.out.println("  -> Direct value comparison");
-            boolean match = expected.equals(actual);
-            System.out.println("  -> Expected: " + expected + ", Actual: " + actual + ", match: " + match);
-            return match;
+            return expected == actual;
+        }
+        try (JsonParser expectedParser = expected.traverse(objectMapper); JsonParser actualParser = actual.traverse(objectMapper)) {
+            return compareJson(expectedParser, actualParser, fieldPath, 1).isMatch();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to compare JSON at " + fieldPath, e);
+        }
+    }
+    
+    public static JsonComparison compareJson(String expectedJson, String actualJson) throws IOException {
+        return compareJson(expectedJson, actualJson, DEFAULT_MAX_MISMATCHES);
+    }
+    
+    public static JsonComparison compareJson(String expectedJson, String actualJson, int maxMismatches) throws IOException {
+        // Only one open parser per thread can use Jackson's recycled token buffer; a String-backed second parser would
+        // allocate a fresh 8 KB buffer per call, so the actual side parses its own characters in place instead
+        try (JsonParser expected = objectMapper.createParser(expectedJson);
+             JsonParser actual = objectMapper.createParser(actualJson.toCharArray())) {
+            return compareJson(expected, actual, "", maxMismatches);
+        }
+    }
+    
+    /**
+     * Walks two token streams in lockstep without building either tree, so memory stays flat for wide rows.
+     * Only the fields of the expected object are checked; actual fields that arrive in a different order are
+     * buffered individually until the expected side asks for them. Comparison stops at the first difference found
+     * after {@code maxMismatches} have been collected.
+     */
+    public static JsonComparison compareJson(JsonParser expected, JsonParser actual, String rootPath, int maxMismatches) throws IOException {
+        if (maxMismatches <= 0) {
+            throw new IllegalArgumentException("maxMismatches must be positive");
+        }
+        JsonComparison comparison = new JsonComparison(rootPath, maxMismatches);
+        JsonToken expectedToken = expected.nextToken();
+        JsonToken actualToken = actual.nextToken();
+        if (expectedToken == null || actualToken == null) {
+            if (expectedToken != actualToken) {
+                comparison.add(expectedToken == null ? null : expected.readValueAsTree(),
+                    actualToken == null ? null : actual.readValueAsTree());
+            }
+            return comparison;
+        }
+        compareValue(expected, actual, comparison);
+        return comparison;
+    }
+    
+    // Both parsers start on the first token of a value and end on its last token
+    private static void compareValue(JsonParser expected, JsonParser actual, JsonComparison comparison) throws IOException {
+        JsonToken expectedToken = expected.currentToken();
+        JsonToken actualToken = actual.currentToken();
+        if (expectedToken == JsonToken.START_OBJECT && actualToken == JsonToken.START_OBJECT) {
+            compareObjects(expected, actual, comparison);
+        } else if (expectedToken == JsonToken.START_ARRAY && actualToken == JsonToken.START_ARRAY) {
+            compareArrays(expected, actual, comparison);
+        } else if (expectedToken.isNumeric() && actualToken.isNumeric()) {
+            // Handle numeric comparisons (Double vs Integer) with a small floating point allowance
+            if (!numbersMatch(expected.getDoubleValue(), actual.getDoubleValue())) {
+                comparison.add(expected.readValueAsTree(), actual.readValueAsTree());
+            }
+        } else if (expectedToken != actualToken
+                || (expectedToken == JsonToken.VALUE_STRING && !sameText(expected, actual))) {
+            comparison.add(expected.readValueAsTree(), actual.readValueAsTree());
+        }
+    }
+    
+    // Compares the parsers' character buffers directly instead of materializing both strings
+    private static boolean sameText(JsonParser expected, JsonParser actual) throws IOException {
+        char[] expectedChars = expected.getTextCharacters();
+        int expectedOffset = expected.getTextOffset();
+        int expectedLength = expected.getTextLength();
+        char[] actualChars = actual.getTextCharacters();
+        int actualOffset = actual.getTextOffset();
+        int actualLength = actual.getTextLength();
+        return Arrays.equals(expectedChars, expectedOffset, expectedOffset + expectedLength,
+            actualChars, actualOffset, actualOffset + actualLength);
+    }
+    
+    private static void compareObjects(JsonParser expected, JsonParser actual, JsonComparison comparison) throws IOException {
+        Map<String, TokenBuffer> reordered = null;
+        boolean actualEnded = false;
+        while (expected.nextToken() == JsonToken.FIELD_NAME) {
+            String name = expected.getCurrentName();
+            expected.nextToken();
+            comparison.pushField(name);
+            TokenBuffer buffered = reordered == null ? null : reordered.remove(name);
+            if (buffered != null) {
+                try (JsonParser replay = buffered.asParser(objectMapper)) {
+                    replay.nextToken();
+                    compareValue(expected, replay, comparison);
+                }
+            } else {
+                boolean found = false;
+                while (!actualEnded && actual.nextToken() == JsonToken.FIELD_NAME) {
+                    String actualName = actual.getCurrentName();
+                    actual.nextToken();
+                    if (actualName.equals(name)) {
+                        compareValue(expected, actual, comparison);
+                        found = true;
+                        break;
+                    }
+                    if (reordered == null) {
+                        reordered = new HashMap<>();
+                    }
+                    TokenBuffer buffer = new TokenBuffer(actual);
+                    buffer.copyCurrentStructure(actual);
+                    reordered.put(actualName, buffer);
+                }
+                if (!found) {
+                    actualEnded = true;
+                    comparison.add(expected.readValueAsTree(), null);
+                }
+            }
+            comparison.pop();
+            if (comparison.isTruncated()) {
+                return;
+            }
+        }
+        // Fields only present in the actual object are not compared, just consumed
+        while (!actualEnded && actual.nextToken() == JsonToken.FIELD_NAME) {
+            actual.nextToken();
+            actual.skipChildren();
+        }
+    }
+    
+    private static void compareArrays(JsonParser expected, JsonParser actual, JsonComparison comparison) throws IOException {
+        int index = 0;
+        while (true) {
+            JsonToken expectedToken = expected.nextToken();
+            JsonToken actualToken = actual.nextToken();
+            if (expectedToken == JsonToken.END_ARRAY || actualToken == JsonToken.END_ARRAY) {
+                if (expectedToken != actualToken) {
+                    int expectedSize = expectedToken == JsonToken.END_ARRAY ? index : index + 1 + skipRemaining(expected);
+                    int actualSize = actualToken == JsonToken.END_ARRAY ? index : index + 1 + skipRemaining(actual);
+                    comparison.pushField("size");
+                    comparison.add(IntNode.valueOf(expectedSize), IntNode.valueOf(actualSize));
+                    comparison.pop();
+                }
+                return;
+            }
+            comparison.pushIndex(index);
+            compareValue(expected, actual, comparison);
+            comparison.pop();
+            if (comparison.isTruncated()) {
+                return;
+            }
+            index++;
+        }
+    }
+    
+    // Called on the first token of an element that has no counterpart; consumes it and the rest of the array
+    private static int skipRemaining(JsonParser parser) throws IOException {
+        parser.skipChildren();
+        int count = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            parser.skipChildren();
+            count++;
         }
+        return count;
     }
     
-    private static boolean compareJsonObjects(JsonNode expected, JsonNode actual, String fieldPath) {
-        expected.fieldNames().forEachRemaining(fieldName -> {
-            String currentPath = fieldPath.isEmpty() ? fieldName : fieldPath + "." + fieldName;
-            JsonNode expectedValue = expected.get(fieldName);
-            JsonNode actualValue = actual.get(fieldName);
-            compareJsonValues(expectedValue, actualValue, currentPath);
-        });
-        return true;
+    /** One difference between two JSON documents; a {@code null} side means the value was missing. */
+    public static class JsonDiff {
+        private final String path;
+        private final JsonNode expected;
+        private final JsonNode actual;
+        
+        JsonDiff(String path, JsonNode expected, JsonNode actual) {
+            this.path = path;
+            this.expected = expected;
+            this.actual = actual;
+        }
+        
+        public String getPath() {
+            return path;
+        }
+        
+        public JsonNode getExpected() {
+            return expected;
+        }
+        
+        public JsonNode getActual() {
+            return actual;
+        }
+        
+        @Override
+        public String toString() {
+            return (path.isEmpty() ? "$" : path) + ": expected " + (expected == null ? "<missing>" : expected)
+                + " but was " + (actual == null ? "<missing>" : actual);
+        }
     }
     
-    private static boolean compareJsonArrays(JsonNode expected, JsonNode actual, String fieldPath) {
-        if (expected.size() != actual.size()) {
-            System.out.println("DEBUG: Array size mismatch at " + fieldPath + " - expected: " + expected.size() + ", actual: " + actual.size());
-            return false;
+    public static class JsonComparison {
+        private final String rootPath;
+        private final int maxMismatches;
+        private final List<JsonDiff> diffs = new ArrayList<>();
+        private boolean truncated;
+        // Current position as field names / array indexes; only rendered into a string when a diff is recorded
+        private String[] fields = new String[8];
+        private int[] indexes = new int[8];
+        private int depth;
+        
+        JsonComparison(String rootPath, int maxMismatches) {
+            this.rootPath = rootPath;
+            this.maxMismatches = maxMismatches;
         }
         
-        for (int i = 0; i < expected.size(); i++) {
-            String currentPath = fieldPath + "[" + i + "]";
-            if (!compareJsonValues(expected.get(i), actual.get(i), currentPath)) {
-                return false;
+        void pushField(String name) {
+            push(name, -1);
+        }
+        
+        void pushIndex(int index) {
+            push(null, index);
+        }
+        
+        private void push(String field, int index) {
+            if (depth == fields.length) {
+                fields = Arrays.copyOf(fields, depth * 2);
+                indexes = Arrays.copyOf(indexes, depth * 2);
+            }
+            fields[depth] = field;
+            indexes[depth] = index;
+            depth++;
+        }
+        
+        void pop() {
+            depth--;
+        }
+        
+        void add(JsonNode expected, JsonNode actual) {
+            if (diffs.size() < maxMismatches) {
+                diffs.add(new JsonDiff(currentPath(), expected, actual));
+            } else {
+                truncated = true;
+            }
+        }
+        
+        private String currentPath() {
+            StringBuilder path = new StringBuilder(rootPath);
+            for (int i = 0; i < depth; i++) {
+                if (fields[i] == null) {
+                    path.append('[').append(indexes[i]).append(']');
+                } else {
+                    if (path.length() > 0) {
+                        path.append('.');
+                    }
+                    path.append(fields[i]);
+                }
+            }
+            return path.toString();
+        }
+        
+        public boolean isMatch() {
+            return diffs.isEmpty();
+        }
+        
+        /** True if more differences were found after the mismatch limit was reached; only the first are reported. */
+        public boolean isTruncated() {
+            return truncated;
+        }
+        
+        public List<JsonDiff> getDiffs() {
+            return Collections.unmodifiableList(diffs);
+        }
+        
+        @Override
+        public String toString() {
+            if (diffs.isEmpty()) {
+                return "match";
+            }
+            StringBuilder summary = new StringBuilder().append(diffs.size()).append(isTruncated() ? "+" : "").append(" difference(s)");
+            for (JsonDiff diff : diffs) {
+                summary.append("\n  ").append(diff);
             }
+            return summary.toString();
         }
-        return true;
     }
-}
\ No newline at end of file
+}
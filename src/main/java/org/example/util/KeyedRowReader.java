@@ -0,0 +1,164 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.TableId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily reads the rows for an arbitrary key set, in key order, either as JSON strings ({@link #json}) or as typed
+ * projected rows ({@link #projected}). Keys are split into bounded chunks, each looked up with one parameterized
+ * query, and a background thread fetches result pages into a small bounded queue, so the next page is already on its
+ * way while the caller processes the current one and memory stays at {@code prefetchPages * pageSize} rows no matter
+ * how large the result is.
+ */
+public class KeyedRowReader<T> implements Iterator<T>, AutoCloseable {
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    public static final int DEFAULT_PREFETCH_PAGES = 2;
+
+    // How often a fetcher blocked on a full queue checks whether the reader was closed
+    private static final long HANDOFF_POLL_MILLIS = 100;
+
+    // Identity-compared end marker; must not be a shared instance such as Collections.emptyList()
+    private static final List<Object> END = new ArrayList<>(0);
+
+    /** One bounded lookup: the rows for {@code keys}, delivered page by page in key order. */
+    @FunctionalInterface
+    public interface ChunkQuery<T> {
+        void query(List<String> keys, int pageSize, BigQueryClient.PageHandler<T> handler) throws InterruptedException;
+    }
+
+    private final BlockingQueue<List<?>> pages;
+    private final Thread fetcher;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private Iterator<T> current = Collections.emptyIterator();
+    private boolean finished;
+
+    public static KeyedRowReader<String> json(BigQueryClient client, TableId table, String keyColumn, Collection<String> keys) {
+        return new KeyedRowReader<>(keys, DEFAULT_CHUNK_SIZE, DEFAULT_PAGE_SIZE, DEFAULT_PREFETCH_PAGES, table.getTable(),
+            (chunk, pageSize, handler) -> client.queryRowsAsJson(table, keyColumn, chunk, pageSize, handler));
+    }
+
+    public static KeyedRowReader<Map<String, Object>> projected(BigQueryClient client, TableId table, ColumnProjection projection,
+                                                                String keyColumn, Collection<String> keys) {
+        return new KeyedRowReader<>(keys, DEFAULT_CHUNK_SIZE, DEFAULT_PAGE_SIZE, DEFAULT_PREFETCH_PAGES, table.getTable(),
+            (chunk, pageSize, handler) -> client.queryProjectedRows(table, projection, keyColumn, chunk, pageSize, handler));
+    }
+
+    public KeyedRowReader(Collection<String> keys, int chunkSize, int pageSize, int prefetchPages, String name, ChunkQuery<T> chunkQuery) {
+        // Sorted, de-duplicated keys make the concatenated per-chunk results globally ordered by key
+        List<String> sortedKeys = new ArrayList<>(new TreeSet<>(keys));
+        this.pages = new ArrayBlockingQueue<>(prefetchPages + 1);
+        this.fetcher = new Thread(() -> {
+            try {
+                for (int from = 0; from < sortedKeys.size() && !closed; from += chunkSize) {
+                    List<String> chunk = sortedKeys.subList(from, Math.min(sortedKeys.size(), from + chunkSize));
+                    long start = System.nanoTime();
+                    // Nanos blocked handing pages to the reader, rows and bytes for this chunk
+                    long[] totals = new long[3];
+                    chunkQuery.query(chunk, pageSize, page -> {
+                        if (!page.isEmpty()) {
+                            totals[1] += page.size();
+                            for (Object row : page) {
+                                totals[2] += BatchingBigQueryWriter.estimateBytes(row);
+                            }
+                            // Time blocked on a slow reader is not query latency
+                            long putStart = System.nanoTime();
+                            handOver(page);
+                            totals[0] += System.nanoTime() - putStart;
+                        }
+                    });
+                    Metrics.shared().record(Metrics.Phase.QUERY, System.nanoTime() - start - totals[0], totals[1], totals[2]);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable t) {
+                failure = t;
+                Metrics.shared().recordErrors(Metrics.Phase.QUERY, 1);
+            }
+            try {
+                handOver(END);
+            } catch (InterruptedException ignored) {
+                // Reader was closed; nobody is waiting for the end marker
+            }
+        }, "keyed-row-reader-" + name);
+        this.fetcher.setDaemon(true);
+        this.fetcher.start();
+    }
+
+    /**
+     * Queues a page for the reader. Throwing once the reader is closed ends the query even when the client swallowed
+     * the interrupt, instead of blocking forever on a queue nobody drains.
+     */
+    private void handOver(List<?> page) throws InterruptedException {
+        while (!closed) {
+            if (pages.offer(page, HANDOFF_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+        throw new InterruptedException("Reader closed");
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (finished) {
+                return false;
+            }
+            List<?> page;
+            try {
+                page = pages.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for BigQuery results", e);
+            }
+            if (page == END) {
+                finished = true;
+                if (failure != null) {
+                    throw new RuntimeException("Failed to read rows from BigQuery", failure);
+                }
+                return false;
+            }
+            @SuppressWarnings("unchecked")
+            Iterator<T> rows = (Iterator<T>) page.iterator();
+            current = rows;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        finished = true;
+        fetcher.interrupt();
+        pages.clear();
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.util;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Level-gated console logging in the {@code LEVEL: message} format the project has always printed. The threshold
+ * comes from {@code -Dlog.level} (default INFO), so per-row DEBUG output costs one comparison when it is off;
+ * messages built by concatenation should be passed as a {@link Supplier} so they are not built either.
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, OFF }
+
+    private static volatile Level threshold = parseLevel(System.getProperty("log.level"));
+
+    private Log() {
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    public static Level getLevel() {
+        return threshold;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level != Level.OFF && level.compareTo(threshold) >= 0;
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void debug(Supplier<String> message) {
+        if (isEnabled(Level.DEBUG)) {
+            write(Level.DEBUG, message.get());
+        }
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void info(Supplier<String> message) {
+        if (isEnabled(Level.INFO)) {
+            write(Level.INFO, message.get());
+        }
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void warn(Supplier<String> message) {
+        if (isEnabled(Level.WARN)) {
+            write(Level.WARN, message.get());
+        }
+    }
+
+    private static void log(Level level, String message) {
+        if (isEnabled(level)) {
+            write(level, message);
+        }
+    }
+
+    private static void write(Level level, String message) {
+        System.out.println(level + ": " + message);
+    }
+
+    private static Level parseLevel(String value) {
+        if (value == null || value.isEmpty()) {
+            return Level.INFO;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("WARN: Unknown log.level '" + value + "', using INFO");
+            return Level.INFO;
+        }
+    }
+}
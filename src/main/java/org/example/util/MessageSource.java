@@ -0,0 +1,19 @@
+package org.example.util;
+
+import java.io.IOException;
+
+/**
+ * Where an {@link IngestPipeline} reads its messages from: Avro single-object encoded records, one per message, as a
+ * Kafka topic would carry them. Sources are polled by one thread only.
+ */
+public interface MessageSource extends AutoCloseable {
+
+    /** The next message, or null if none arrived within {@code timeoutMillis}. */
+    byte[] poll(long timeoutMillis) throws IOException, InterruptedException;
+
+    /** True once the source will never return another message; a tailing source is never exhausted. */
+    boolean isExhausted();
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,196 @@
+package org.example.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and row/byte counters for each phase of a run, from loading the schema to validating what came
+ * back. A phase is recorded once per call (a batch of records, one insertAll request, one query chunk), with the
+ * rows and bytes it handled; latencies go into an HdrHistogram at three significant digits, so percentiles stay
+ * accurate from microseconds to minutes at a fixed memory cost. Throughput is per second spent in the phase.
+ */
+public class Metrics {
+    private static final Metrics SHARED = new Metrics();
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_KEYS = {"p50", "p90", "p99", "p999"};
+
+    public enum Phase {
+        SCHEMA_LOAD, RECORD_BUILD, ROW_ENCODE, INSERT_ALL, VISIBILITY_WAIT, QUERY, VALIDATION, RECONCILE;
+
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Map<Phase, PhaseStats> phases = new EnumMap<>(Phase.class);
+    private volatile long startNanos = System.nanoTime();
+
+    public Metrics() {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new PhaseStats());
+        }
+    }
+
+    /** Process-wide metrics that the utilities record into. */
+    public static Metrics shared() {
+        return SHARED;
+    }
+
+    public void record(Phase phase, long nanos, long rows, long bytes) {
+        phases.get(phase).record(nanos, rows, bytes);
+    }
+
+    /** Counts failed calls or, where a call fails row by row, failed rows. */
+    public void recordErrors(Phase phase, long errors) {
+        phases.get(phase).errors.add(errors);
+    }
+
+    public PhaseStats get(Phase phase) {
+        return phases.get(phase);
+    }
+
+    public void reset() {
+        for (PhaseStats stats : phases.values()) {
+            stats.reset();
+        }
+        startNanos = System.nanoTime();
+    }
+
+    /** Phases that were recorded at least once, as nested maps ready for JSON. */
+    public Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("elapsedMillis", (System.nanoTime() - startNanos) / 1_000_000);
+        Map<String, Object> phaseSummaries = new LinkedHashMap<>();
+        for (Map.Entry<Phase, PhaseStats> entry : phases.entrySet()) {
+            if (entry.getValue().getCalls() > 0) {
+                phaseSummaries.put(entry.getKey().key(), entry.getValue().summary());
+            }
+        }
+        summary.put("phases", phaseSummaries);
+        return summary;
+    }
+
+    public void writeJson(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), summary());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("Phase metrics:");
+        for (Map.Entry<Phase, PhaseStats> entry : phases.entrySet()) {
+            if (entry.getValue().getCalls() > 0) {
+                text.append(String.format("%n  %-15s %s", entry.getKey().key(), entry.getValue()));
+            }
+        }
+        return text.toString();
+    }
+
+    public static class PhaseStats {
+        private final Histogram latency = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        void record(long nanos, long rowCount, long byteCount) {
+            latency.recordValue(Math.max(0, nanos));
+            totalNanos.add(nanos);
+            rows.add(rowCount);
+            bytes.add(byteCount);
+        }
+
+        void reset() {
+            latency.reset();
+            totalNanos.reset();
+            rows.reset();
+            bytes.reset();
+            errors.reset();
+        }
+
+        public long getCalls() {
+            return latency.getTotalCount();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public double getPercentileMillis(double percentile) {
+            return latency.getValueAtPercentile(percentile) / 1e6;
+        }
+
+        public double getMeanMillis() {
+            return latency.getMean() / 1e6;
+        }
+
+        public double getMaxMillis() {
+            return latency.getMaxValue() / 1e6;
+        }
+
+        public double getRowsPerSecond() {
+            long nanos = getTotalNanos();
+            return nanos == 0 ? 0 : getRows() * 1e9 / nanos;
+        }
+
+        public double getBytesPerSecond() {
+            long nanos = getTotalNanos();
+            return nanos == 0 ? 0 : getBytes() * 1e9 / nanos;
+        }
+
+        Map<String, Object> summary() {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("calls", getCalls());
+            summary.put("errors", getErrors());
+            summary.put("rows", getRows());
+            summary.put("bytes", getBytes());
+            summary.put("totalMillis", round(getTotalNanos() / 1e6));
+            summary.put("rowsPerSecond", round(getRowsPerSecond()));
+            summary.put("bytesPerSecond", round(getBytesPerSecond()));
+            Map<String, Object> latencyMillis = new LinkedHashMap<>();
+            latencyMillis.put("mean", round(getMeanMillis()));
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                latencyMillis.put(PERCENTILE_KEYS[i], round(getPercentileMillis(PERCENTILES[i])));
+            }
+            latencyMillis.put("max", round(getMaxMillis()));
+            summary.put("latencyMillis", latencyMillis);
+            return summary;
+        }
+
+        private static double round(double value) {
+            return Math.round(value * 1000) / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d call(s), %d error(s), %d rows, %d bytes, p50 %.3f ms, p99 %.3f ms, max %.3f ms, %.0f rows/s, %.0f bytes/s",
+                getCalls(), getErrors(), getRows(), getBytes(), getPercentileMillis(50), getPercentileMillis(99),
+                getMaxMillis(), getRowsPerSecond(), getBytesPerSecond());
+        }
+    }
+}
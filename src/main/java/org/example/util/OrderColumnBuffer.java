@@ -0,0 +1,697 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.InsertAllRequest;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.util.Utf8;
+import org.example.model.Address;
+import org.example.model.Customer;
+import org.example.model.Item;
+import org.example.model.Order;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stages a batch of orders.avro orders off-heap in columnar form, so a large batch costs a few direct buffers instead
+ * of an object graph per order. Amounts, quantities and flags are fixed-width columns; low-cardinality strings
+ * (status, payment method, loyalty tier, category, state, country) are dictionary codes; other strings are UTF-8
+ * bytes with end offsets; each order's items are a range given by an item offset column. {@link #toRow} and
+ * {@link #writeAvro} read the columns directly, for streaming inserts and for Avro load files respectively.
+ * Buffers grow by doubling and are kept by {@link #clear()}, so one buffer can stage batch after batch. Not
+ * thread-safe.
+ */
+public class OrderColumnBuffer {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final Schema SCHEMA = Order.getClassSchema();
+    // Canonical forms, so the generated schema (which carries Java string properties) matches the parsed one
+    private static final long FINGERPRINT = SchemaRegistry.fingerprint(SCHEMA);
+    private static final long COLUMN_FINGERPRINT = SchemaRegistry.fingerprint(BigQueryRowEncoder.toColumnSchema(SCHEMA));
+    // Order fields in schema order; records of orders.avro and the generated classes share these positions
+    private static final int ORDER_ID = position(SCHEMA, "orderId");
+    private static final int CUSTOMER = position(SCHEMA, "customer");
+    private static final int ITEMS = position(SCHEMA, "items");
+    private static final int ORDER_DATE = position(SCHEMA, "orderDate");
+    private static final int SHIPPING_ADDRESS = position(SCHEMA, "shippingAddress");
+    private static final int PAYMENT_METHOD = position(SCHEMA, "paymentMethod");
+    private static final int STATUS = position(SCHEMA, "status");
+    private static final int METADATA = position(SCHEMA, "metadata");
+    private static final int TOTAL_AMOUNT = position(SCHEMA, "totalAmount");
+    private static final int TAX_AMOUNT = position(SCHEMA, "taxAmount");
+    private static final int DISCOUNT_APPLIED = position(SCHEMA, "discountApplied");
+    private static final Schema CUSTOMER_SCHEMA = Customer.getClassSchema();
+    private static final int CUSTOMER_ID = position(CUSTOMER_SCHEMA, "customerId");
+    private static final int CUSTOMER_NAME = position(CUSTOMER_SCHEMA, "name");
+    private static final int EMAIL = position(CUSTOMER_SCHEMA, "email");
+    private static final int PHONE = position(CUSTOMER_SCHEMA, "phone");
+    private static final int LOYALTY_TIER = position(CUSTOMER_SCHEMA, "loyaltyTier");
+    private static final Schema ITEM_SCHEMA = Item.getClassSchema();
+    private static final int PRODUCT_ID = position(ITEM_SCHEMA, "productId");
+    private static final int PRODUCT_NAME = position(ITEM_SCHEMA, "productName");
+    private static final int QUANTITY = position(ITEM_SCHEMA, "quantity");
+    private static final int UNIT_PRICE = position(ITEM_SCHEMA, "unitPrice");
+    private static final int CATEGORY = position(ITEM_SCHEMA, "category");
+    private static final Schema ADDRESS_SCHEMA = Address.getClassSchema();
+    private static final int STREET = position(ADDRESS_SCHEMA, "street");
+    private static final int CITY = position(ADDRESS_SCHEMA, "city");
+    private static final int STATE = position(ADDRESS_SCHEMA, "state");
+    private static final int ZIP_CODE = position(ADDRESS_SCHEMA, "zipCode");
+    private static final int COUNTRY = position(ADDRESS_SCHEMA, "country");
+
+    private final StringColumn orderId;
+    private final StringColumn customerId;
+    private final StringColumn customerName;
+    private final StringColumn email;
+    private final StringColumn phone;
+    private final DictionaryColumn loyaltyTier;
+    private final StringColumn orderDate;
+    private final StringColumn street;
+    private final StringColumn city;
+    private final DictionaryColumn state;
+    private final StringColumn zipCode;
+    private final DictionaryColumn country;
+    private final DictionaryColumn paymentMethod;
+    private final DictionaryColumn status;
+    private final StringColumn metadata;
+    private final FixedColumn totalAmount;
+    private final FixedColumn taxAmount;
+    private final FixedColumn discountApplied;
+    // itemEnds[row] is one past the row's last item; the row's first item is itemEnds[row - 1], or 0
+    private final FixedColumn itemEnds;
+
+    private final StringColumn productId;
+    private final StringColumn productName;
+    private final FixedColumn quantity;
+    private final FixedColumn unitPrice;
+    private final DictionaryColumn category;
+
+    private final List<Column> columns = new ArrayList<>();
+    private final List<Column> itemColumns = new ArrayList<>();
+    private final Utf8 utf8 = new Utf8();
+    private byte[] scratch = new byte[256];
+    private Schema checkedSchema;
+    private int rows;
+    private int items;
+
+    public OrderColumnBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** {@code capacity} is the number of orders the columns are first sized for; they grow as needed. */
+    public OrderColumnBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        orderId = add(new StringColumn(capacity, 24));
+        customerId = add(new StringColumn(capacity, 12));
+        customerName = add(new StringColumn(capacity, 16));
+        email = add(new StringColumn(capacity, 24));
+        phone = add(new StringColumn(capacity, 12));
+        loyaltyTier = add(new DictionaryColumn(capacity));
+        orderDate = add(new StringColumn(capacity, 10));
+        street = add(new StringColumn(capacity, 16));
+        city = add(new StringColumn(capacity, 12));
+        state = add(new DictionaryColumn(capacity));
+        zipCode = add(new StringColumn(capacity, 5));
+        country = add(new DictionaryColumn(capacity));
+        paymentMethod = add(new DictionaryColumn(capacity));
+        status = add(new DictionaryColumn(capacity));
+        metadata = add(new StringColumn(capacity, 16));
+        totalAmount = add(new FixedColumn(Double.BYTES, capacity));
+        taxAmount = add(new FixedColumn(Double.BYTES, capacity));
+        discountApplied = add(new FixedColumn(1, capacity));
+        itemEnds = add(new FixedColumn(Integer.BYTES, capacity));
+        int itemCapacity = capacity * 2;
+        productId = addItem(new StringColumn(itemCapacity, 12));
+        productName = addItem(new StringColumn(itemCapacity, 16));
+        quantity = addItem(new FixedColumn(Long.BYTES, itemCapacity));
+        unitPrice = addItem(new FixedColumn(Double.BYTES, itemCapacity));
+        category = addItem(new DictionaryColumn(itemCapacity));
+    }
+
+    private <C extends Column> C add(C column) {
+        columns.add(column);
+        return column;
+    }
+
+    private <C extends Column> C addItem(C column) {
+        itemColumns.add(add(column));
+        return column;
+    }
+
+    // Truncates every column back to the committed orders and items, so a failed append leaves them aligned
+    private void rollback() {
+        for (Column column : columns) {
+            column.truncate(itemColumns.contains(column) ? items : rows);
+        }
+    }
+
+    private static int position(Schema schema, String field) {
+        return schema.getField(field).pos();
+    }
+
+    /** The orders.avro schema the columns follow. */
+    public Schema getSchema() {
+        return SCHEMA;
+    }
+
+    /** Whether {@link #writeAvro} output is a valid datum of {@code schema}: orders.avro or its column-named copy. */
+    public static boolean canWrite(Schema schema) {
+        long fingerprint = SchemaRegistry.fingerprint(schema);
+        return fingerprint == FINGERPRINT || fingerprint == COLUMN_FINGERPRINT;
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public int getItemCount() {
+        return items;
+    }
+
+    /** Direct memory currently reserved by the columns. */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (Column column : columns) {
+            bytes += column.capacityBytes();
+        }
+        return bytes;
+    }
+
+    /** Empties the buffer but keeps its memory and dictionaries for the next batch. */
+    public void clear() {
+        for (Column column : columns) {
+            column.clear();
+        }
+        rows = 0;
+        items = 0;
+    }
+
+    /**
+     * Appends an order of orders.avro, generic or generated, field by field. If a value is missing or of the wrong
+     * type the order is not added and the exception is rethrown; the orders already staged are unaffected.
+     */
+    public void append(GenericRecord order) {
+        if (order.getSchema() != checkedSchema) {
+            if (SchemaRegistry.fingerprint(order.getSchema()) != FINGERPRINT) {
+                throw new IllegalArgumentException("Expected an orders.avro record but got " + order.getSchema().getFullName());
+            }
+            checkedSchema = order.getSchema();
+        }
+        try {
+            appendFields(order);
+        } catch (RuntimeException e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    // Writes every column of one order; rows and items only count it once all of them are written
+    private void appendFields(GenericRecord order) {
+        int itemCount = items;
+        orderId.add((CharSequence) order.get(ORDER_ID));
+        GenericRecord customer = (GenericRecord) order.get(CUSTOMER);
+        customerId.add((CharSequence) customer.get(CUSTOMER_ID));
+        customerName.add((CharSequence) customer.get(CUSTOMER_NAME));
+        email.add((CharSequence) customer.get(EMAIL));
+        phone.add((CharSequence) customer.get(PHONE));
+        loyaltyTier.add((CharSequence) customer.get(LOYALTY_TIER));
+        for (Object value : (List<?>) order.get(ITEMS)) {
+            GenericRecord item = (GenericRecord) value;
+            productId.add((CharSequence) item.get(PRODUCT_ID));
+            productName.add((CharSequence) item.get(PRODUCT_NAME));
+            quantity.putLong(itemCount, (Long) item.get(QUANTITY));
+            unitPrice.putDouble(itemCount, (Double) item.get(UNIT_PRICE));
+            category.add((CharSequence) item.get(CATEGORY));
+            itemCount++;
+        }
+        orderDate.add((CharSequence) order.get(ORDER_DATE));
+        GenericRecord address = (GenericRecord) order.get(SHIPPING_ADDRESS);
+        street.add((CharSequence) address.get(STREET));
+        city.add((CharSequence) address.get(CITY));
+        state.add((CharSequence) address.get(STATE));
+        zipCode.add((CharSequence) address.get(ZIP_CODE));
+        country.add((CharSequence) address.get(COUNTRY));
+        paymentMethod.add((CharSequence) order.get(PAYMENT_METHOD));
+        status.add((CharSequence) order.get(STATUS));
+        metadata.add((CharSequence) order.get(METADATA));
+        totalAmount.putDouble(rows, (Double) order.get(TOTAL_AMOUNT));
+        taxAmount.putDouble(rows, (Double) order.get(TAX_AMOUNT));
+        discountApplied.putByte(rows, (Boolean) order.get(DISCOUNT_APPLIED) ? (byte) 1 : 0);
+        itemEnds.putInt(rows, itemCount);
+        items = itemCount;
+        rows++;
+    }
+
+    /**
+     * Appends an order given as nested maps keyed by the orders.avro field names, as in
+     * {@link AvroUtil#createAvroRequestFromData}, without building a record first. A bad order is not added, as
+     * with {@link #append(GenericRecord)}.
+     */
+    public void append(Map<String, Object> order) {
+        try {
+            appendFields(order);
+        } catch (RuntimeException e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void appendFields(Map<String, Object> order) {
+        int itemCount = items;
+        orderId.add((CharSequence) order.get("orderId"));
+        Map<String, Object> customer = (Map<String, Object>) order.get("customer");
+        customerId.add((CharSequence) customer.get("customerId"));
+        customerName.add((CharSequence) customer.get("name"));
+        email.add((CharSequence) customer.get("email"));
+        phone.add((CharSequence) customer.get("phone"));
+        loyaltyTier.add((CharSequence) customer.get("loyaltyTier"));
+        for (Map<String, Object> item : (List<Map<String, Object>>) order.get("items")) {
+            productId.add((CharSequence) item.get("productId"));
+            productName.add((CharSequence) item.get("productName"));
+            quantity.putLong(itemCount, ((Number) item.get("quantity")).longValue());
+            unitPrice.putDouble(itemCount, ((Number) item.get("unitPrice")).doubleValue());
+            category.add((CharSequence) item.get("category"));
+            itemCount++;
+        }
+        orderDate.add((CharSequence) order.get("orderDate"));
+        Map<String, Object> address = (Map<String, Object>) order.get("shippingAddress");
+        street.add((CharSequence) address.get("street"));
+        city.add((CharSequence) address.get("city"));
+        state.add((CharSequence) address.get("state"));
+        zipCode.add((CharSequence) address.get("zipCode"));
+        country.add((CharSequence) address.get("country"));
+        paymentMethod.add((CharSequence) order.get("paymentMethod"));
+        status.add((CharSequence) order.get("status"));
+        metadata.add((CharSequence) order.get("metadata"));
+        totalAmount.putDouble(rows, ((Number) order.get("totalAmount")).doubleValue());
+        taxAmount.putDouble(rows, ((Number) order.get("taxAmount")).doubleValue());
+        discountApplied.putByte(rows, (Boolean) order.get("discountApplied") ? (byte) 1 : 0);
+        itemEnds.putInt(rows, itemCount);
+        items = itemCount;
+        rows++;
+    }
+
+    public void appendAll(List<?> orders) {
+        for (Object order : orders) {
+            if (order instanceof GenericRecord) {
+                append((GenericRecord) order);
+            } else {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> data = (Map<String, Object>) order;
+                append(data);
+            }
+        }
+    }
+
+    /**
+     * The insertAll content of an order, with the same columns and values {@link BigQueryRowEncoder} produces for
+     * the equivalent record.
+     */
+    public Map<String, Object> encode(int row) {
+        checkRow(row);
+        Map<String, Object> customer = new HashMap<>(8);
+        customer.put("customer_id", customerId.get(row));
+        customer.put("name", customerName.get(row));
+        customer.put("email", email.get(row));
+        customer.put("phone", phone.get(row));
+        customer.put("loyalty_tier", loyaltyTier.get(row));
+        int firstItem = firstItem(row);
+        int endItem = itemEnds.getInt(row);
+        List<Object> itemRows = new ArrayList<>(endItem - firstItem);
+        for (int item = firstItem; item < endItem; item++) {
+            Map<String, Object> itemRow = new HashMap<>(8);
+            itemRow.put("product_id", productId.get(item));
+            itemRow.put("product_name", productName.get(item));
+            itemRow.put("quantity", quantity.getLong(item));
+            itemRow.put("unit_price", unitPrice.getDouble(item));
+            itemRow.put("category", category.get(item));
+            itemRows.add(itemRow);
+        }
+        Map<String, Object> address = new HashMap<>(8);
+        address.put("street", street.get(row));
+        address.put("city", city.get(row));
+        address.put("state", state.get(row));
+        address.put("zip_code", zipCode.get(row));
+        address.put("country", country.get(row));
+        Map<String, Object> content = new HashMap<>(16);
+        content.put("order_id", orderId.get(row));
+        content.put("customer", customer);
+        content.put("items", itemRows);
+        content.put("order_date", orderDate.get(row));
+        content.put("shipping_address", address);
+        content.put("payment_method", paymentMethod.get(row));
+        content.put("status", status.get(row));
+        content.put("metadata", metadata.get(row));
+        content.put("total_amount", totalAmount.getDouble(row));
+        content.put("tax_amount", taxAmount.getDouble(row));
+        content.put("discount_applied", discountApplied.getByte(row) != 0);
+        return content;
+    }
+
+    public InsertAllRequest.RowToInsert toRow(int row) {
+        return InsertAllRequest.RowToInsert.of(encode(row));
+    }
+
+    public InsertAllRequest.RowToInsert toRow(int row, String insertId) {
+        return InsertAllRequest.RowToInsert.of(insertId, encode(row));
+    }
+
+    /**
+     * Writes an order as an Avro datum of orders.avro (or of its column-named copy, which is laid out the same),
+     * straight from the columns; strings are copied through one reused {@link Utf8}.
+     */
+    public void writeAvro(int row, Encoder encoder) throws IOException {
+        checkRow(row);
+        encoder.writeString(orderId.read(row, utf8));
+        encoder.writeString(customerId.read(row, utf8));
+        encoder.writeString(customerName.read(row, utf8));
+        encoder.writeString(email.read(row, utf8));
+        encoder.writeString(phone.read(row, utf8));
+        encoder.writeString(loyaltyTier.read(row, utf8));
+        int firstItem = firstItem(row);
+        int endItem = itemEnds.getInt(row);
+        encoder.writeArrayStart();
+        encoder.setItemCount(endItem - firstItem);
+        for (int item = firstItem; item < endItem; item++) {
+            encoder.startItem();
+            encoder.writeString(productId.read(item, utf8));
+            encoder.writeString(productName.read(item, utf8));
+            encoder.writeLong(quantity.getLong(item));
+            encoder.writeDouble(unitPrice.getDouble(item));
+            encoder.writeString(category.read(item, utf8));
+        }
+        encoder.writeArrayEnd();
+        encoder.writeString(orderDate.read(row, utf8));
+        encoder.writeString(street.read(row, utf8));
+        encoder.writeString(city.read(row, utf8));
+        encoder.writeString(state.read(row, utf8));
+        encoder.writeString(zipCode.read(row, utf8));
+        encoder.writeString(country.read(row, utf8));
+        encoder.writeString(paymentMethod.read(row, utf8));
+        encoder.writeString(status.read(row, utf8));
+        encoder.writeString(metadata.read(row, utf8));
+        encoder.writeDouble(totalAmount.getDouble(row));
+        encoder.writeDouble(taxAmount.getDouble(row));
+        encoder.writeBoolean(discountApplied.getByte(row) != 0);
+    }
+
+    /** Rebuilds an order as a record, e.g. to spool a row that failed to insert. */
+    public Order toRecord(int row) {
+        checkRow(row);
+        int firstItem = firstItem(row);
+        int endItem = itemEnds.getInt(row);
+        List<Item> orderItems = new ArrayList<>(endItem - firstItem);
+        for (int item = firstItem; item < endItem; item++) {
+            orderItems.add(new Item(productId.get(item), productName.get(item), quantity.getLong(item),
+                unitPrice.getDouble(item), category.get(item)));
+        }
+        return new Order(
+            orderId.get(row),
+            new Customer(customerId.get(row), customerName.get(row), email.get(row), phone.get(row), loyaltyTier.get(row)),
+            orderItems,
+            orderDate.get(row),
+            new Address(street.get(row), city.get(row), state.get(row), zipCode.get(row), country.get(row)),
+            paymentMethod.get(row),
+            status.get(row),
+            metadata.get(row),
+            totalAmount.getDouble(row),
+            taxAmount.getDouble(row),
+            discountApplied.getByte(row) != 0);
+    }
+
+    private int firstItem(int row) {
+        return row == 0 ? 0 : itemEnds.getInt(row - 1);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d order(s), %d item(s) in %d KB off-heap", rows, items, getOffHeapBytes() / 1024);
+    }
+
+    private static ByteBuffer allocate(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Column exceeds 2 GB");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    // Copies the first usedBytes of a buffer into a new one of at least neededBytes, doubling the capacity
+    private static ByteBuffer grow(ByteBuffer buffer, int usedBytes, long neededBytes) {
+        ByteBuffer grown = allocate(Math.max(neededBytes, 2L * buffer.capacity()));
+        ByteBuffer used = buffer.duplicate();
+        used.clear().limit(usedBytes);
+        grown.put(used);
+        grown.clear();
+        return grown;
+    }
+
+    private interface Column {
+        void clear();
+
+        /** Drops every value from {@code size} on, undoing the appends of an order that failed part way. */
+        void truncate(int size);
+
+        long capacityBytes();
+    }
+
+    // Fixed-width values at index * width
+    private static final class FixedColumn implements Column {
+        private final int width;
+        private ByteBuffer values;
+        private int size;
+
+        FixedColumn(int width, int capacity) {
+            this.width = width;
+            this.values = allocate((long) width * capacity);
+        }
+
+        // Grows the buffer if needed, so callers must read the values field after calling this
+        private int reserve(int index) {
+            long end = (long) (index + 1) * width;
+            if (end > values.capacity()) {
+                values = grow(values, size * width, end);
+            }
+            size = Math.max(size, index + 1);
+            return index * width;
+        }
+
+        void putInt(int index, int value) {
+            int offset = reserve(index);
+            values.putInt(offset, value);
+        }
+
+        void putLong(int index, long value) {
+            int offset = reserve(index);
+            values.putLong(offset, value);
+        }
+
+        void putDouble(int index, double value) {
+            int offset = reserve(index);
+            values.putDouble(offset, value);
+        }
+
+        void putByte(int index, byte value) {
+            int offset = reserve(index);
+            values.put(offset, value);
+        }
+
+        int getInt(int index) {
+            return values.getInt(index * width);
+        }
+
+        long getLong(int index) {
+            return values.getLong(index * width);
+        }
+
+        double getDouble(int index) {
+            return values.getDouble(index * width);
+        }
+
+        byte getByte(int index) {
+            return values.get(index * width);
+        }
+
+        @Override
+        public void clear() {
+            size = 0;
+        }
+
+        @Override
+        public void truncate(int size) {
+            this.size = Math.min(this.size, size);
+        }
+
+        @Override
+        public long capacityBytes() {
+            return values.capacity();
+        }
+    }
+
+    // UTF-8 bytes back to back, with the end offset of each value
+    private final class StringColumn implements Column {
+        private final FixedColumn ends;
+        private ByteBuffer bytes;
+        private int size;
+        private int length;
+
+        StringColumn(int capacity, int averageBytes) {
+            this.ends = new FixedColumn(Integer.BYTES, capacity);
+            this.bytes = allocate((long) capacity * averageBytes);
+        }
+
+        void add(CharSequence value) {
+            if (value instanceof Utf8) {
+                Utf8 utf8Value = (Utf8) value;
+                put(utf8Value.getBytes(), utf8Value.getByteLength());
+            } else if (!putAscii(value)) {
+                byte[] encoded = value.toString().getBytes(StandardCharsets.UTF_8);
+                put(encoded, encoded.length);
+            }
+            ends.putInt(size++, length);
+        }
+
+        // Most values are ASCII and are written a char at a time, without an intermediate byte array
+        private boolean putAscii(CharSequence value) {
+            int count = value.length();
+            for (int i = 0; i < count; i++) {
+                if (value.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+            ensure(count);
+            for (int i = 0; i < count; i++) {
+                bytes.put(length + i, (byte) value.charAt(i));
+            }
+            length += count;
+            return true;
+        }
+
+        private void put(byte[] value, int count) {
+            ensure(count);
+            bytes.position(length);
+            bytes.put(value, 0, count);
+            length += count;
+        }
+
+        private void ensure(int count) {
+            if ((long) length + count > bytes.capacity()) {
+                bytes = grow(bytes, length, (long) length + count);
+            }
+        }
+
+        private int start(int index) {
+            return index == 0 ? 0 : ends.getInt(index - 1);
+        }
+
+        String get(int index) {
+            int start = start(index);
+            int count = ends.getInt(index) - start;
+            if (scratch.length < count) {
+                scratch = new byte[Math.max(count, scratch.length * 2)];
+            }
+            bytes.position(start);
+            bytes.get(scratch, 0, count);
+            return new String(scratch, 0, count, StandardCharsets.UTF_8);
+        }
+
+        Utf8 read(int index, Utf8 into) {
+            int start = start(index);
+            int count = ends.getInt(index) - start;
+            into.setByteLength(count);
+            bytes.position(start);
+            bytes.get(into.getBytes(), 0, count);
+            return into;
+        }
+
+        @Override
+        public void clear() {
+            ends.clear();
+            size = 0;
+            length = 0;
+        }
+
+        @Override
+        public void truncate(int size) {
+            if (size < this.size) {
+                ends.truncate(size);
+                this.size = size;
+                length = start(size);
+            }
+        }
+
+        @Override
+        public long capacityBytes() {
+            return ends.capacityBytes() + bytes.capacity();
+        }
+    }
+
+    // A code per value into a small on-heap dictionary, which is kept across clear()
+    private static final class DictionaryColumn implements Column {
+        private final FixedColumn codes;
+        private final Map<String, Integer> codesByValue = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private final List<byte[]> utf8Values = new ArrayList<>();
+        private int size;
+
+        DictionaryColumn(int capacity) {
+            this.codes = new FixedColumn(Integer.BYTES, capacity);
+        }
+
+        void add(CharSequence value) {
+            String key = value.toString();
+            Integer code = codesByValue.get(key);
+            if (code == null) {
+                code = values.size();
+                codesByValue.put(key, code);
+                values.add(key);
+                utf8Values.add(key.getBytes(StandardCharsets.UTF_8));
+            }
+            codes.putInt(size++, code);
+        }
+
+        String get(int index) {
+            return values.get(codes.getInt(index));
+        }
+
+        Utf8 read(int index, Utf8 into) {
+            byte[] value = utf8Values.get(codes.getInt(index));
+            into.setByteLength(value.length);
+            System.arraycopy(value, 0, into.getBytes(), 0, value.length);
+            return into;
+        }
+
+        @Override
+        public void clear() {
+            codes.clear();
+            size = 0;
+        }
+
+        // Values added to the dictionary stay; like after clear(), they are only unused codes
+        @Override
+        public void truncate(int size) {
+            codes.truncate(size);
+            this.size = Math.min(this.size, size);
+        }
+
+        @Override
+        public long capacityBytes() {
+            return codes.capacityBytes();
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package org.example.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Validates retrieved BigQuery rows against the expected source records using a {@link FieldMappingPlan}.
+ * Expected records are indexed by key once, retrieved rows are joined to them by key (so result order does not
+ * matter), and batches of rows are decoded and compared on a worker pool. Every difference is aggregated into a
+ * {@link Report} instead of failing on the first one.
+ */
+public class RecordValidator implements AutoCloseable {
+    public static final int DEFAULT_BATCH_ROWS = 1024;
+    public static final int DEFAULT_MAX_SAMPLES = 20;
+
+    private final FieldMappingPlan plan;
+    private final String sourceKey;
+    private final String targetKey;
+    private final int batchRows;
+    private final int maxSamples;
+    private final int threads;
+    private final ExecutorService executor;
+
+    public RecordValidator(FieldMappingPlan plan, String sourceKey) {
+        this(plan, sourceKey, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_ROWS, DEFAULT_MAX_SAMPLES);
+    }
+
+    public RecordValidator(FieldMappingPlan plan, String sourceKey, int threads, int batchRows, int maxSamples) {
+        if (threads <= 0 || batchRows <= 0 || maxSamples < 0) {
+            throw new IllegalArgumentException("Thread count and batch size must be positive");
+        }
+        this.targetKey = plan.targetOf(sourceKey);
+        if (targetKey == null) {
+            throw new IllegalArgumentException("Key field " + sourceKey + " is not in the field mappings");
+        }
+        this.plan = plan;
+        this.sourceKey = sourceKey;
+        this.batchRows = batchRows;
+        this.maxSamples = maxSamples;
+        this.threads = threads;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "record-validator-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Validates rows that are already typed maps, e.g. from {@link KeyedRowReader#projected}. */
+    public Report validate(Collection<Map<String, Object>> expected, Iterator<Map<String, Object>> actual) throws InterruptedException {
+        return validate(expected, actual, Function.identity());
+    }
+
+    /** Validates JSON rows, e.g. from {@link KeyedRowReader#json}; parsing happens on the worker threads. */
+    public Report validateJson(Collection<Map<String, Object>> expected, Iterator<String> actual) throws InterruptedException {
+        return validate(expected, actual, json -> {
+            try {
+                return JsonUtil.parseJsonToMap(json);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to parse retrieved row: " + json, e);
+            }
+        });
+    }
+
+    public <T> Report validate(Collection<Map<String, Object>> expected, Iterator<T> actual,
+                               Function<T, Map<String, Object>> decoder) throws InterruptedException {
+        long start = System.nanoTime();
+        Map<String, Map<String, Object>> expectedByKey = new HashMap<>(expected.size() * 4 / 3 + 1);
+        for (Map<String, Object> record : expected) {
+            expectedByKey.put(String.valueOf(record.get(sourceKey)), record);
+        }
+        Map<String, Boolean> seen = new ConcurrentHashMap<>(expected.size() * 4 / 3 + 1);
+
+        // Bounded in-flight batches keep memory flat while the caller keeps reading
+        Semaphore inFlight = new Semaphore(threads * 2);
+        List<Future<Tally>> futures = new ArrayList<>();
+        List<T> batch = new ArrayList<>(batchRows);
+        while (actual.hasNext()) {
+            batch.add(actual.next());
+            if (batch.size() == batchRows) {
+                futures.add(submit(batch, decoder, expectedByKey, seen, inFlight));
+                batch = new ArrayList<>(batchRows);
+            }
+        }
+        if (!batch.isEmpty()) {
+            futures.add(submit(batch, decoder, expectedByKey, seen, inFlight));
+        }
+
+        Tally total = new Tally(maxSamples);
+        for (Future<Tally> future : futures) {
+            try {
+                total.merge(future.get());
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Record validation failed", e.getCause());
+            }
+        }
+        List<String> missing = new ArrayList<>();
+        int missingCount = 0;
+        for (String key : expectedByKey.keySet()) {
+            if (!seen.containsKey(key)) {
+                if (missing.size() < maxSamples) {
+                    missing.add(key);
+                }
+                missingCount++;
+            }
+        }
+        Report report = new Report(expectedByKey.size(), total, missingCount, missing, fieldPaths(), System.nanoTime() - start);
+        // Includes the time spent waiting on the actual rows, which are usually still streaming in
+        Metrics.shared().record(Metrics.Phase.VALIDATION, report.getElapsedNanos(), report.getActualRows(), 0);
+        if (!report.isClean()) {
+            Metrics.shared().recordErrors(Metrics.Phase.VALIDATION, 1);
+        }
+        return report;
+    }
+
+    private <T> Future<Tally> submit(List<T> batch, Function<T, Map<String, Object>> decoder,
+                                     Map<String, Map<String, Object>> expectedByKey, Map<String, Boolean> seen,
+                                     Semaphore inFlight) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            return executor.submit(() -> {
+                try {
+                    Tally tally = new Tally(maxSamples);
+                    for (T row : batch) {
+                        validateRow(decoder.apply(row), expectedByKey, seen, tally);
+                    }
+                    return tally;
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void validateRow(Map<String, Object> actual, Map<String, Map<String, Object>> expectedByKey,
+                             Map<String, Boolean> seen, Tally tally) {
+        tally.actualRows++;
+        String key = String.valueOf(actual.get(targetKey));
+        Map<String, Object> expected = expectedByKey.get(key);
+        if (expected == null) {
+            tally.unexpected(key);
+            return;
+        }
+        if (seen.putIfAbsent(key, Boolean.TRUE) != null) {
+            tally.duplicate(key);
+            return;
+        }
+        int before = tally.mismatchCount;
+        for (FieldMappingPlan.Mapping mapping : plan.getMappings()) {
+            Object expectedValue = expected.get(mapping.getSource());
+            Object actualValue = actual.get(mapping.getTarget());
+            if (mapping.isNested()) {
+                validateNested(key, mapping, expectedValue, actualValue, tally);
+            } else if (!valuesMatch(expectedValue, actualValue)) {
+                tally.mismatch(key, mapping.getPath(), mapping.getPath(), expectedValue, actualValue);
+            }
+        }
+        tally.comparedRows++;
+        if (tally.mismatchCount == before) {
+            tally.matchedRows++;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void validateNested(String key, FieldMappingPlan.Mapping mapping, Object expected, Object actual, Tally tally) {
+        if (expected == null || actual == null) {
+            // A missing array and an empty one are the same thing once stored in BigQuery
+            if (expected != actual && !isEmptyList(expected) && !isEmptyList(actual)) {
+                tally.mismatch(key, mapping.getPath(), mapping.getPath(), expected, actual);
+            }
+            return;
+        }
+        if (expected instanceof List && actual instanceof List) {
+            List<Object> expectedItems = (List<Object>) expected;
+            List<Object> actualItems = (List<Object>) actual;
+            if (expectedItems.size() != actualItems.size()) {
+                tally.mismatch(key, mapping.getPath() + ".size", mapping.getPath() + ".size", expectedItems.size(), actualItems.size());
+                return;
+            }
+            for (int i = 0; i < expectedItems.size(); i++) {
+                validateChildren(key, mapping, i, expectedItems.get(i), actualItems.get(i), tally);
+            }
+        } else {
+            validateChildren(key, mapping, -1, expected, actual, tally);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void validateChildren(String key, FieldMappingPlan.Mapping mapping, int index, Object expected, Object actual, Tally tally) {
+        if (!(expected instanceof Map) || !(actual instanceof Map)) {
+            if (!valuesMatch(expected, actual)) {
+                tally.mismatch(key, mapping.getPath(), elementPath(mapping, index), expected, actual);
+            }
+            return;
+        }
+        Map<String, Object> expectedFields = (Map<String, Object>) expected;
+        Map<String, Object> actualFields = (Map<String, Object>) actual;
+        for (FieldMappingPlan.Mapping child : mapping.getChildren()) {
+            Object expectedValue = expectedFields.get(child.getSource());
+            Object actualValue = actualFields.get(child.getTarget());
+            if (!valuesMatch(expectedValue, actualValue)) {
+                tally.mismatch(key, child.getPath(), elementPath(mapping, index) + "." + child.getSource(), expectedValue, actualValue);
+            }
+        }
+    }
+
+    // Only built for mismatches so the common path allocates nothing per element
+    private static String elementPath(FieldMappingPlan.Mapping mapping, int index) {
+        return index < 0 ? mapping.getPath() : mapping.getPath() + "[" + index + "]";
+    }
+
+    /**
+     * Compares an expected Java value with a decoded one: numbers by value as {@link JsonUtil#numbersMatch} does,
+     * everything else by equality.
+     */
+    private static boolean valuesMatch(Object expected, Object actual) {
+        if (expected == null || actual == null) {
+            return expected == actual;
+        }
+        if (expected instanceof Number && actual instanceof Number) {
+            return JsonUtil.numbersMatch(((Number) expected).doubleValue(), ((Number) actual).doubleValue());
+        }
+        if (expected instanceof CharSequence && actual instanceof CharSequence) {
+            return expected.toString().contentEquals((CharSequence) actual);
+        }
+        return expected.equals(actual);
+    }
+
+    private static boolean isEmptyList(Object value) {
+        return value instanceof List && ((List<?>) value).isEmpty();
+    }
+
+    private List<String> fieldPaths() {
+        List<String> paths = new ArrayList<>();
+        for (FieldMappingPlan.Mapping mapping : plan.getMappings()) {
+            paths.add(mapping.getPath());
+            for (FieldMappingPlan.Mapping child : mapping.getChildren()) {
+                paths.add(child.getPath());
+            }
+        }
+        return paths;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            executor.shutdownNow();
+        }
+    }
+
+    /** One field difference; {@code path} carries array indexes, e.g. {@code items[2].unitPrice}. */
+    public static class Mismatch {
+        private final String key;
+        private final String path;
+        private final Object expected;
+        private final Object actual;
+
+        Mismatch(String key, String path, Object expected, Object actual) {
+            this.key = key;
+            this.path = path;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Object getExpected() {
+            return expected;
+        }
+
+        public Object getActual() {
+            return actual;
+        }
+
+        @Override
+        public String toString() {
+            return key + " " + path + ": expected " + expected + " but was " + actual;
+        }
+    }
+
+    // Per-batch counters; only touched by one worker, then merged by the caller
+    private static class Tally {
+        private final int maxSamples;
+        private int actualRows;
+        private int comparedRows;
+        private int matchedRows;
+        private int mismatchCount;
+        private int unexpectedCount;
+        private int duplicateCount;
+        private final Map<String, Integer> mismatchesByField = new HashMap<>();
+        private final List<Mismatch> samples = new ArrayList<>();
+        private final List<String> unexpectedKeys = new ArrayList<>();
+        private final List<String> duplicateKeys = new ArrayList<>();
+
+        Tally(int maxSamples) {
+            this.maxSamples = maxSamples;
+        }
+
+        void mismatch(String key, String field, String path, Object expected, Object actual) {
+            mismatchCount++;
+            mismatchesByField.merge(field, 1, Integer::sum);
+            if (samples.size() < maxSamples) {
+                samples.add(new Mismatch(key, path, expected, actual));
+            }
+        }
+
+        void unexpected(String key) {
+            unexpectedCount++;
+            if (unexpectedKeys.size() < maxSamples) {
+                unexpectedKeys.add(key);
+            }
+        }
+
+        void duplicate(String key) {
+            duplicateCount++;
+            if (duplicateKeys.size() < maxSamples) {
+                duplicateKeys.add(key);
+            }
+        }
+
+        void merge(Tally other) {
+            actualRows += other.actualRows;
+            comparedRows += other.comparedRows;
+            matchedRows += other.matchedRows;
+            mismatchCount += other.mismatchCount;
+            unexpectedCount += other.unexpectedCount;
+            duplicateCount += other.duplicateCount;
+            other.mismatchesByField.forEach((field, count) -> mismatchesByField.merge(field, count, Integer::sum));
+            addSamples(samples, other.samples);
+            addSamples(unexpectedKeys, other.unexpectedKeys);
+            addSamples(duplicateKeys, other.duplicateKeys);
+        }
+
+        private <E> void addSamples(List<E> into, List<E> from) {
+            for (int i = 0; i < from.size() && into.size() < maxSamples; i++) {
+                into.add(from.get(i));
+            }
+        }
+    }
+
+    public static class Report {
+        private final int expectedRows;
+        private final int actualRows;
+        private final int comparedRows;
+        private final int matchedRows;
+        private final int mismatchCount;
+        private final int missingCount;
+        private final int unexpectedCount;
+        private final int duplicateCount;
+        private final Map<String, Integer> mismatchesByField;
+        private final List<Mismatch> samples;
+        private final List<String> missingKeys;
+        private final List<String> unexpectedKeys;
+        private final List<String> duplicateKeys;
+        private final long elapsedNanos;
+
+        Report(int expectedRows, Tally tally, int missingCount, List<String> missingKeys, List<String> fieldPaths, long elapsedNanos) {
+            this.expectedRows = expectedRows;
+            this.actualRows = tally.actualRows;
+            this.comparedRows = tally.comparedRows;
+            this.matchedRows = tally.matchedRows;
+            this.mismatchCount = tally.mismatchCount;
+            this.missingCount = missingCount;
+            this.unexpectedCount = tally.unexpectedCount;
+            this.duplicateCount = tally.duplicateCount;
+            // Report fields in mapping file order, extra keys (e.g. items.size) after them
+            Map<String, Integer> byField = new LinkedHashMap<>();
+            for (String path : fieldPaths) {
+                Integer count = tally.mismatchesByField.get(path);
+                if (count != null) {
+                    byField.put(path, count);
+                }
+            }
+            tally.mismatchesByField.forEach(byField::putIfAbsent);
+            this.mismatchesByField = Collections.unmodifiableMap(byField);
+            this.samples = Collections.unmodifiableList(tally.samples);
+            this.missingKeys = Collections.unmodifiableList(missingKeys);
+            this.unexpectedKeys = Collections.unmodifiableList(tally.unexpectedKeys);
+            this.duplicateKeys = Collections.unmodifiableList(tally.duplicateKeys);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean isClean() {
+            return mismatchCount == 0 && missingCount == 0 && unexpectedCount == 0 && duplicateCount == 0;
+        }
+
+        public int getExpectedRows() {
+            return expectedRows;
+        }
+
+        public int getActualRows() {
+            return actualRows;
+        }
+
+        public int getComparedRows() {
+            return comparedRows;
+        }
+
+        public int getMatchedRows() {
+            return matchedRows;
+        }
+
+        public int getMismatchCount() {
+            return mismatchCount;
+        }
+
+        public int getMissingCount() {
+            return missingCount;
+        }
+
+        public int getUnexpectedCount() {
+            return unexpectedCount;
+        }
+
+        public int getDuplicateCount() {
+            return duplicateCount;
+        }
+
+        public Map<String, Integer> getMismatchesByField() {
+            return mismatchesByField;
+        }
+
+        public List<Mismatch> getSamples() {
+            return samples;
+        }
+
+        public List<String> getMissingKeys() {
+            return missingKeys;
+        }
+
+        public List<String> getUnexpectedKeys() {
+            return unexpectedKeys;
+        }
+
+        public List<String> getDuplicateKeys() {
+            return duplicateKeys;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : actualRows / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder summary = new StringBuilder(String.format(
+                "%d expected, %d retrieved, %d compared, %d matched, %d field mismatch(es), %d missing, %d unexpected, %d duplicate in %.1f ms (%.0f rows/s)",
+                expectedRows, actualRows, comparedRows, matchedRows, mismatchCount, missingCount, unexpectedCount,
+                duplicateCount, elapsedNanos / 1e6, getRowsPerSecond()));
+            mismatchesByField.forEach((field, count) -> summary.append("\n  ").append(field).append(": ").append(count).append(" mismatch(es)"));
+            for (Mismatch sample : samples) {
+                summary.append("\n  ").append(sample);
+            }
+            if (!missingKeys.isEmpty()) {
+                summary.append("\n  missing keys: ").append(missingKeys);
+            }
+            if (!unexpectedKeys.isEmpty()) {
+                summary.append("\n  unexpected keys: ").append(unexpectedKeys);
+            }
+            if (!duplicateKeys.isEmpty()) {
+                summary.append("\n  duplicate keys: ").append(duplicateKeys);
+            }
+            return summary.toString();
+        }
+    }
+}
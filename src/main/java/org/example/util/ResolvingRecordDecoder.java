@@ -0,0 +1,141 @@
+package org.example.util;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaCompatibility;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+
+import java.io.IOException;
+
+/**
+ * Decodes records written with any registered schema version into a reader schema. The writer schema is found in a
+ * {@link SchemaRegistry} by fingerprint, checked once for compatibility with the reader, and the resolving
+ * {@link GenericDatumReader} for the pair is cached, so resolution is paid once per version pair rather than per
+ * message. The cache holds at most {@code maxReaders} pairs and evicts the least recently used.
+ */
+public class ResolvingRecordDecoder {
+    public static final int DEFAULT_MAX_READERS = 256;
+    private static final int MESSAGE_HEADER_BYTES = 10;
+
+    private final SchemaRegistry registry;
+    private final LoadingCache<VersionPair, GenericDatumReader<GenericRecord>> readers;
+    private final ThreadLocal<BinaryDecoder> decoders = new ThreadLocal<>();
+
+    public ResolvingRecordDecoder(SchemaRegistry registry) {
+        this(registry, DEFAULT_MAX_READERS);
+    }
+
+    public ResolvingRecordDecoder(SchemaRegistry registry, int maxReaders) {
+        if (maxReaders <= 0) {
+            throw new IllegalArgumentException("maxReaders must be positive");
+        }
+        this.registry = registry;
+        this.readers = CacheBuilder.newBuilder()
+            .maximumSize(maxReaders)
+            .recordStats()
+            .build(new CacheLoader<VersionPair, GenericDatumReader<GenericRecord>>() {
+                @Override
+                public GenericDatumReader<GenericRecord> load(VersionPair pair) {
+                    return createReader(pair);
+                }
+            });
+    }
+
+    /** Decodes an Avro single-object message; the writer schema comes from the fingerprint in its header. */
+    public GenericRecord decodeMessage(byte[] message, Schema readerSchema) {
+        long writerFingerprint = SchemaRegistry.fingerprintOf(message);
+        return decode(message, MESSAGE_HEADER_BYTES, message.length - MESSAGE_HEADER_BYTES, writerFingerprint, readerSchema, null);
+    }
+
+    /**
+     * Decodes plain Avro binary written with the schema registered as {@code writerFingerprint}, into {@code reuse}
+     * when it is not null.
+     */
+    public GenericRecord decode(byte[] payload, int offset, int length, long writerFingerprint, Schema readerSchema,
+                                GenericRecord reuse) {
+        GenericDatumReader<GenericRecord> reader = readerFor(writerFingerprint, readerSchema);
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(payload, offset, length, decoders.get());
+        decoders.set(decoder);
+        try {
+            return reader.read(reuse, decoder);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode record written with schema " + Long.toHexString(writerFingerprint), e);
+        }
+    }
+
+    /** The cached resolving reader for the pair; readers are thread-safe and shared by all callers. */
+    public GenericDatumReader<GenericRecord> readerFor(long writerFingerprint, Schema readerSchema) {
+        try {
+            return readers.getUnchecked(new VersionPair(writerFingerprint, readerSchema));
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public long getCachedReaders() {
+        return readers.size();
+    }
+
+    public CacheStats getStats() {
+        return readers.stats();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = readers.stats();
+        return String.format("%d cached reader(s); %d hit(s), %d miss(es), %d eviction(s)",
+            readers.size(), stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+    private GenericDatumReader<GenericRecord> createReader(VersionPair pair) {
+        Schema writerSchema = registry.findByFingerprint(pair.writerFingerprint);
+        if (writerSchema == null) {
+            throw new IllegalArgumentException("Unknown writer schema " + Long.toHexString(pair.writerFingerprint));
+        }
+        // Checked here once, so an incompatible version fails with the reason instead of midway through a record
+        SchemaCompatibility.SchemaPairCompatibility compatibility =
+            SchemaCompatibility.checkReaderWriterCompatibility(pair.readerSchema, writerSchema);
+        if (compatibility.getType() != SchemaCompatibility.SchemaCompatibilityType.COMPATIBLE) {
+            throw new IllegalArgumentException("Schema " + Long.toHexString(pair.writerFingerprint) + " cannot be read as "
+                + pair.readerSchema.getFullName() + ": " + compatibility.getResult().getIncompatibilities());
+        }
+        Log.debug(() -> "Resolving reader for writer schema " + Long.toHexString(pair.writerFingerprint)
+            + " into " + pair.readerSchema.getFullName());
+        return new GenericDatumReader<>(writerSchema, pair.readerSchema);
+    }
+
+    private static final class VersionPair {
+        private final long writerFingerprint;
+        private final Schema readerSchema;
+
+        VersionPair(long writerFingerprint, Schema readerSchema) {
+            this.writerFingerprint = writerFingerprint;
+            this.readerSchema = readerSchema;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof VersionPair)) {
+                return false;
+            }
+            VersionPair pair = (VersionPair) other;
+            // Schema.equals returns on identity first, which is the common case for a reader schema
+            return writerFingerprint == pair.writerFingerprint && readerSchema.equals(pair.readerSchema);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(writerFingerprint) * 31 + readerSchema.hashCode();
+        }
+    }
+}
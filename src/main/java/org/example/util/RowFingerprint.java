@@ -0,0 +1,313 @@
+package org.example.util;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical row fingerprint that can be computed identically in BigQuery SQL ({@link #toSql}), from local Avro
+ * records and from BigQuery-shaped row maps. A row is rendered as a string (fields in schema order, separated by
+ * control characters, doubles rounded to 6 decimals, arrays in element order, NULL as a marker) and hashed with
+ * FarmHash Fingerprint64, which is what BigQuery's {@code FARM_FINGERPRINT} implements.
+ */
+public final class RowFingerprint {
+    private static final Map<Schema, RowFingerprint> CACHE = new ConcurrentHashMap<>();
+    private static final HashFunction FARM_FINGERPRINT = Hashing.farmHashFingerprint64();
+
+    private static final char NULL = '\u0001';
+    private static final char FIELD_SEPARATOR = '\u001f';
+    private static final char ELEMENT_SEPARATOR = '\u001e';
+    private static final String SQL_NULL = "'\\x01'";
+    private static final String SQL_FIELD_SEPARATOR = "'\\x1f'";
+    private static final String SQL_ELEMENT_SEPARATOR = "'\\x1e'";
+    private static final double FLOAT_SCALE = 1_000_000d;
+
+    private enum Kind {
+        STRING,
+        INTEGER,
+        FLOAT,
+        BOOLEAN,
+        RECORD,
+        ARRAY
+    }
+
+    private static final class Node {
+        private final String column;
+        private final int position;
+        private final Kind kind;
+        private final List<Node> children;
+        private final Node element;
+
+        Node(String column, int position, Kind kind, List<Node> children, Node element) {
+            this.column = column;
+            this.position = position;
+            this.kind = kind;
+            this.children = children;
+            this.element = element;
+        }
+    }
+
+    private final Schema schema;
+    private final Node root;
+
+    private RowFingerprint(Schema schema) {
+        this.schema = schema;
+        this.root = compile(null, -1, schema, new HashSet<>());
+    }
+
+    /**
+     * Fingerprint for records of {@code schema}; BigQuery columns are the snake_case field names written by
+     * {@link BigQueryRowEncoder}. Maps, bytes, fixed and non-nullable unions are not supported.
+     */
+    public static RowFingerprint forSchema(Schema schema) {
+        if (schema.getType() != Schema.Type.RECORD) {
+            throw new IllegalArgumentException("Expected a record schema but got " + schema.getType());
+        }
+        return CACHE.computeIfAbsent(schema, RowFingerprint::new);
+    }
+
+    private static Node compile(String column, int position, Schema schema, Set<String> visiting) {
+        Schema type = nonNull(schema);
+        switch (type.getType()) {
+            case STRING:
+            case ENUM:
+                return new Node(column, position, Kind.STRING, Collections.emptyList(), null);
+            case INT:
+            case LONG:
+                return new Node(column, position, Kind.INTEGER, Collections.emptyList(), null);
+            case FLOAT:
+            case DOUBLE:
+                return new Node(column, position, Kind.FLOAT, Collections.emptyList(), null);
+            case BOOLEAN:
+                return new Node(column, position, Kind.BOOLEAN, Collections.emptyList(), null);
+            case ARRAY:
+                return new Node(column, position, Kind.ARRAY, Collections.emptyList(),
+                    compile(null, -1, type.getElementType(), visiting));
+            case RECORD: {
+                if (!visiting.add(type.getFullName())) {
+                    throw new IllegalArgumentException("Recursive record " + type.getFullName() + " cannot be fingerprinted");
+                }
+                List<Node> children = new ArrayList<>(type.getFields().size());
+                for (Schema.Field field : type.getFields()) {
+                    children.add(compile(BigQueryRowEncoder.camelToUnderscore(field.name()), field.pos(), field.schema(), visiting));
+                }
+                visiting.remove(type.getFullName());
+                return new Node(column, position, Kind.RECORD, Collections.unmodifiableList(children), null);
+            }
+            default:
+                throw new IllegalArgumentException("Avro type " + type.getType() + " is not supported for fingerprinting");
+        }
+    }
+
+    private static Schema nonNull(Schema schema) {
+        if (schema.getType() != Schema.Type.UNION) {
+            return schema;
+        }
+        Schema branch = null;
+        for (Schema candidate : schema.getTypes()) {
+            if (candidate.getType() != Schema.Type.NULL) {
+                if (branch != null) {
+                    throw new IllegalArgumentException("Union " + schema + " is not supported for fingerprinting");
+                }
+                branch = candidate;
+            }
+        }
+        return branch;
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /** Position of the top-level field stored in BigQuery column {@code column}, or -1. */
+    public int positionOf(String column) {
+        for (Node child : root.children) {
+            if (child.column.equals(column)) {
+                return child.position;
+            }
+        }
+        return -1;
+    }
+
+    public long fingerprint(GenericRecord record) {
+        StringBuilder canonical = new StringBuilder(256);
+        render(record, root, true, canonical);
+        return FARM_FINGERPRINT.hashString(canonical, StandardCharsets.UTF_8).asLong();
+    }
+
+    /** Fingerprint of a row held as BigQuery column name to value, e.g. by {@link InMemoryBigQueryClient}. */
+    public long fingerprint(Map<String, Object> row) {
+        StringBuilder canonical = new StringBuilder(256);
+        render(row, root, false, canonical);
+        return FARM_FINGERPRINT.hashString(canonical, StandardCharsets.UTF_8).asLong();
+    }
+
+    /** Non-negative hash of a key, equal to {@code FARM_FINGERPRINT(key) & 0x7FFFFFFFFFFFFFFF} in BigQuery. */
+    public static long keyHash(String key) {
+        return FARM_FINGERPRINT.hashString(key, StandardCharsets.UTF_8).asLong() & Long.MAX_VALUE;
+    }
+
+    /** SQL for {@link #keyHash} of {@code keyExpression}. */
+    public static String keyHashSql(String keyExpression) {
+        return "(FARM_FINGERPRINT(" + keyExpression + ") & 0x7FFFFFFFFFFFFFFF)";
+    }
+
+    /** SQL INT64 expression computing {@link #fingerprint} for the row bound to {@code alias}. */
+    public String toSql(String alias) {
+        return "FARM_FINGERPRINT(" + sql(alias, root, 0) + ")";
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void render(Object value, Node node, boolean avro, StringBuilder out) {
+        if (value == null) {
+            if (node.kind == Kind.ARRAY) {
+                // BigQuery stores a NULL array as an empty one
+                out.append("[]");
+            } else {
+                out.append(NULL);
+            }
+            return;
+        }
+        switch (node.kind) {
+            case STRING:
+            case BOOLEAN:
+                out.append(value);
+                break;
+            case INTEGER:
+                out.append(((Number) value).longValue());
+                break;
+            case FLOAT:
+                out.append(scale(((Number) value).doubleValue()));
+                break;
+            case ARRAY: {
+                out.append('[');
+                boolean first = true;
+                for (Object element : (Iterable<Object>) value) {
+                    if (!first) {
+                        out.append(ELEMENT_SEPARATOR);
+                    }
+                    render(element, node.element, avro, out);
+                    first = false;
+                }
+                out.append(']');
+                break;
+            }
+            default: {
+                out.append('{');
+                for (int i = 0; i < node.children.size(); i++) {
+                    Node child = node.children.get(i);
+                    if (i > 0) {
+                        out.append(FIELD_SEPARATOR);
+                    }
+                    Object childValue = avro ? ((GenericRecord) value).get(child.position) : ((Map<String, Object>) value).get(child.column);
+                    render(childValue, child, avro, out);
+                }
+                out.append('}');
+            }
+        }
+    }
+
+    // ROUND in BigQuery rounds halfway cases away from zero
+    private static long scale(double value) {
+        double scaled = value * FLOAT_SCALE;
+        return scaled < 0 ? -Math.round(-scaled) : Math.round(scaled);
+    }
+
+    private static String sql(String path, Node node, int depth) {
+        switch (node.kind) {
+            case STRING:
+                return "IFNULL(" + path + ", " + SQL_NULL + ")";
+            case INTEGER:
+            case BOOLEAN:
+                return "IFNULL(CAST(" + path + " AS STRING), " + SQL_NULL + ")";
+            case FLOAT:
+                return "IFNULL(CAST(CAST(ROUND(" + path + " * " + (long) FLOAT_SCALE + ") AS INT64) AS STRING), " + SQL_NULL + ")";
+            case ARRAY: {
+                String element = "e" + depth;
+                String offset = "o" + depth;
+                return "CONCAT('[', ARRAY_TO_STRING(ARRAY(SELECT " + sql(element, node.element, depth + 1)
+                    + " FROM UNNEST(" + path + ") AS " + element + " WITH OFFSET AS " + offset + " ORDER BY " + offset
+                    + "), " + SQL_ELEMENT_SEPARATOR + "), ']')";
+            }
+            default: {
+                StringBuilder fields = new StringBuilder("'{'");
+                for (int i = 0; i < node.children.size(); i++) {
+                    Node child = node.children.get(i);
+                    if (i > 0) {
+                        fields.append(", ").append(SQL_FIELD_SEPARATOR);
+                    }
+                    fields.append(", ").append(sql(path + "." + child.column, child, depth));
+                }
+                fields.append(", '}'");
+                return "IF(" + path + " IS NULL, " + SQL_NULL + ", CONCAT(" + fields + "))";
+            }
+        }
+    }
+
+    /**
+     * Row count and exact 128-bit sum of the fingerprints of the rows in one hash bucket. BigQuery computes the
+     * same sum as {@code SUM(CAST(fingerprint AS NUMERIC))}.
+     */
+    public static final class Bucket {
+        private long count;
+        private long sumHigh;
+        private long sumLow;
+
+        public Bucket() {
+        }
+
+        public static Bucket of(long count, BigInteger sum) {
+            Bucket bucket = new Bucket();
+            bucket.count = count;
+            bucket.sumLow = sum.longValue();
+            bucket.sumHigh = sum.shiftRight(64).longValue();
+            return bucket;
+        }
+
+        public void add(long fingerprint) {
+            long low = sumLow + fingerprint;
+            long carry = Long.compareUnsigned(low, sumLow) < 0 ? 1 : 0;
+            sumHigh += (fingerprint >> 63) + carry;
+            sumLow = low;
+            count++;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public BigInteger getSum() {
+            return BigInteger.valueOf(sumHigh).shiftLeft(64).add(new BigInteger(Long.toUnsignedString(sumLow)));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Bucket)) {
+                return false;
+            }
+            Bucket bucket = (Bucket) other;
+            return count == bucket.count && sumHigh == bucket.sumHigh && sumLow == bucket.sumLow;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(count) * 31 + Long.hashCode(sumLow);
+        }
+
+        @Override
+        public String toString() {
+            return count + " row(s), fingerprint sum " + getSum();
+        }
+    }
+}
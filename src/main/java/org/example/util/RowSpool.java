@@ -0,0 +1,440 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.TableId;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Durable append-only spool of rows that could not be streamed, kept as a log of fixed-size memory-mapped segment
+ * files in a directory. Each entry holds the target table, the row's insertId and the record as an Avro
+ * single-object message; writer schemas are stored next to the segments, so entries stay readable after a restart.
+ * Appends are forced to disk before they return. The consumer {@link #peek}s entries from the head and
+ * {@link #acknowledge}s them once written; the head position is checkpointed and fully consumed segments are
+ * deleted. A crash mid-append leaves a frame that fails its checksum, and the log is cut there on reopening.
+ */
+public class RowSpool implements Closeable {
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    // length, CRC32 of the rest of the frame, spooled-at millis, then the envelope
+    private static final int FRAME_HEADER_BYTES = 16;
+    private static final String SEGMENT_GLOB = "*.seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final Schema ENVELOPE_SCHEMA = SchemaBuilder.record("SpooledRow").namespace("org.example.util")
+        .fields()
+        .optionalString("project")
+        .requiredString("dataset")
+        .requiredString("table")
+        .requiredString("insertId")
+        .requiredBytes("message")
+        .endRecord();
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final SchemaRegistry registry;
+    private final AvroBinaryCodec<GenericRecord> envelopes = AvroBinaryCodec.generic(ENVELOPE_SCHEMA);
+    private final String insertIdPrefix = UUID.randomUUID().toString();
+    private final AtomicLong insertIdSequence = new AtomicLong();
+    private final TreeSet<Long> segments = new TreeSet<>();
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private long readSegment;
+    private MappedByteBuffer readBuffer;
+    private long headSegment;
+    private int headOffset;
+    private long pendingRows;
+    private long pendingBytes;
+    private long appendedRows;
+    private long acknowledgedRows;
+
+    public RowSpool(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public RowSpool(Path directory, int segmentBytes) throws IOException {
+        if (segmentBytes <= FRAME_HEADER_BYTES) {
+            throw new IllegalArgumentException("Segments must be larger than " + FRAME_HEADER_BYTES + " bytes");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.registry = new SchemaRegistry(directory.resolve("schemas"));
+        recover();
+    }
+
+    /** Appends one row; a null insertId is replaced by a generated one so replays are deduplicated. */
+    public void append(TableId table, String insertId, GenericRecord record) {
+        appendAll(table, Collections.singletonList(record), Collections.singletonList(insertId));
+    }
+
+    /**
+     * Appends rows for one table and forces them to disk once for the whole call. {@code insertIds} may be null or
+     * hold nulls, in which case ids are generated.
+     */
+    public synchronized void appendAll(TableId table, List<? extends GenericRecord> records, List<String> insertIds) {
+        if (insertIds != null && insertIds.size() != records.size()) {
+            throw new IllegalArgumentException("Expected one insertId per record but got " + insertIds.size() + " for " + records.size());
+        }
+        try {
+            for (int i = 0; i < records.size(); i++) {
+                String insertId = insertIds != null ? insertIds.get(i) : null;
+                if (insertId == null) {
+                    insertId = insertIdPrefix + "-" + insertIdSequence.incrementAndGet();
+                }
+                writeFrame(envelope(table, insertId, records.get(i)));
+            }
+            writeBuffer.force();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to spool " + records.size() + " row(s) for " + table + " in " + directory, e);
+        }
+    }
+
+    /** Up to {@code maxRows} entries from the head, oldest first, without consuming them. */
+    public synchronized List<Entry> peek(int maxRows) {
+        List<Entry> entries = new ArrayList<>(Math.min(maxRows, (int) Math.min(pendingRows, Integer.MAX_VALUE)));
+        long segment = headSegment;
+        int offset = headOffset;
+        ByteBuffer buffer = pendingRows == 0 ? null : segmentBuffer(segment);
+        while (buffer != null && entries.size() < maxRows) {
+            int end = frameEnd(buffer, offset);
+            if (end < 0) {
+                Long next = segments.higher(segment);
+                if (next == null) {
+                    break;
+                }
+                segment = next;
+                offset = 0;
+                buffer = segmentBuffer(segment);
+                continue;
+            }
+            entries.add(readEntry(buffer, offset, end, segment));
+            offset = end;
+        }
+        return entries;
+    }
+
+    /**
+     * Consumes {@code entries}, which must be a prefix of the latest {@link #peek}, checkpoints the new head and
+     * deletes the segments before it.
+     */
+    public synchronized void acknowledge(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Entry last = entries.get(entries.size() - 1);
+        long bytes = 0;
+        for (Entry entry : entries) {
+            bytes += entry.endOffset - entry.offset;
+        }
+        headSegment = last.segment;
+        headOffset = last.endOffset;
+        pendingRows -= entries.size();
+        pendingBytes -= bytes;
+        acknowledgedRows += entries.size();
+        try {
+            writeCheckpoint();
+            while (segments.first() < headSegment) {
+                long segment = segments.pollFirst();
+                if (segment == readSegment) {
+                    readBuffer = null;
+                }
+                Files.deleteIfExists(segmentFile(segment));
+                Log.debug(() -> "Deleted spool segment " + segmentFile(segment).getFileName());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to checkpoint spool " + directory, e);
+        }
+    }
+
+    /** Rows appended and not yet acknowledged. */
+    public synchronized long getDepth() {
+        return pendingRows;
+    }
+
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /** How long the oldest pending row has been waiting, or 0 when the spool is empty. */
+    public synchronized long getOldestAgeMillis() {
+        if (pendingRows == 0) {
+            return 0;
+        }
+        long segment = headSegment;
+        int offset = headOffset;
+        ByteBuffer buffer = segmentBuffer(segment);
+        while (frameEnd(buffer, offset) < 0) {
+            Long next = segments.higher(segment);
+            if (next == null) {
+                return 0;
+            }
+            segment = next;
+            offset = 0;
+            buffer = segmentBuffer(segment);
+        }
+        return Math.max(0, System.currentTimeMillis() - buffer.getLong(offset + 8));
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long getAppendedRows() {
+        return appendedRows;
+    }
+
+    public synchronized long getAcknowledgedRows() {
+        return acknowledgedRows;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Spool %s: %d row(s) pending (%d bytes in %d segment(s)), oldest %d ms; %d appended, %d acknowledged",
+            directory, pendingRows, pendingBytes, segments.size(), getOldestAgeMillis(), appendedRows, acknowledgedRows);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writeBuffer != null) {
+            writeBuffer.force();
+            writeBuffer = null;
+        }
+    }
+
+    private byte[] envelope(TableId table, String insertId, GenericRecord record) {
+        GenericRecord envelope = new GenericData.Record(ENVELOPE_SCHEMA);
+        envelope.put("project", table.getProject());
+        envelope.put("dataset", table.getDataset());
+        envelope.put("table", table.getTable());
+        envelope.put("insertId", insertId);
+        envelope.put("message", ByteBuffer.wrap(registry.encodeMessage(record)));
+        return envelopes.encode(envelope);
+    }
+
+    private void writeFrame(byte[] envelope) throws IOException {
+        int frameBytes = FRAME_HEADER_BYTES + envelope.length;
+        if (frameBytes > segmentBytes) {
+            throw new IllegalArgumentException("Row of " + envelope.length + " bytes does not fit in a " + segmentBytes + " byte segment");
+        }
+        if (writeBuffer.remaining() < frameBytes) {
+            writeBuffer.force();
+            openWriteSegment(writeSegment + 1);
+        }
+        int offset = writeBuffer.position();
+        writeBuffer.putLong(offset + 8, System.currentTimeMillis());
+        ByteBuffer body = writeBuffer.duplicate();
+        body.position(offset + FRAME_HEADER_BYTES);
+        body.put(envelope);
+        writeBuffer.putInt(offset + 4, checksum(writeBuffer, offset + 8, offset + frameBytes));
+        // The length goes in last: until it is set the frame reads as the end of the log
+        writeBuffer.putInt(offset, envelope.length);
+        writeBuffer.position(offset + frameBytes);
+        pendingRows++;
+        pendingBytes += frameBytes;
+        appendedRows++;
+    }
+
+    private Entry readEntry(ByteBuffer buffer, int offset, int end, long segment) {
+        byte[] bytes = new byte[end - offset - FRAME_HEADER_BYTES];
+        ByteBuffer frame = buffer.duplicate();
+        frame.position(offset + FRAME_HEADER_BYTES);
+        frame.get(bytes);
+        GenericRecord envelope = envelopes.decode(bytes);
+        ByteBuffer messageBuffer = (ByteBuffer) envelope.get("message");
+        byte[] message = new byte[messageBuffer.remaining()];
+        messageBuffer.get(message);
+        long fingerprint = SchemaRegistry.fingerprintOf(message);
+        Schema writerSchema = registry.findByFingerprint(fingerprint);
+        if (writerSchema == null) {
+            throw new IllegalStateException("Spooled row written with unknown schema " + Long.toHexString(fingerprint));
+        }
+        Object project = envelope.get("project");
+        TableId table = project == null
+            ? TableId.of(envelope.get("dataset").toString(), envelope.get("table").toString())
+            : TableId.of(project.toString(), envelope.get("dataset").toString(), envelope.get("table").toString());
+        return new Entry(table, envelope.get("insertId").toString(), registry.decodeMessage(message, writerSchema),
+            buffer.getLong(offset + 8), segment, offset, end);
+    }
+
+    // End of the valid frame at offset, or -1 at the end of the written log
+    private static int frameEnd(ByteBuffer buffer, int offset) {
+        if (offset + FRAME_HEADER_BYTES > buffer.capacity()) {
+            return -1;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || length > buffer.capacity() - offset - FRAME_HEADER_BYTES) {
+            return -1;
+        }
+        int end = offset + FRAME_HEADER_BYTES + length;
+        return checksum(buffer, offset + 8, end) == buffer.getInt(offset + 4) ? end : -1;
+    }
+
+    private static int checksum(ByteBuffer buffer, int from, int to) {
+        ByteBuffer range = buffer.duplicate();
+        range.limit(to).position(from);
+        CRC32 crc = new CRC32();
+        crc.update(range);
+        return (int) crc.getValue();
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_GLOB)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(0, name.length() - ".seg".length())));
+            }
+        }
+        readCheckpoint();
+        if (segments.isEmpty()) {
+            headOffset = 0;
+        }
+        while (!segments.isEmpty() && segments.first() < headSegment) {
+            Files.deleteIfExists(segmentFile(segments.pollFirst()));
+        }
+        if (!segments.isEmpty() && segments.first() > headSegment) {
+            headSegment = segments.first();
+            headOffset = 0;
+        }
+        // Count what is still pending and find where the last segment's log ends
+        int end = 0;
+        for (long segment : segments) {
+            ByteBuffer buffer = mapSegment(segment);
+            int offset = segment == headSegment ? headOffset : 0;
+            int next;
+            while ((next = frameEnd(buffer, offset)) >= 0) {
+                pendingRows++;
+                pendingBytes += next - offset;
+                offset = next;
+            }
+            end = offset;
+        }
+        if (segments.isEmpty()) {
+            openWriteSegment(headSegment);
+        } else {
+            openWriteSegment(segments.last());
+            // Zero a torn frame left by a crash so the next append replaces it cleanly
+            if (end + 4 <= writeBuffer.capacity()) {
+                writeBuffer.putInt(end, 0);
+            }
+            writeBuffer.position(end);
+        }
+        appendedRows = pendingRows;
+        if (pendingRows > 0) {
+            Log.info(() -> "Recovered " + this);
+        }
+    }
+
+    private void openWriteSegment(long segment) throws IOException {
+        writeBuffer = mapSegment(segment);
+        writeSegment = segment;
+        segments.add(segment);
+    }
+
+    private MappedByteBuffer mapSegment(long segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    // The write segment is already mapped; the one older segment being read is mapped once and kept
+    private ByteBuffer segmentBuffer(long segment) {
+        if (segment == writeSegment) {
+            return writeBuffer.duplicate();
+        }
+        if (segment != readSegment || readBuffer == null) {
+            try {
+                readBuffer = mapSegment(segment);
+                readSegment = segment;
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to map spool segment " + segmentFile(segment), e);
+            }
+        }
+        return readBuffer.duplicate();
+    }
+
+    private Path segmentFile(long segment) {
+        return directory.resolve(String.format("%016d.seg", segment));
+    }
+
+    private void readCheckpoint() throws IOException {
+        try {
+            String[] parts = new String(Files.readAllBytes(directory.resolve(CHECKPOINT_FILE)), StandardCharsets.UTF_8).trim().split(" ");
+            headSegment = Long.parseLong(parts[0]);
+            headOffset = Integer.parseInt(parts[1]);
+        } catch (NoSuchFileException e) {
+            headSegment = segments.isEmpty() ? 0 : segments.first();
+            headOffset = 0;
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        // Written aside and moved into place, so a crash never leaves a partial checkpoint
+        Path temp = Files.createTempFile(directory, CHECKPOINT_FILE, ".tmp");
+        try {
+            Files.write(temp, (headSegment + " " + headOffset + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /** A spooled row and where it sits in the log. */
+    public static final class Entry {
+        private final TableId table;
+        private final String insertId;
+        private final GenericRecord record;
+        private final long spooledAtMillis;
+        private final long segment;
+        private final int offset;
+        private final int endOffset;
+
+        Entry(TableId table, String insertId, GenericRecord record, long spooledAtMillis, long segment, int offset, int endOffset) {
+            this.table = table;
+            this.insertId = insertId;
+            this.record = record;
+            this.spooledAtMillis = spooledAtMillis;
+            this.segment = segment;
+            this.offset = offset;
+            this.endOffset = endOffset;
+        }
+
+        public TableId getTable() {
+            return table;
+        }
+
+        public String getInsertId() {
+            return insertId;
+        }
+
+        public GenericRecord getRecord() {
+            return record;
+        }
+
+        public long getSpooledAtMillis() {
+            return spooledAtMillis;
+        }
+    }
+}
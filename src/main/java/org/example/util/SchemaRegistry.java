@@ -0,0 +1,214 @@
+package org.example.util;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.message.BinaryMessageDecoder;
+import org.apache.avro.message.BinaryMessageEncoder;
+import org.apache.avro.message.SchemaStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed schemas keyed by their 64-bit Parsing Canonical Form fingerprint. Classpath schemas are parsed once per
+ * resource. Avro single-object messages (a 10-byte header of marker plus fingerprint, then the binary record) are
+ * encoded and decoded against the registry, so a decoder resolves the writer schema with one map lookup. With a
+ * directory, every registered schema is also stored as {@code <fingerprint>.avsc}, standing in for a remote
+ * registry that several processes share.
+ */
+public class SchemaRegistry implements SchemaStore {
+    private static final SchemaRegistry SHARED = new SchemaRegistry();
+    private static final byte[] MESSAGE_MARKER = {(byte) 0xC3, (byte) 0x01};
+    private static final int MESSAGE_HEADER_BYTES = 10;
+
+    private final Path directory;
+    private final Map<Long, Schema> schemas = new ConcurrentHashMap<>();
+    private final Map<String, Schema> resources = new ConcurrentHashMap<>();
+    private final Map<Schema, BinaryMessageEncoder<GenericRecord>> encoders = new ConcurrentHashMap<>();
+    private final Map<Schema, BinaryMessageDecoder<GenericRecord>> decoders = new ConcurrentHashMap<>();
+
+    /** In-memory registry. */
+    public SchemaRegistry() {
+        this.directory = null;
+    }
+
+    /** File-backed registry; schemas already in {@code directory} are loaded up front. */
+    public SchemaRegistry(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.avsc")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long fingerprint = Long.parseUnsignedLong(name.substring(0, name.length() - ".avsc".length()), 16);
+                Schema schema = readSchemaFile(file);
+                if (fingerprint(schema) != fingerprint) {
+                    Log.warn("Skipping schema file " + file + ", its content does not match the fingerprint in its name");
+                    continue;
+                }
+                schemas.put(fingerprint, schema);
+            }
+        }
+    }
+
+    /** Process-wide in-memory registry used by {@link AvroUtil#loadSchema}. */
+    public static SchemaRegistry shared() {
+        return SHARED;
+    }
+
+    public static long fingerprint(Schema schema) {
+        return SchemaNormalization.parsingFingerprint64(schema);
+    }
+
+    /**
+     * Parses a classpath schema on first use and registers it; later calls return the same instance. Concurrent
+     * first calls for one resource wait for a single parse.
+     */
+    public Schema loadSchema(String resource) throws IOException {
+        Schema cached = resources.get(resource);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return resources.computeIfAbsent(resource, this::parseResource);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Schema parseResource(String resource) {
+        long start = System.nanoTime();
+        Schema schema;
+        try (InputStream in = SchemaRegistry.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Schema resource not found: " + resource);
+            }
+            schema = new Schema.Parser().parse(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        register(schema);
+        Metrics.shared().record(Metrics.Phase.SCHEMA_LOAD, System.nanoTime() - start, 0, 0);
+        return schema;
+    }
+
+    /** Registers {@code schema} (a no-op if it is already known) and returns its fingerprint. */
+    public long register(Schema schema) {
+        long fingerprint = fingerprint(schema);
+        if (schemas.putIfAbsent(fingerprint, schema) == null && directory != null) {
+            try {
+                writeSchemaFile(fingerprint, schema);
+            } catch (IOException e) {
+                schemas.remove(fingerprint, schema);
+                throw new RuntimeException("Failed to store schema " + schema.getFullName() + " in " + directory, e);
+            }
+        }
+        return fingerprint;
+    }
+
+    /** Schema for {@code fingerprint}, or null; a file-backed registry also picks up schemas other processes stored. */
+    @Override
+    public Schema findByFingerprint(long fingerprint) {
+        Schema schema = schemas.get(fingerprint);
+        if (schema == null && directory != null) {
+            try {
+                schema = readSchemaFile(schemaFile(fingerprint));
+                Schema previous = schemas.putIfAbsent(fingerprint, schema);
+                schema = previous != null ? previous : schema;
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read schema " + Long.toHexString(fingerprint) + " from " + directory, e);
+            }
+        }
+        return schema;
+    }
+
+    public int size() {
+        return schemas.size();
+    }
+
+    /**
+     * Single-object encoder for records of {@code schema}, which is registered first. The encoder is cached and
+     * thread-safe.
+     */
+    public BinaryMessageEncoder<GenericRecord> messageEncoder(Schema schema) {
+        return encoders.computeIfAbsent(schema, s -> {
+            register(s);
+            return new BinaryMessageEncoder<>(GenericData.get(), s);
+        });
+    }
+
+    /**
+     * Single-object decoder that reads any registered writer schema into {@code readerSchema}. Writer schemas are
+     * looked up by the message fingerprint and their resolving readers cached by the decoder.
+     */
+    public BinaryMessageDecoder<GenericRecord> messageDecoder(Schema readerSchema) {
+        return decoders.computeIfAbsent(readerSchema, s -> {
+            register(s);
+            return new BinaryMessageDecoder<>(GenericData.get(), s, this);
+        });
+    }
+
+    public byte[] encodeMessage(GenericRecord record) {
+        try {
+            ByteBuffer message = messageEncoder(record.getSchema()).encode(record);
+            byte[] bytes = new byte[message.remaining()];
+            message.get(bytes);
+            return bytes;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode " + record.getSchema().getFullName() + " message", e);
+        }
+    }
+
+    public GenericRecord decodeMessage(byte[] message, Schema readerSchema) {
+        try {
+            return messageDecoder(readerSchema).decode(message);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode message with writer schema " + Long.toHexString(fingerprintOf(message)), e);
+        }
+    }
+
+    /** Writer schema fingerprint from a single-object message header, without decoding the record. */
+    public static long fingerprintOf(byte[] message) {
+        if (message.length < MESSAGE_HEADER_BYTES || message[0] != MESSAGE_MARKER[0] || message[1] != MESSAGE_MARKER[1]) {
+            throw new IllegalArgumentException("Not an Avro single-object message");
+        }
+        return ByteBuffer.wrap(message, MESSAGE_MARKER.length, 8).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
+    private Path schemaFile(long fingerprint) {
+        return directory.resolve(String.format("%016x.avsc", fingerprint));
+    }
+
+    private void writeSchemaFile(long fingerprint, Schema schema) throws IOException {
+        Path file = schemaFile(fingerprint);
+        if (Files.exists(file)) {
+            return;
+        }
+        // Written aside and moved into place, so a concurrent reader never sees a partial file
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, schema.toString(true).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static Schema readSchemaFile(Path file) throws IOException {
+        // One parser per file: named types of different schemas must not collide
+        return new Schema.Parser().parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,247 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.TableId;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drains a {@link RowSpool} into BigQuery on a background thread, at most {@code rowsPerSecond} rows per second.
+ * Rows are resent with their spooled insertIds, so a batch that is retried after a partial success is deduplicated.
+ * When a request fails as a whole with a retryable error (quota, backend) its rows stay in the spool and the replayer
+ * backs off; any other request failure, such as a missing table, and rows rejected as invalid go to the
+ * {@code rejected} spool, or are logged and dropped without one, so they cannot block the rows behind them. Rows that
+ * were only stopped are appended to the spool again. Each run of rows for one table is acknowledged as soon as it has
+ * been sent, so a later table failing does not replay it or re-append its stopped rows twice.
+ */
+public class SpoolReplayer implements AutoCloseable {
+    public static final double DEFAULT_ROWS_PER_SECOND = 1000;
+    public static final int DEFAULT_BATCH_ROWS = BatchingBigQueryWriter.DEFAULT_MAX_BATCH_ROWS;
+
+    private static final long IDLE_MILLIS = 200;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private final RowSpool spool;
+    private final BigQueryUtil bigQueryUtil;
+    private final RateLimiter rateLimiter;
+    private final int batchRows;
+    private final RowSpool rejected;
+    private final Thread thread;
+
+    private final AtomicLong rowsReplayed = new AtomicLong();
+    private final AtomicLong rowsRespooled = new AtomicLong();
+    private final AtomicLong rowsRejected = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private volatile String lastError;
+    private volatile boolean closed;
+
+    public SpoolReplayer(RowSpool spool, BigQueryUtil bigQueryUtil) {
+        this(spool, bigQueryUtil, DEFAULT_ROWS_PER_SECOND, DEFAULT_BATCH_ROWS, null);
+    }
+
+    public SpoolReplayer(RowSpool spool, BigQueryUtil bigQueryUtil, double rowsPerSecond, int batchRows, RowSpool rejected) {
+        if (rowsPerSecond <= 0 || batchRows <= 0) {
+            throw new IllegalArgumentException("Replay rate and batch size must be positive");
+        }
+        this.spool = spool;
+        this.bigQueryUtil = bigQueryUtil;
+        this.rateLimiter = RateLimiter.create(rowsPerSecond);
+        this.batchRows = batchRows;
+        this.rejected = rejected;
+        this.thread = new Thread(this::run, "spool-replayer");
+        this.thread.setDaemon(true);
+    }
+
+    public SpoolReplayer start() {
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Replays one batch from the head of the spool on the calling thread. Returns the number of entries
+     * acknowledged, or -1 if the first insert failed and should be retried later.
+     */
+    public int replayOnce() throws InterruptedException {
+        List<RowSpool.Entry> entries = spool.peek(batchRows);
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        rateLimiter.acquire(entries.size());
+        int start = 0;
+        // Entries are sent per run of consecutive rows for the same table
+        while (start < entries.size()) {
+            TableId table = entries.get(start).getTable();
+            int end = start + 1;
+            while (end < entries.size() && entries.get(end).getTable().equals(table)) {
+                end++;
+            }
+            List<RowSpool.Entry> run = entries.subList(start, end);
+            if (!send(table, run)) {
+                return start > 0 ? start : -1;
+            }
+            spool.acknowledge(run);
+            start = end;
+        }
+        return entries.size();
+    }
+
+    private boolean send(TableId table, List<RowSpool.Entry> entries) {
+        List<InsertAllRequest.RowToInsert> rows = new ArrayList<>(entries.size());
+        BigQueryRowEncoder encoder = null;
+        for (RowSpool.Entry entry : entries) {
+            GenericRecord record = entry.getRecord();
+            if (encoder == null || encoder.getSchema() != record.getSchema()) {
+                encoder = BigQueryRowEncoder.forSchema(record.getSchema());
+            }
+            rows.add(encoder.toRow(record, entry.getInsertId()));
+        }
+        Map<Long, List<BigQueryError>> insertErrors;
+        try {
+            insertErrors = bigQueryUtil.insertRows(table, rows);
+        } catch (BigQueryException e) {
+            failedRequests.incrementAndGet();
+            lastError = e.getMessage();
+            if (BatchingBigQueryWriter.isRetryable(e)) {
+                Log.warn(() -> "Spool replay into " + table.getTable() + " failed, backing off: " + e.getMessage());
+                return false;
+            }
+            Log.warn(() -> "Spool replay into " + table.getTable() + " rejected, dropping " + entries.size()
+                + " row(s) from the spool: " + e.getMessage());
+            reject(table, entries);
+            return true;
+        }
+        List<GenericRecord> stopped = new ArrayList<>();
+        List<String> stoppedIds = new ArrayList<>();
+        List<RowSpool.Entry> invalid = new ArrayList<>();
+        for (Map.Entry<Long, List<BigQueryError>> error : insertErrors.entrySet()) {
+            RowSpool.Entry entry = entries.get(error.getKey().intValue());
+            if (isInvalid(error.getValue())) {
+                invalid.add(entry);
+                Log.warn(() -> "Spooled row " + entry.getInsertId() + " rejected: " + error.getValue());
+            } else {
+                stopped.add(entry.getRecord());
+                stoppedIds.add(entry.getInsertId());
+            }
+        }
+        if (!stopped.isEmpty()) {
+            spool.appendAll(table, stopped, stoppedIds);
+            rowsRespooled.addAndGet(stopped.size());
+        }
+        if (!invalid.isEmpty()) {
+            reject(table, invalid);
+        }
+        rowsReplayed.addAndGet(entries.size() - stopped.size() - invalid.size());
+        return true;
+    }
+
+    private void reject(TableId table, List<RowSpool.Entry> entries) {
+        if (rejected != null) {
+            List<GenericRecord> records = new ArrayList<>(entries.size());
+            List<String> insertIds = new ArrayList<>(entries.size());
+            for (RowSpool.Entry entry : entries) {
+                records.add(entry.getRecord());
+                insertIds.add(entry.getInsertId());
+            }
+            rejected.appendAll(table, records, insertIds);
+        }
+        rowsRejected.addAndGet(entries.size());
+    }
+
+    private static boolean isInvalid(List<BigQueryError> errors) {
+        for (BigQueryError error : errors) {
+            if ("invalid".equals(error.getReason())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void run() {
+        int failures = 0;
+        while (!closed) {
+            try {
+                int replayed = replayOnce();
+                if (replayed > 0) {
+                    failures = 0;
+                } else if (replayed == 0) {
+                    Thread.sleep(IDLE_MILLIS);
+                } else {
+                    failures++;
+                    Thread.sleep(backoffMillis(failures));
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // Spool I/O problems are retried like failed inserts rather than ending replay
+                failures++;
+                lastError = e.toString();
+                Log.warn(() -> "Spool replay error: " + e);
+                try {
+                    Thread.sleep(backoffMillis(failures));
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static long backoffMillis(int attempt) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /** Waits until the spool is empty; returns false if {@code timeout} elapses first. */
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (spool.getDepth() > 0) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(50);
+        }
+        return true;
+    }
+
+    public long getRowsReplayed() {
+        return rowsReplayed.get();
+    }
+
+    public long getRowsRespooled() {
+        return rowsRespooled.get();
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected.get();
+    }
+
+    public long getFailedRequests() {
+        return failedRequests.get();
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Replayed %d spooled row(s), %d re-spooled, %d rejected, %d failed request(s); %d pending, oldest %d ms",
+            rowsReplayed.get(), rowsRespooled.get(), rowsRejected.get(), failedRequests.get(), spool.getDepth(), spool.getOldestAgeMillis());
+    }
+}
@@ -0,0 +1,481 @@
+package org.example.util;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Generates schema-conformant {@link GenericRecord}s for any Avro record schema. Record {@code i} is drawn from its
+ * own random stream derived from the seed and {@code i}, so the same seed always yields the same records no matter
+ * how generation is split across threads. Array lengths, string cardinality and numeric ranges come from a
+ * {@link Profile}.
+ */
+public class SyntheticRecordGenerator {
+    private static final long INDEX_MULTIPLIER = 0xD1B54A32D192ED03L;
+    private static final long MIN_RECORDS_PER_PART = 10_000;
+
+    private final Schema schema;
+    private final long seed;
+    private final ValueGenerator root;
+
+    public SyntheticRecordGenerator(Schema schema, long seed) {
+        this(schema, seed, Profile.defaults());
+    }
+
+    public SyntheticRecordGenerator(Schema schema, long seed, Profile profile) {
+        if (schema.getType() != Schema.Type.RECORD) {
+            throw new IllegalArgumentException("Expected a record schema but got " + schema.getType());
+        }
+        this.schema = schema;
+        this.seed = seed;
+        this.root = compile("", schema.getName(), schema, profile, new HashSet<>());
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /** The record at {@code index}; the same seed, profile and index always give an equal record. */
+    public GenericData.Record record(long index) {
+        SplittableRandom random = new SplittableRandom(mix(seed + index * INDEX_MULTIPLIER));
+        return (GenericData.Record) root.next(random, index);
+    }
+
+    /** Ordered parallel stream of records {@code first} to {@code first + count - 1}. */
+    public Stream<GenericRecord> stream(long first, long count) {
+        return LongStream.range(first, first + count).parallel().mapToObj(this::record);
+    }
+
+    public List<GenericRecord> generate(long first, int count) {
+        // Filled in place; a presizing collector would allocate a count-sized list per fork/join leaf
+        GenericRecord[] records = new GenericRecord[count];
+        IntStream.range(0, count).parallel().forEach(i -> records[i] = record(first + i));
+        return Arrays.asList(records);
+    }
+
+    public FileResult writeFiles(Path directory, String filePrefix, long count) throws IOException, InterruptedException {
+        return writeFiles(directory, filePrefix, 0, count, Runtime.getRuntime().availableProcessors(),
+            AvroLoadJobWriter.DEFAULT_CODEC, AvroFileRoller.DEFAULT_MAX_FILE_BYTES);
+    }
+
+    /**
+     * Writes records {@code first} to {@code first + count - 1} as Avro container files. The range is split into
+     * contiguous parts, one per thread, each with its own {@link AvroFileRoller}; files are named
+     * {@code <prefix>-<part>-<file>.avro}, so reading them in name order gives the records in index order.
+     */
+    public FileResult writeFiles(Path directory, String filePrefix, long first, long count, int threads,
+                                 String codec, long maxFileBytes) throws IOException, InterruptedException {
+        if (threads <= 0 || count < 0) {
+            throw new IllegalArgumentException("Thread count must be positive and record count non-negative");
+        }
+        long start = System.nanoTime();
+        int parts = (int) Math.max(1, Math.min(threads, (count + MIN_RECORDS_PER_PART - 1) / MIN_RECORDS_PER_PART));
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parts, runnable -> {
+            Thread thread = new Thread(runnable, "synthetic-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<List<Path>>> futures = new ArrayList<>(parts);
+            for (int part = 0; part < parts; part++) {
+                long partFirst = first + count * part / parts;
+                long partEnd = first + count * (part + 1) / parts;
+                String partPrefix = String.format("%s-%03d", filePrefix, part);
+                futures.add(executor.submit(() -> {
+                    try (AvroFileRoller roller = new AvroFileRoller(schema, directory, partPrefix, codec, maxFileBytes)) {
+                        for (long index = partFirst; index < partEnd; index++) {
+                            roller.append(record(index));
+                        }
+                        roller.close();
+                        return roller.getCompletedFiles();
+                    }
+                }));
+            }
+            List<Path> files = new ArrayList<>();
+            for (Future<List<Path>> future : futures) {
+                try {
+                    files.addAll(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new RuntimeException("Synthetic record generation failed", e.getCause());
+                }
+            }
+            return new FileResult(files, count, parts, System.nanoTime() - start);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // SplitMix64 finalizer, so neighbouring indexes get unrelated streams
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @FunctionalInterface
+    private interface ValueGenerator {
+        Object next(SplittableRandom random, long index);
+    }
+
+    private static ValueGenerator compile(String path, String name, Schema schema, Profile profile, Set<String> visiting) {
+        Rule rule = profile.ruleFor(path, name);
+        switch (schema.getType()) {
+            case RECORD: {
+                if (!visiting.add(schema.getFullName())) {
+                    throw new IllegalArgumentException("Recursive record " + schema.getFullName() + " cannot be generated");
+                }
+                List<Schema.Field> fields = schema.getFields();
+                ValueGenerator[] children = new ValueGenerator[fields.size()];
+                for (Schema.Field field : fields) {
+                    String childPath = path.isEmpty() ? field.name() : path + "." + field.name();
+                    children[field.pos()] = compile(childPath, field.name(), field.schema(), profile, visiting);
+                }
+                visiting.remove(schema.getFullName());
+                return (random, index) -> {
+                    GenericData.Record record = new GenericData.Record(schema);
+                    for (int i = 0; i < children.length; i++) {
+                        record.put(i, children[i].next(random, index));
+                    }
+                    return record;
+                };
+            }
+            case ARRAY: {
+                // Elements share the array's path, so "items.quantity" configures the quantity of every item
+                ValueGenerator element = compile(path, name, schema.getElementType(), profile, visiting);
+                return (random, index) -> {
+                    int length = (int) rule.length(random);
+                    GenericData.Array<Object> array = new GenericData.Array<>(length, schema);
+                    for (int i = 0; i < length; i++) {
+                        array.add(element.next(random, index));
+                    }
+                    return array;
+                };
+            }
+            case MAP: {
+                ValueGenerator value = compile(path, name, schema.getValueType(), profile, visiting);
+                return (random, index) -> {
+                    int length = (int) rule.length(random);
+                    Map<String, Object> map = new LinkedHashMap<>(length * 4 / 3 + 1);
+                    for (int i = 0; i < length; i++) {
+                        map.put("key_" + i, value.next(random, index));
+                    }
+                    return map;
+                };
+            }
+            case UNION:
+                return unionGenerator(path, name, schema, rule, profile, visiting);
+            case STRING:
+                return rule::string;
+            case ENUM: {
+                List<String> symbols = rule.values != null ? rule.values : schema.getEnumSymbols();
+                GenericData.EnumSymbol[] choices = new GenericData.EnumSymbol[symbols.size()];
+                for (int i = 0; i < choices.length; i++) {
+                    if (!schema.hasEnumSymbol(symbols.get(i))) {
+                        throw new IllegalArgumentException("Value " + symbols.get(i) + " for " + path + " is not a symbol of " + schema.getFullName());
+                    }
+                    choices[i] = new GenericData.EnumSymbol(schema, symbols.get(i));
+                }
+                return (random, index) -> choices[(int) rule.pick(random, choices.length)];
+            }
+            case INT:
+                return (random, index) -> (int) rule.integer(random);
+            case LONG:
+                return (random, index) -> rule.integer(random);
+            case FLOAT:
+                return (random, index) -> (float) rule.decimal(random);
+            case DOUBLE:
+                return (random, index) -> rule.decimal(random);
+            case BOOLEAN:
+                return (random, index) -> random.nextDouble() < rule.trueRate;
+            case BYTES:
+                return (random, index) -> ByteBuffer.wrap(rule.bytes(random, (int) rule.length(random)));
+            case FIXED:
+                return (random, index) -> new GenericData.Fixed(schema, rule.bytes(random, schema.getFixedSize()));
+            case NULL:
+                return (random, index) -> null;
+            default:
+                throw new IllegalArgumentException("Avro type " + schema.getType() + " is not supported for generation");
+        }
+    }
+
+    private static ValueGenerator unionGenerator(String path, String name, Schema union, Rule rule, Profile profile, Set<String> visiting) {
+        List<ValueGenerator> branches = new ArrayList<>();
+        boolean nullable = false;
+        for (Schema branch : union.getTypes()) {
+            if (branch.getType() == Schema.Type.NULL) {
+                nullable = true;
+            } else {
+                branches.add(compile(path, name, branch, profile, visiting));
+            }
+        }
+        if (branches.isEmpty()) {
+            return (random, index) -> null;
+        }
+        double nullRate = nullable ? rule.nullRate : 0;
+        ValueGenerator[] choices = branches.toArray(new ValueGenerator[0]);
+        return (random, index) -> {
+            if (nullRate > 0 && random.nextDouble() < nullRate) {
+                return null;
+            }
+            ValueGenerator branch = choices.length == 1 ? choices[0] : choices[random.nextInt(choices.length)];
+            return branch.next(random, index);
+        };
+    }
+
+    /** Resolved settings for one field path. */
+    private static final class Rule {
+        private final long minLength;
+        private final long maxLength;
+        private final long cardinality;
+        private final List<String> values;
+        private final double min;
+        private final double max;
+        private final double scale;
+        private final boolean skewed;
+        private final double skew;
+        private final double nullRate;
+        private final double trueRate;
+        // Literal text with {n} (value number) and {i} (record index) placeholders split out
+        private final String[] patternParts;
+
+        Rule(Profile profile, String path, String name) {
+            long[] length = parseRange(profile.setting(path, "length", "0..3"), path);
+            this.minLength = length[0];
+            this.maxLength = length[1];
+            this.cardinality = Long.parseLong(profile.setting(path, "cardinality", "1000"));
+            String valueList = profile.setting(path, "values", null);
+            this.values = valueList == null ? null : splitValues(valueList);
+            String rangeSetting = profile.setting(path, "range", "0..1000");
+            String[] range = rangeSetting.split("\\.\\.", 2);
+            this.min = Double.parseDouble(range[0].trim());
+            this.max = range.length == 2 ? Double.parseDouble(range[1].trim()) : min;
+            this.scale = Math.pow(10, Integer.parseInt(profile.setting(path, "scale", "2")));
+            String distribution = profile.setting(path, "distribution", "uniform");
+            if (!distribution.equals("uniform") && !distribution.equals("skewed")) {
+                throw new IllegalArgumentException("Unknown distribution " + distribution + " for " + path + "; expected uniform or skewed");
+            }
+            this.skewed = distribution.equals("skewed");
+            this.skew = Double.parseDouble(profile.setting(path, "skew", "2"));
+            this.nullRate = Double.parseDouble(profile.setting(path, "nullRate", "0"));
+            this.trueRate = Double.parseDouble(profile.setting(path, "trueRate", "0.5"));
+            this.patternParts = splitPattern(profile.setting(path, "pattern", name + "_{n}"));
+            if (minLength < 0 || maxLength < minLength || cardinality <= 0 || max < min) {
+                throw new IllegalArgumentException("Invalid generator settings for " + path);
+            }
+        }
+
+        // Uniform in [0, n), or with "skewed" weighted towards 0 (u^skew), e.g. a few hot customers or short arrays
+        long pick(SplittableRandom random, long n) {
+            if (!skewed) {
+                return random.nextLong(n);
+            }
+            return Math.min(n - 1, (long) (n * Math.pow(random.nextDouble(), skew)));
+        }
+
+        long length(SplittableRandom random) {
+            return minLength + pick(random, maxLength - minLength + 1);
+        }
+
+        long integer(SplittableRandom random) {
+            long low = (long) min;
+            return low + pick(random, (long) max - low + 1);
+        }
+
+        double decimal(SplittableRandom random) {
+            double u = skewed ? Math.pow(random.nextDouble(), skew) : random.nextDouble();
+            return Math.round((min + u * (max - min)) * scale) / scale;
+        }
+
+        Object string(SplittableRandom random, long index) {
+            if (values != null) {
+                return values.get((int) pick(random, values.size()));
+            }
+            StringBuilder value = new StringBuilder(32);
+            for (String part : patternParts) {
+                if (part.equals("{n}")) {
+                    value.append(pick(random, cardinality));
+                } else if (part.equals("{i}")) {
+                    value.append(index);
+                } else {
+                    value.append(part);
+                }
+            }
+            return value.toString();
+        }
+
+        byte[] bytes(SplittableRandom random, int length) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) random.nextInt(256);
+            }
+            return bytes;
+        }
+
+        private static long[] parseRange(String setting, String path) {
+            String[] bounds = setting.split("\\.\\.", 2);
+            try {
+                long low = Long.parseLong(bounds[0].trim());
+                return new long[] {low, bounds.length == 2 ? Long.parseLong(bounds[1].trim()) : low};
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid range " + setting + " for " + path, e);
+            }
+        }
+
+        private static List<String> splitValues(String setting) {
+            List<String> values = new ArrayList<>();
+            for (String value : setting.split(",")) {
+                values.add(value.trim());
+            }
+            return Collections.unmodifiableList(values);
+        }
+
+        private static String[] splitPattern(String pattern) {
+            List<String> parts = new ArrayList<>();
+            int from = 0;
+            while (from < pattern.length()) {
+                int n = pattern.indexOf("{n}", from);
+                int i = pattern.indexOf("{i}", from);
+                int next = n < 0 ? i : (i < 0 ? n : Math.min(n, i));
+                if (next < 0) {
+                    parts.add(pattern.substring(from));
+                    break;
+                }
+                if (next > from) {
+                    parts.add(pattern.substring(from, next));
+                }
+                parts.add(pattern.substring(next, next + 3));
+                from = next + 3;
+            }
+            return parts.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * Generation settings keyed by Avro field path ({@code customer.loyaltyTier}, {@code items.quantity}; array and
+     * map elements share the path of their field), falling back to {@code *.<setting>} and then to the built-in
+     * default. Settings:
+     * <ul>
+     *   <li>{@code length} - array, map and bytes length, {@code min..max} (default {@code 0..3})</li>
+     *   <li>{@code cardinality} - number of distinct generated strings (default 1000)</li>
+     *   <li>{@code pattern} - string template, {@code {n}} is the value number and {@code {i}} the record index
+     *       (default {@code <field>_{n}}); {@code ORD_{i}} gives unique keys</li>
+     *   <li>{@code values} - comma-separated strings or enum symbols to choose from instead</li>
+     *   <li>{@code range} - numeric {@code min..max} (default {@code 0..1000}), {@code scale} - decimals kept for
+     *       float and double (default 2)</li>
+     *   <li>{@code distribution} - {@code uniform} or {@code skewed} towards the low end, with {@code skew} as
+     *       the exponent (default 2)</li>
+     *   <li>{@code nullRate} - share of nulls for nullable unions (default 0), {@code trueRate} for booleans
+     *       (default 0.5)</li>
+     * </ul>
+     */
+    public static final class Profile {
+        private static final Profile DEFAULTS = new Profile(new Properties());
+
+        private final Properties settings;
+
+        private Profile(Properties settings) {
+            this.settings = settings;
+        }
+
+        public static Profile defaults() {
+            return DEFAULTS;
+        }
+
+        public static Profile fromResource(String resource) {
+            InputStream in = Profile.class.getResourceAsStream(resource);
+            if (in == null) {
+                throw new IllegalArgumentException("Generator profile resource not found: " + resource);
+            }
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                return parse(reader);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to load generator profile from " + resource, e);
+            }
+        }
+
+        public static Profile parse(Reader source) throws IOException {
+            Properties settings = new Properties();
+            settings.load(source);
+            return new Profile(settings);
+        }
+
+        Rule ruleFor(String path, String name) {
+            return new Rule(this, path, name);
+        }
+
+        String setting(String path, String key, String fallback) {
+            String value = settings.getProperty(path + "." + key);
+            if (value == null) {
+                value = settings.getProperty("*." + key, fallback);
+            }
+            return value == null ? null : value.trim();
+        }
+    }
+
+    public static class FileResult {
+        private final List<Path> files;
+        private final long records;
+        private final int parts;
+        private final long elapsedNanos;
+
+        FileResult(List<Path> files, long records, int parts, long elapsedNanos) {
+            this.files = Collections.unmodifiableList(files);
+            this.records = records;
+            this.parts = parts;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** Completed files in record index order. */
+        public List<Path> getFiles() {
+            return files;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : records * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d record(s) in %d file(s) from %d writer(s) in %.1f ms (%.0f records/s)",
+                records, files.size(), parts, elapsedNanos / 1e6, getRecordsPerSecond());
+        }
+    }
+}
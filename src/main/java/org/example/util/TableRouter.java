@@ -0,0 +1,293 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.TableId;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes records to the tables configured in {@link BigQueryConfig}, choosing the route by the full name of each
+ * record's schema, so older and newer versions of a schema land in the same table. Every route has its own
+ * {@link BatchingBigQueryWriter}, and the tables of one {@link #write} call are written concurrently, so a slow or
+ * throttled table does not hold up the others.
+ * {@link #warmUp} loads the schemas and field mappings, compiles the row encoders and opens the client on every
+ * table, so configuration mistakes fail at startup rather than on the first write; {@link #write} warms up on first
+ * use if it has not been done.
+ */
+public class TableRouter implements AutoCloseable {
+    private final BigQueryUtil bigQueryUtil;
+    private final BigQueryConfig config;
+    private volatile Map<String, Route> routes;
+    private ExecutorService routeExecutor;
+
+    public TableRouter(BigQueryUtil bigQueryUtil) {
+        this(bigQueryUtil, BigQueryConfig.load());
+    }
+
+    public TableRouter(BigQueryUtil bigQueryUtil, BigQueryConfig config) {
+        if (config.getRoutes().isEmpty()) {
+            throw new IllegalArgumentException("No routes configured; set bigquery.routes");
+        }
+        this.bigQueryUtil = bigQueryUtil;
+        this.config = config;
+    }
+
+    public BigQueryConfig getConfig() {
+        return config;
+    }
+
+    /** Prepares every route; calling it again does nothing. */
+    public synchronized void warmUp() {
+        if (routes != null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Map<String, Route> warmed = new LinkedHashMap<>();
+        // Writers start their threads on the first batch, so the ones created before a failure hold nothing
+        for (BigQueryConfig.Route routeConfig : config.getRoutes()) {
+            Route route = warmUp(routeConfig);
+            Route previous = warmed.putIfAbsent(route.schema.getFullName(), route);
+            if (previous != null) {
+                throw new IllegalStateException("Routes " + previous.config.getName() + " and " + routeConfig.getName()
+                    + " both take schema " + route.schema.getFullName());
+            }
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        routeExecutor = Executors.newFixedThreadPool(warmed.size(), runnable -> {
+            Thread thread = new Thread(runnable, "table-router-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        routes = warmed;
+        Log.info(() -> String.format("Warmed up %d route(s) in %.1f ms on project %s",
+            warmed.size(), (System.nanoTime() - start) / 1e6, bigQueryUtil.getClient().getProjectId()));
+    }
+
+    private Route warmUp(BigQueryConfig.Route routeConfig) {
+        long start = System.nanoTime();
+        Schema schema;
+        try {
+            schema = SchemaRegistry.shared().loadSchema(routeConfig.getSchemaResource());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load schema for route " + routeConfig.getName(), e);
+        }
+        BigQueryRowEncoder encoder = BigQueryRowEncoder.forSchema(schema);
+        BigQueryRowEncoder.toColumnSchema(schema);
+        FieldMappingPlan mappingPlan = null;
+        if (routeConfig.getMappingsResource() != null) {
+            mappingPlan = FieldMappingPlan.fromResource(routeConfig.getMappingsResource());
+            checkMappings(routeConfig, schema, mappingPlan);
+            mappingPlan.toColumnProjection(schema);
+        }
+        if (routeConfig.getKeyColumn() != null && !Arrays.asList(encoder.getColumnNames()).contains(routeConfig.getKeyColumn())) {
+            throw new IllegalStateException("Route " + routeConfig.getName() + " key column " + routeConfig.getKeyColumn()
+                + " is not a column of " + schema.getFullName());
+        }
+        TableId table = bigQueryUtil.tableId(routeConfig.getDatasetId(), routeConfig.getTableId());
+        bigQueryUtil.getClient().warmUp(table);
+        BatchingBigQueryWriter writer = new BatchingBigQueryWriter(bigQueryUtil, routeConfig.getMaxBatchRows(),
+            routeConfig.getMaxBatchBytes(), routeConfig.getMaxInFlight(), BatchingBigQueryWriter.DEFAULT_MAX_RETRIES);
+        Route route = new Route(routeConfig, schema, table, writer, mappingPlan, System.nanoTime() - start);
+        Log.debug(route::toString);
+        return route;
+    }
+
+    // The mappings must name the columns the row encoder writes, or reads by mapping would miss streamed data
+    private static void checkMappings(BigQueryConfig.Route routeConfig, Schema schema, FieldMappingPlan plan) {
+        for (FieldMappingPlan.Mapping mapping : plan.getMappings()) {
+            checkMapping(routeConfig, schema, mapping);
+        }
+    }
+
+    private static void checkMapping(BigQueryConfig.Route routeConfig, Schema recordSchema, FieldMappingPlan.Mapping mapping) {
+        Schema.Field field = recordSchema.getField(mapping.getSource());
+        if (field == null) {
+            throw new IllegalStateException("Route " + routeConfig.getName() + " maps " + mapping.getPath()
+                + " but " + recordSchema.getFullName() + " has no such field");
+        }
+        String column = BigQueryRowEncoder.camelToUnderscore(field.name());
+        if (!column.equals(mapping.getTarget())) {
+            throw new IllegalStateException("Route " + routeConfig.getName() + " maps " + mapping.getPath() + " to "
+                + mapping.getTarget() + " but rows are written with column " + column);
+        }
+        if (mapping.isNested()) {
+            Schema nested = recordOf(field.schema());
+            if (nested == null) {
+                throw new IllegalStateException("Route " + routeConfig.getName() + " maps nested fields of "
+                    + mapping.getPath() + " which is not a record or array of records");
+            }
+            for (FieldMappingPlan.Mapping child : mapping.getChildren()) {
+                checkMapping(routeConfig, nested, child);
+            }
+        }
+    }
+
+    private static Schema recordOf(Schema schema) {
+        switch (schema.getType()) {
+            case RECORD:
+                return schema;
+            case ARRAY:
+                return recordOf(schema.getElementType());
+            case UNION:
+                for (Schema branch : schema.getTypes()) {
+                    if (branch.getType() != Schema.Type.NULL) {
+                        return recordOf(branch);
+                    }
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    public Collection<Route> getRoutes() {
+        warmUp();
+        return Collections.unmodifiableCollection(routes.values());
+    }
+
+    /** The route for records of {@code schema}; throws if no configured route takes its full name. */
+    public Route route(Schema schema) {
+        warmUp();
+        Route route = routes.get(schema.getFullName());
+        if (route == null) {
+            throw new IllegalArgumentException("No route for schema " + schema.getFullName() + "; routes take " + routes.keySet());
+        }
+        return route;
+    }
+
+    /** The route configured under {@code name} in {@code bigquery.routes}. */
+    public Route routeNamed(String name) {
+        for (Route route : getRoutes()) {
+            if (route.config.getName().equals(name)) {
+                return route;
+            }
+        }
+        throw new IllegalArgumentException("No route named " + name);
+    }
+
+    /**
+     * Splits {@code records} by route, keeping their order within each table, and writes the groups concurrently,
+     * each with its route's writer. Every record is checked before anything is written, so an unroutable record
+     * fails the call without a partial write. Returns the result of each write by route name once all are done.
+     */
+    public Map<String, BatchingBigQueryWriter.WriteResult> write(List<? extends GenericRecord> records) throws InterruptedException {
+        Map<Route, List<GenericRecord>> grouped = new LinkedHashMap<>();
+        Schema lastSchema = null;
+        Route lastRoute = null;
+        for (GenericRecord record : records) {
+            if (record.getSchema() != lastSchema) {
+                lastSchema = record.getSchema();
+                lastRoute = route(lastSchema);
+            }
+            grouped.computeIfAbsent(lastRoute, key -> new ArrayList<>()).add(record);
+        }
+        // The first table is written on the calling thread, the others alongside it
+        Map<String, Future<BatchingBigQueryWriter.WriteResult>> futures = new LinkedHashMap<>();
+        Route first = null;
+        for (Map.Entry<Route, List<GenericRecord>> entry : grouped.entrySet()) {
+            Route route = entry.getKey();
+            if (first == null) {
+                first = route;
+                continue;
+            }
+            futures.put(route.config.getName(), routeExecutor.submit(() -> route.write(entry.getValue())));
+        }
+        Map<String, BatchingBigQueryWriter.WriteResult> results = new LinkedHashMap<>();
+        if (first != null) {
+            results.put(first.config.getName(), first.write(grouped.get(first)));
+        }
+        for (Map.Entry<String, Future<BatchingBigQueryWriter.WriteResult>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException("Routed write to " + entry.getKey() + " failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized void close() throws InterruptedException {
+        if (routes != null) {
+            routeExecutor.shutdown();
+            routeExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            for (Route route : routes.values()) {
+                route.writer.close();
+            }
+        }
+    }
+
+    public static final class Route {
+        private final BigQueryConfig.Route config;
+        private final Schema schema;
+        private final TableId table;
+        private final BatchingBigQueryWriter writer;
+        private final FieldMappingPlan mappingPlan;
+        private final long warmUpNanos;
+
+        private Route(BigQueryConfig.Route config, Schema schema, TableId table, BatchingBigQueryWriter writer,
+                      FieldMappingPlan mappingPlan, long warmUpNanos) {
+            this.config = config;
+            this.schema = schema;
+            this.table = table;
+            this.writer = writer;
+            this.mappingPlan = mappingPlan;
+            this.warmUpNanos = warmUpNanos;
+        }
+
+        public BigQueryConfig.Route getConfig() {
+            return config;
+        }
+
+        /** The schema loaded from the route's resource; records of other versions with the same name also route here. */
+        public Schema getSchema() {
+            return schema;
+        }
+
+        public TableId getTable() {
+            return table;
+        }
+
+        public BatchingBigQueryWriter getWriter() {
+            return writer;
+        }
+
+        /** The parsed field mappings, or null when the route has none. */
+        public FieldMappingPlan getMappingPlan() {
+            return mappingPlan;
+        }
+
+        private BatchingBigQueryWriter.WriteResult write(List<GenericRecord> records) throws InterruptedException {
+            return writer.write(table.getDataset(), table.getTable(), records);
+        }
+
+        /** Sink writing an {@link IngestPipeline}'s batches through this route's writer. */
+        public IngestPipeline.Sink sink() {
+            return IngestPipeline.bigQuerySink(writer, table);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Route %s: %s -> %s.%s, warmed up in %.1f ms", config.getName(), schema.getFullName(),
+                table.getDataset(), table.getTable(), TimeUnit.NANOSECONDS.toMicros(warmUpNanos) / 1e3);
+        }
+    }
+}
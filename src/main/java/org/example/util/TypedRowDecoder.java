@@ -0,0 +1,65 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes BigQuery {@link FieldValueList} rows straight into maps of typed Java values (String, Long, Double, Boolean,
+ * BigDecimal, nested maps for STRUCT and lists for ARRAY) without going through a JSON string.
+ */
+public final class TypedRowDecoder {
+    private TypedRowDecoder() {
+    }
+
+    public static Map<String, Object> decode(FieldValueList row, FieldList fields) {
+        Map<String, Object> decoded = new LinkedHashMap<>(fields.size() * 4 / 3 + 1);
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            decoded.put(field.getName(), decodeField(row.get(i), field));
+        }
+        return decoded;
+    }
+
+    private static Object decodeField(FieldValue value, Field field) {
+        if (value == null || value.isNull()) {
+            return field.getMode() == Field.Mode.REPEATED ? new ArrayList<>() : null;
+        }
+        if (field.getMode() == Field.Mode.REPEATED) {
+            List<FieldValue> elements = value.getRepeatedValue();
+            List<Object> decoded = new ArrayList<>(elements.size());
+            for (FieldValue element : elements) {
+                decoded.add(element.isNull() ? null : decodeScalarOrRecord(element, field));
+            }
+            return decoded;
+        }
+        return decodeScalarOrRecord(value, field);
+    }
+
+    private static Object decodeScalarOrRecord(FieldValue value, Field field) {
+        LegacySQLTypeName type = field.getType();
+        if (LegacySQLTypeName.RECORD.equals(type)) {
+            return decode(value.getRecordValue(), field.getSubFields());
+        }
+        if (LegacySQLTypeName.INTEGER.equals(type)) {
+            return value.getLongValue();
+        }
+        if (LegacySQLTypeName.FLOAT.equals(type)) {
+            return value.getDoubleValue();
+        }
+        if (LegacySQLTypeName.BOOLEAN.equals(type)) {
+            return value.getBooleanValue();
+        }
+        if (LegacySQLTypeName.NUMERIC.equals(type) || LegacySQLTypeName.BIGNUMERIC.equals(type)) {
+            return value.getNumericValue();
+        }
+        return value.getStringValue();
+    }
+}
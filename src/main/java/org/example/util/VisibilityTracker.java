@@ -0,0 +1,187 @@
+package org.example.util;
+
+import com.google.cloud.bigquery.TableId;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-your-writes waiter for streamed rows. Keys are recorded as they are written; {@link #awaitVisible} then polls
+ * with one batched key query per table per round, backing off exponentially with jitter, and returns as soon as every
+ * key is queryable or the deadline passes. Time from write to first observed visibility is kept for percentiles.
+ */
+public class VisibilityTracker {
+    private static final long INITIAL_POLL_MILLIS = 50;
+    private static final long MAX_POLL_MILLIS = 2000;
+    // Keeps each poll's @keys array parameter well inside BigQuery's query size limits
+    private static final int MAX_KEYS_PER_QUERY = 10_000;
+
+    private final BigQueryClient client;
+    private final String keyColumn;
+    private final Map<TableId, Map<String, Long>> pending = new LinkedHashMap<>();
+    private final List<Long> visibilityNanos = new ArrayList<>();
+
+    public VisibilityTracker(BigQueryClient client, String keyColumn) {
+        this.client = client;
+        this.keyColumn = keyColumn;
+    }
+
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    public synchronized void recordWrites(TableId table, Collection<String> keys) {
+        long now = System.nanoTime();
+        Map<String, Long> tableKeys = pending.computeIfAbsent(table, t -> new LinkedHashMap<>());
+        for (String key : keys) {
+            tableKeys.putIfAbsent(key, now);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        int count = 0;
+        for (Map<String, Long> keys : pending.values()) {
+            count += keys.size();
+        }
+        return count;
+    }
+
+    public Result awaitVisible(Duration timeout) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        long backoff = INITIAL_POLL_MILLIS;
+        int polls = 0;
+        int observed = 0;
+        while (true) {
+            polls++;
+            Map<TableId, List<String>> snapshot = snapshotPending();
+            for (Map.Entry<TableId, List<String>> entry : snapshot.entrySet()) {
+                List<String> keys = entry.getValue();
+                for (int from = 0; from < keys.size(); from += MAX_KEYS_PER_QUERY) {
+                    List<String> chunk = keys.subList(from, Math.min(keys.size(), from + MAX_KEYS_PER_QUERY));
+                    Set<String> visible = client.findVisibleKeys(entry.getKey(), keyColumn, chunk);
+                    observed += markVisible(entry.getKey(), visible, System.nanoTime());
+                }
+            }
+            int remaining = getPendingCount();
+            long now = System.nanoTime();
+            if (remaining == 0 || now - deadline >= 0) {
+                Metrics.shared().record(Metrics.Phase.VISIBILITY_WAIT, now - start, observed, 0);
+                Metrics.shared().recordErrors(Metrics.Phase.VISIBILITY_WAIT, remaining);
+                return new Result(observed, remaining, polls, now - start, percentiles());
+            }
+            // Equal jitter (half the backoff fixed, half random) keeps concurrent waiters from polling in lockstep
+            long sleep = Math.min(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1),
+                TimeUnit.NANOSECONDS.toMillis(deadline - now) + 1);
+            Thread.sleep(sleep);
+            backoff = Math.min(MAX_POLL_MILLIS, backoff * 2);
+        }
+    }
+
+    /**
+     * Write-to-visibility latency in milliseconds at the given percentile (0-100) over every key seen so far.
+     */
+    public synchronized double getPercentileMillis(double percentile) {
+        return percentile(sortedNanos(), percentile);
+    }
+
+    private synchronized Map<TableId, List<String>> snapshotPending() {
+        Map<TableId, List<String>> snapshot = new LinkedHashMap<>();
+        pending.forEach((table, keys) -> snapshot.put(table, new ArrayList<>(keys.keySet())));
+        return snapshot;
+    }
+
+    private synchronized int markVisible(TableId table, Set<String> visible, long now) {
+        Map<String, Long> tableKeys = pending.get(table);
+        if (tableKeys == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Iterator<Map.Entry<String, Long>> it = tableKeys.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            if (visible.contains(entry.getKey())) {
+                visibilityNanos.add(now - entry.getValue());
+                it.remove();
+                count++;
+            }
+        }
+        if (tableKeys.isEmpty()) {
+            pending.remove(table);
+        }
+        return count;
+    }
+
+    private synchronized double[] percentiles() {
+        long[] sorted = sortedNanos();
+        return new double[] {percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 100)};
+    }
+
+    private long[] sortedNanos() {
+        long[] sorted = new long[visibilityNanos.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = visibilityNanos.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    public static class Result {
+        private final int visibleKeys;
+        private final int pendingKeys;
+        private final int polls;
+        private final long elapsedNanos;
+        private final double[] percentilesMillis;
+
+        Result(int visibleKeys, int pendingKeys, int polls, long elapsedNanos, double[] percentilesMillis) {
+            this.visibleKeys = visibleKeys;
+            this.pendingKeys = pendingKeys;
+            this.polls = polls;
+            this.elapsedNanos = elapsedNanos;
+            this.percentilesMillis = percentilesMillis;
+        }
+
+        public boolean isAllVisible() {
+            return pendingKeys == 0;
+        }
+
+        public int getVisibleKeys() {
+            return visibleKeys;
+        }
+
+        public int getPendingKeys() {
+            return pendingKeys;
+        }
+
+        public int getPolls() {
+            return polls;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d key(s) visible, %d pending after %d poll(s) in %.1f ms; time-to-visibility p50=%.1f ms p90=%.1f ms p99=%.1f ms max=%.1f ms",
+                visibleKeys, pendingKeys, polls, elapsedNanos / 1e6,
+                percentilesMillis[0], percentilesMillis[1], percentilesMillis[2], percentilesMillis[3]);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example;
+
+import io.cucumber.plugin.ConcurrentEventListener;
+import io.cucumber.plugin.event.EventPublisher;
+import io.cucumber.plugin.event.TestRunFinished;
+import org.example.util.Log;
+import org.example.util.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the phase metrics recorded during the run as JSON next to the Cucumber report, and logs a summary.
+ */
+public class MetricsSummaryPlugin implements ConcurrentEventListener {
+    private final File output;
+
+    public MetricsSummaryPlugin(File output) {
+        this.output = output;
+    }
+
+    @Override
+    public void setEventPublisher(EventPublisher publisher) {
+        publisher.registerHandlerFor(TestRunFinished.class, event -> writeSummary());
+    }
+
+    private void writeSummary() {
+        Log.info(Metrics.shared()::toString);
+        try {
+            Metrics.shared().writeJson(output.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write metrics to " + output, e);
+        }
+    }
+}
@@ -1,14 +1,18 @@
 package org.example;
 
-import io.cucumber.junit.Cucumber;
-import io.cucumber.junit.CucumberOptions;
-import org.junit.runner.RunWith;
+import org.junit.platform.suite.api.ConfigurationParameter;
+import org.junit.platform.suite.api.IncludeEngines;
+import org.junit.platform.suite.api.SelectClasspathResource;
+import org.junit.platform.suite.api.Suite;
 
-@RunWith(Cucumber.class)
-@CucumberOptions(
-    features = "src/test/resources/features",
-    glue = "org.example.steps",
-    plugin = {"pretty", "html:target/cucumber-reports"}
-)
+import static io.cucumber.junit.platform.engine.Constants.GLUE_PROPERTY_NAME;
+import static io.cucumber.junit.platform.engine.Constants.PLUGIN_PROPERTY_NAME;
+
+@Suite
+@IncludeEngines("cucumber")
+@SelectClasspathResource("features")
+@ConfigurationParameter(key = GLUE_PROPERTY_NAME, value = "org.example.steps")
+@ConfigurationParameter(key = PLUGIN_PROPERTY_NAME,
+    value = "pretty, html:target/cucumber-reports, org.example.MetricsSummaryPlugin:target/cucumber-metrics.json")
 public class TestRunner {
-}
\ No newline at end of file
+}
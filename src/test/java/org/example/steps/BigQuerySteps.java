@@ -1,30 +1,68 @@
 package org.example.steps;
 
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.TableId;
 import io.cucumber.datatable.DataTable;
 import io.cucumber.java.After;
+import io.cucumber.java.AfterAll;
 import io.cucumber.java.en.Given;
 import io.cucumber.java.en.Then;
 import io.cucumber.java.en.When;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.example.model.Order;
+import org.example.util.AvroBinaryCodec;
+import org.example.util.AvroLoadJobWriter;
 import org.example.util.AvroUtil;
+import org.example.util.BatchingBigQueryWriter;
+import org.example.util.BigQueryClient;
+import org.example.util.BigQueryConfig;
+import org.example.util.BigQueryRowEncoder;
 import org.example.util.BigQueryUtil;
+import org.example.util.DirectoryTailSource;
+import org.example.util.FieldMappingPlan;
+import org.example.util.FingerprintReconciler;
+import org.example.util.InMemoryBigQueryClient;
+import org.example.util.IngestPipeline;
+import org.example.util.InsertCoalescer;
+import org.example.util.JsonUtil;
+import org.example.util.KeyedRowReader;
+import org.example.util.Log;
+import org.example.util.OrderColumnBuffer;
+import org.example.util.RecordValidator;
+import org.example.util.ResolvingRecordDecoder;
+import org.example.util.RowSpool;
+import org.example.util.SchemaRegistry;
+import org.example.util.SpoolReplayer;
+import org.example.util.SyntheticRecordGenerator;
+import org.example.util.TableRouter;
+import org.example.util.VisibilityTracker;
 
 import java.util.*;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
-import org.example.util.JsonUtil;
-import com.fasterxml.jackson.databind.JsonNode;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.LinkedHashSet;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 
 public class BigQuerySteps {
     private List<Map<String, Object>> cucumberData;
@@ -34,48 +72,66 @@ public class BigQuerySteps {
     private Schema schema;
     private String datasetId;
     private String tableId;
-    private String timestampSuffix;
+    private String runId;
+    private VisibilityTracker visibilityTracker;
+    private OrderColumnBuffer stagedOrders;
+    private TableId routedEventsTable;
+    private JsonUtil.JsonComparison jsonComparison;
+    private List<String> routedEventOrderIds;
 
     
+    // -Dbigquery.client=in-memory runs the scenarios against InMemoryBigQueryClient instead of the live service
+    private static final BigQueryClient IN_MEMORY_CLIENT = "in-memory".equals(System.getProperty("bigquery.client"))
+            ? new InMemoryBigQueryClient() : null;
+    
+    // Scenarios run on several threads and share one client; their inserts are merged into common batches
+    private static volatile BigQueryUtil sharedBigQueryUtil;
+    private static InsertCoalescer sharedInserts;
+    
+    // Random per process, sequential per scenario, so order ids never collide between threads or concurrent runs
+    private static final String RUN_ID_PREFIX = UUID.randomUUID().toString().substring(0, 8);
+    private static final AtomicInteger RUN_SEQUENCE = new AtomicInteger();
+    
     public BigQuerySteps() {
-        this.bigQueryUtil = new BigQueryUtil();
+        this.bigQueryUtil = sharedBigQueryUtil();
+        // Per scenario, fed with this scenario's order ids only; the shared util carries rows of every scenario
+        this.visibilityTracker = new VisibilityTracker(bigQueryUtil.getClient(), "order_id");
     }
     
-    private static final Map<String, String> fieldMappings = loadFieldMappings();
-    
-    private static Map<String, String> loadFieldMappings() {
-        Map<String, String> props = new LinkedHashMap<>();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                Objects.requireNonNull(BigQuerySteps.class.getResourceAsStream("/field-mappings.properties"))))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (!line.isEmpty() && !line.startsWith("#")) {
-                    String[] parts = line.split("=", 2);
-                    if (parts.length == 2) {
-                        props.put(parts[0], parts[1]);
-                    }
+    private static BigQueryUtil sharedBigQueryUtil() {
+        BigQueryUtil util = sharedBigQueryUtil;
+        if (util == null) {
+            synchronized (BigQuerySteps.class) {
+                util = sharedBigQueryUtil;
+                if (util == null) {
+                    util = IN_MEMORY_CLIENT != null ? new BigQueryUtil(IN_MEMORY_CLIENT) : new BigQueryUtil();
+                    sharedInserts = new InsertCoalescer(util);
+                    util.coalesceInserts(sharedInserts);
+                    sharedBigQueryUtil = util;
                 }
             }
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load field mappings", e);
         }
-        return props;
+        return util;
     }
     
-
+    private static String nextRunId() {
+        return RUN_ID_PREFIX + "-" + RUN_SEQUENCE.incrementAndGet();
+    }
+    
+    // Parsed once; validators walk the compiled tree instead of re-splitting the mapping strings per record
+    private static final FieldMappingPlan fieldMappingPlan = FieldMappingPlan.fromResource("/field-mappings.properties");
     
     @Given("I have complete order data from Cucumber:")
     public void i_have_complete_order_data_from_cucumber(DataTable dataTable) throws Exception {
-        timestampSuffix = String.valueOf(System.currentTimeMillis());
+        runId = nextRunId();
         cucumberData = new ArrayList<>();
         List<Map<String, String>> rows = dataTable.asMaps(String.class, String.class);
         
         for (Map<String, String> row : rows) {
             Map<String, Object> orderData = new HashMap<>();
             
-            // Order basic info with timestamp suffix
-            orderData.put("orderId", row.get("orderId") + "_" + timestampSuffix);
+            // Order basic info with the run id suffix
+            orderData.put("orderId", row.get("orderId") + "_" + runId);
             orderData.put("orderDate", row.get("orderDate"));
             orderData.put("paymentMethod", row.get("paymentMethod"));
             orderData.put("status", row.get("status"));
@@ -116,160 +172,427 @@ public class BigQuerySteps {
             cucumberData.add(orderData);
         }
         
+        // Cached after the first scenario; the fingerprint identifies the schema instead of dumping every field
         schema = AvroUtil.loadSchema("orders.avro");
-        System.out.println("DEBUG: Loaded schema: " + schema);
-        System.out.println("DEBUG: Schema fields:");
-        for (Schema.Field field : schema.getFields()) {
-            System.out.println("DEBUG: Field name: " + field.name() + ", type: " + field.schema().getType());
+        Log.info("Loaded schema " + schema.getFullName() + " (" + schema.getFields().size()
+                + " fields, fingerprint " + Long.toHexString(SchemaRegistry.fingerprint(schema)) + ")");
+    }
+    
+    @Given("I have {int} synthetic orders generated with seed {long}")
+    public void i_have_synthetic_orders_generated_with_seed(int count, long seed) throws Exception {
+        runId = nextRunId();
+        schema = AvroUtil.loadSchema("orders.avro");
+        SyntheticRecordGenerator generator = new SyntheticRecordGenerator(schema, seed,
+                SyntheticRecordGenerator.Profile.fromResource("/synthetic-orders.properties"));
+        List<GenericRecord> generated = generator.generate(0, count);
+        
+        // Same seed, same orders; the run id suffix keeps order ids unique across scenarios and runs against a shared table
+        cucumberData = new ArrayList<>(count);
+        for (GenericRecord record : generated) {
+            Map<String, Object> orderData = AvroUtil.toMap(record);
+            orderData.put("orderId", orderData.get("orderId") + "_" + runId);
+            cucumberData.add(orderData);
         }
+        Log.info("Generated " + count + " synthetic orders with seed " + seed + ", first: " + cucumberData.get(0));
     }
     
     @When("I create Avro request from schema using the data")
     public void i_create_avro_request_from_schema_using_the_data() throws Exception {
-        System.out.println("DEBUG: Creating Avro records from Cucumber data:");
-        for (int i = 0; i < cucumberData.size(); i++) {
-            System.out.println("DEBUG: Cucumber data [" + i + "]: " + cucumberData.get(i));
+        if (Log.isDebugEnabled()) {
+            Log.debug("Creating Avro records from Cucumber data:");
+            for (int i = 0; i < cucumberData.size(); i++) {
+                Log.debug("Cucumber data [" + i + "]: " + cucumberData.get(i));
+            }
         }
         
         avroRecords = AvroUtil.createAvroRequestFromData(cucumberData, schema);
         
-        System.out.println("DEBUG: Created Avro records:");
-        for (int i = 0; i < avroRecords.size(); i++) {
-            System.out.println("DEBUG: Avro record [" + i + "]: " + avroRecords.get(i));
+        if (Log.isDebugEnabled()) {
+            Log.debug("Created Avro records:");
+            for (int i = 0; i < avroRecords.size(); i++) {
+                Log.debug("Avro record [" + i + "]: " + avroRecords.get(i));
+            }
         }
     }
     
-    @When("I load the Avro request to BigQuery table {string}")
-    public void i_load_the_avro_request_to_bigquery_table(String tableName) throws Exception {
+    @Then("the typed Order records should encode identically to the generic records")
+    public void the_typed_order_records_should_encode_identically_to_the_generic_records() {
+        // The generated SpecificRecord path must produce the same Avro binary as the generic one
+        List<Order> orders = AvroUtil.createOrdersFromData(cucumberData);
+        AvroBinaryCodec<GenericRecord> genericCodec = AvroBinaryCodec.generic(schema);
+        AvroBinaryCodec<Order> orderCodec = AvroBinaryCodec.specific(Order.class);
+        assertEquals("Typed record count should match", avroRecords.size(), orders.size());
+        for (int i = 0; i < orders.size(); i++) {
+            byte[] encoded = orderCodec.encode(orders.get(i));
+            assertArrayEquals("Typed encoding should match for " + orders.get(i).getOrderId(),
+                    genericCodec.encode(avroRecords.get(i)), encoded);
+            assertEquals("Typed record should round trip", orders.get(i), orderCodec.decode(encoded));
+        }
+        Log.info(orders.size() + " typed Order record(s) encode identically to the generic records");
+    }
+    
+    @Then("the Avro records should round trip through single-object encoding")
+    public void the_avro_records_should_round_trip_through_single_object_encoding() throws Exception {
+        // The writer registers the schema in a file-backed store; a separate registry on the same directory
+        // stands in for a consumer process that only knows the fingerprint in each message header
+        Path storeDirectory = Files.createTempDirectory("schema-registry");
+        storeDirectory.toFile().deleteOnExit();
+        SchemaRegistry writerRegistry = new SchemaRegistry(storeDirectory);
+        List<byte[]> messages = new ArrayList<>(avroRecords.size());
+        for (GenericRecord record : avroRecords) {
+            messages.add(writerRegistry.encodeMessage(record));
+        }
+        for (File stored : storeDirectory.toFile().listFiles()) {
+            stored.deleteOnExit();
+        }
+        SchemaRegistry readerRegistry = new SchemaRegistry(storeDirectory);
+        long fingerprint = SchemaRegistry.fingerprint(schema);
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals("Message should carry the writer schema fingerprint", fingerprint, SchemaRegistry.fingerprintOf(messages.get(i)));
+            assertEquals("Record should round trip", avroRecords.get(i), readerRegistry.decodeMessage(messages.get(i), schema));
+        }
+        Log.info(messages.size() + " single-object message(s) round tripped through schema "
+                + Long.toHexString(fingerprint) + " stored in " + storeDirectory);
+    }
+    
+    @Then("orders written with the previous schema version should decode into the current schema")
+    @SuppressWarnings("unchecked")
+    public void orders_written_with_the_previous_schema_version_should_decode_into_the_current_schema() throws Exception {
+        // The previous version had an int quantity and a couponCode field that has since been dropped
+        Schema previousSchema = AvroUtil.loadSchema("schemas/orders-v1.avro");
+        SyntheticRecordGenerator generator = new SyntheticRecordGenerator(previousSchema, 7,
+                SyntheticRecordGenerator.Profile.fromResource("/synthetic-orders.properties"));
+        for (int i = 0; i < 100; i++) {
+            GenericRecord previous = generator.record(i);
+            byte[] message = SchemaRegistry.shared().encodeMessage(previous);
+            GenericRecord current = AvroUtil.decodeMessage(message, schema);
+            
+            Map<String, Object> expected = AvroUtil.toMap(previous);
+            expected.remove("couponCode");
+            for (Map<String, Object> item : (List<Map<String, Object>>) expected.get("items")) {
+                item.put("quantity", ((Integer) item.get("quantity")).longValue());
+            }
+            assertEquals("Previous-version order should decode into the current schema", expected, AvroUtil.toMap(current));
+        }
+        Log.info("100 previous-version orders decoded into " + schema.getFullName());
+    }
+    
+    @When("I stage the order data in a columnar buffer")
+    public void i_stage_the_order_data_in_a_columnar_buffer() {
+        stagedOrders = AvroUtil.stageOrdersFromData(cucumberData);
+        Log.info("Staged " + stagedOrders);
+    }
+    
+    @Then("the staged columns should encode identically to the Avro records")
+    public void the_staged_columns_should_encode_identically_to_the_avro_records() throws Exception {
+        // Rows, Avro binary and rebuilt records read from the columns must match what the record paths produce
+        BigQueryRowEncoder rowEncoder = BigQueryRowEncoder.forSchema(schema);
+        AvroBinaryCodec<GenericRecord> genericCodec = AvroBinaryCodec.generic(schema);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        BinaryEncoder encoder = null;
+        assertEquals("Staged order count should match", avroRecords.size(), stagedOrders.size());
+        for (int i = 0; i < stagedOrders.size(); i++) {
+            GenericRecord record = avroRecords.get(i);
+            assertEquals("Staged row should match for " + record.get("orderId"), rowEncoder.encode(record), stagedOrders.encode(i));
+            encoded.reset();
+            encoder = EncoderFactory.get().directBinaryEncoder(encoded, encoder);
+            stagedOrders.writeAvro(i, encoder);
+            assertArrayEquals("Staged Avro encoding should match for " + record.get("orderId"),
+                    genericCodec.encode(record), encoded.toByteArray());
+            assertEquals("Staged order should rebuild the record", AvroUtil.toMap(record), AvroUtil.toMap(stagedOrders.toRecord(i)));
+        }
+        Log.info(stagedOrders.size() + " staged order(s) encode identically to the Avro records");
+    }
+    
+    @When("I stream the staged columns into BigQuery table {string}")
+    public void i_stream_the_staged_columns_into_bigquery_table(String tableName) throws Exception {
         String[] parts = tableName.split("\\.");
         datasetId = parts[0];
         tableId = parts[1];
         
-        bigQueryUtil.insertDataAsJson(datasetId, tableId, avroRecords);
+        bigQueryUtil.insertColumnsAsJson(datasetId, tableId, stagedOrders);
+        visibilityTracker.recordWrites(bigQueryUtil.tableId(datasetId, tableId), orderIds());
         
-        Thread.sleep(5000);
+        VisibilityTracker.Result visibility = visibilityTracker.awaitVisible(Duration.ofSeconds(30));
+        Log.info("Visibility: " + visibility);
+        assertTrue("Rows should become visible: " + visibility, visibility.isAllVisible());
     }
     
-    @Then("I should retrieve the same data from BigQuery")
-    public void i_should_retrieve_the_same_data_from_bigquery() throws Exception {
-        // Get data as JSON for easier validation
-        List<String> jsonData = bigQueryUtil.queryDataAsJson(datasetId, tableId, timestampSuffix);
+    @When("I load the staged columns as Avro files into BigQuery table {string}")
+    public void i_load_the_staged_columns_as_avro_files_into_bigquery_table(String tableName) throws Exception {
+        String[] parts = tableName.split("\\.");
+        datasetId = parts[0];
+        tableId = parts[1];
         
-        System.out.println("DEBUG: Retrieved JSON data from BigQuery:");
-        for (int i = 0; i < jsonData.size(); i++) {
-            System.out.println("DEBUG: JSON data [" + i + "]: " + jsonData.get(i));
-        }
+        bigQueryUtil.loadColumnsAsAvro(datasetId, tableId, stagedOrders);
+        visibilityTracker.recordWrites(bigQueryUtil.tableId(datasetId, tableId), orderIds());
+        
+        VisibilityTracker.Result visibility = visibilityTracker.awaitVisible(Duration.ofSeconds(30));
+        Log.info("Visibility: " + visibility);
+        assertTrue("Rows should become visible: " + visibility, visibility.isAllVisible());
     }
-
-    @Then("the retrieved JSON data should match the original data structure")
-    public void the_retrieved_json_data_should_match_the_original_data_structure() throws Exception {
-        List<String> jsonData = bigQueryUtil.queryDataAsJson(datasetId, tableId, timestampSuffix);
-        assertEquals("JSON data count should match", cucumberData.size(), jsonData.size());
+    
+    @When("I load the Avro request to BigQuery table {string} in Avro files of at most {long} bytes")
+    public void i_load_the_avro_request_to_bigquery_table_in_avro_files_of_at_most_bytes(String tableName, long maxFileBytes) throws Exception {
+        String[] parts = tableName.split("\\.");
+        datasetId = parts[0];
+        tableId = parts[1];
         
-        for (int i = 0; i < cucumberData.size(); i++) {
-            validateRecord(cucumberData.get(i), jsonData.get(i));
+        // Small files, so the writer rolls and each file is uploaded while the next one is written
+        Path directory = Files.createTempDirectory("bigquery-load-");
+        directory.toFile().deleteOnExit();
+        try (AvroLoadJobWriter writer = new AvroLoadJobWriter(bigQueryUtil, bigQueryUtil.tableId(datasetId, tableId), directory,
+                AvroLoadJobWriter.DEFAULT_CODEC, maxFileBytes)) {
+            writer.appendAll(avroRecords);
+            long loadedRows = writer.finish();
+            Log.info("Loaded " + loadedRows + " rows from " + writer.getFileCount() + " Avro file(s)");
+            assertTrue("Records should be spread over several files", writer.getFileCount() > 1);
+            assertEquals("Every record should be loaded", avroRecords.size(), loadedRows);
         }
+        visibilityTracker.recordWrites(bigQueryUtil.tableId(datasetId, tableId), orderIds());
+        
+        VisibilityTracker.Result visibility = visibilityTracker.awaitVisible(Duration.ofSeconds(30));
+        Log.info("Visibility: " + visibility);
+        assertTrue("Rows should become visible: " + visibility, visibility.isAllVisible());
     }
     
-    private void validateRecord(Map<String, Object> originalData, String retrievedJson) throws Exception {
-        System.out.println("\n=== Starting Record Validation ===");
-        
-        // Parse JSON data for validation
-        JsonNode original = JsonUtil.parseJson(JsonUtil.toJson(originalData));
-        JsonNode retrieved = JsonUtil.parseJson(retrievedJson);
+    @When("I load the Avro request to BigQuery table {string}")
+    public void i_load_the_avro_request_to_bigquery_table(String tableName) throws Exception {
+        String[] parts = tableName.split("\\.");
+        datasetId = parts[0];
+        tableId = parts[1];
         
-        // Validate each field in properties file order
-        fieldMappings.keySet().forEach(field -> {
-            String config = fieldMappings.get(field);
-            System.out.println("\nValidating field: " + field + " with config: " + config);
-            
-            // Check if field has nested mappings (contains [ or {)
-            if (config.contains("[") || config.contains("{")) {
-                System.out.println("  -> Nested field detected");
-                validateNestedField(original, retrieved, field, config);
-            } else {
-                System.out.println("  -> Simple field detected");
-                // Simple field validation
-                validate(original.get(field), retrieved.get(config), field, config);
-            }
-        });
+        bigQueryUtil.insertDataAsJson(datasetId, tableId, avroRecords);
+        visibilityTracker.recordWrites(bigQueryUtil.tableId(datasetId, tableId), orderIds());
         
-        System.out.println("\n=== Record Validation Complete ===\n");
+        // Poll until the inserted order ids are queryable instead of sleeping a fixed 5 seconds
+        VisibilityTracker.Result visibility = visibilityTracker.awaitVisible(Duration.ofSeconds(30));
+        Log.info("Visibility: " + visibility);
+        assertTrue("Rows should become visible: " + visibility, visibility.isAllVisible());
     }
     
-    private void validateNestedField(JsonNode original, JsonNode retrieved, String field, String config) {
-        // Parse BigQuery field name and mappings
-        String bqField, mappingsStr;
-
-        // shippingAddress=shipping_address:{street=street,city=city,state=state,zipCode=zip_code,country=country}
-        if (config.contains(":")) {
-            String[] parts = config.split(":");
-            bqField = parts[0];
-            mappingsStr = parts[1];
-            System.out.println("    BigQuery field: " + bqField + ", Mappings: " + mappingsStr);
+    @When("I stream the Avro request through the ingest pipeline into BigQuery table {string}")
+    public void i_stream_the_avro_request_through_the_ingest_pipeline_into_bigquery_table(String tableName) throws Exception {
+        String[] parts = tableName.split("\\.");
+        datasetId = parts[0];
+        tableId = parts[1];
+        
+        // The orders are spread over two message files, as a producer rolling its output would leave them
+        Path messageDirectory = Files.createTempDirectory("ingest-messages");
+        messageDirectory.toFile().deleteOnExit();
+        List<byte[]> messages = new ArrayList<>(avroRecords.size());
+        for (GenericRecord record : avroRecords) {
+            messages.add(SchemaRegistry.shared().encodeMessage(record));
         }
-        // items=[productId=product_id,productName=product_name,quantity=quantity,unitPrice=unit_price,category=category]
-        else {
-            bqField = field;
-            mappingsStr = config;
-            System.out.println("    Using field name as BigQuery field: " + bqField);
+        int half = messages.size() / 2;
+        Path first = messageDirectory.resolve("orders-00000.msgs");
+        Path second = messageDirectory.resolve("orders-00001.msgs");
+        DirectoryTailSource.appendMessages(first, messages.subList(0, half));
+        DirectoryTailSource.appendMessages(second, messages.subList(half, messages.size()));
+        first.toFile().deleteOnExit();
+        second.toFile().deleteOnExit();
+        
+        // Small batches and queues, so size flushes and backpressure both happen
+        IngestPipeline.Stats stats;
+        try (BatchingBigQueryWriter writer = new BatchingBigQueryWriter(bigQueryUtil);
+             IngestPipeline pipeline = new IngestPipeline(new DirectoryTailSource(messageDirectory, false),
+                     new ResolvingRecordDecoder(SchemaRegistry.shared()), schema,
+                     IngestPipeline.bigQuerySink(writer, bigQueryUtil.tableId(datasetId, tableId)), 100, 50, 64, 2, 2)) {
+            stats = pipeline.start().awaitCompletion();
         }
+        assertEquals("Every message should be read", avroRecords.size(), stats.getMessagesRead());
+        assertEquals("Every message should be decoded", 0, stats.getDecodeFailures());
+        assertEquals("Every row should be written", avroRecords.size(), stats.getRowsWritten());
+        visibilityTracker.recordWrites(bigQueryUtil.tableId(datasetId, tableId), orderIds());
         
-        // Extract field mappings from brackets/braces
-        String content = mappingsStr.substring(1, mappingsStr.length() - 1);
-        System.out.println("    Field mappings: " + content);
+        VisibilityTracker.Result visibility = visibilityTracker.awaitVisible(Duration.ofSeconds(30));
+        Log.info("Visibility: " + visibility);
+        assertTrue("Rows should become visible: " + visibility, visibility.isAllVisible());
+    }
+    
+    @When("I load the Avro request to BigQuery table {string} while the first {int} inserts are throttled")
+    public void i_load_the_avro_request_to_bigquery_table_while_the_first_inserts_are_throttled(String tableName, int throttledInserts) throws Exception {
+        String[] parts = tableName.split("\\.");
+        datasetId = parts[0];
+        tableId = parts[1];
         
-        // Get nodes for validation
-        JsonNode origNode = original.get(field);
-        JsonNode retrievedNode = retrieved.get(bqField);
+        // Quota errors for the first inserts, whether the initial write or the replays
+        AtomicInteger remainingThrottles = new AtomicInteger(throttledInserts);
+        BigQueryUtil throttledUtil = new BigQueryUtil(bigQueryUtil.getClient()) {
+            @Override
+            public Map<Long, List<BigQueryError>> insertRows(TableId table, List<InsertAllRequest.RowToInsert> rows) {
+                if (remainingThrottles.getAndDecrement() > 0) {
+                    throw new BigQueryException(403, "Quota exceeded", new BigQueryError("rateLimitExceeded", "", "Quota exceeded"));
+                }
+                return super.insertRows(table, rows);
+            }
+        };
+        VisibilityTracker throttledTracker = throttledUtil.trackVisibility("order_id");
         
-        // Null check
-        System.out.println("    Null check - Original: " + (origNode != null) + ", Retrieved: " + (retrievedNode != null));
-        assertEquals(field + " should both be present or both be null", origNode != null, retrievedNode != null);
+        Path spoolDirectory = Files.createTempDirectory("row-spool");
+        spoolDirectory.toFile().deleteOnExit();
+        try (RowSpool spool = new RowSpool(spoolDirectory, 64 * 1024)) {
+            throttledUtil.spoolFailedRows(spool);
+            throttledUtil.insertDataAsJson(datasetId, tableId, avroRecords);
+            assertEquals("Throttled rows should be spooled", avroRecords.size(), spool.getDepth());
+        }
         
-        if (origNode != null && retrievedNode != null) {
-            if (origNode.isArray()) {
-                System.out.println("    -> Array type detected, size: " + origNode.size());
-                // Validate each mapping for arrays
-                for (String mapping : content.split(",")) {
-                    String[] kv = mapping.split("=");
-                    validateArrayField(origNode, retrievedNode, field, kv);
+        // Reopened as a restarted process would, then drained once the quota recovers
+        try (RowSpool spool = new RowSpool(spoolDirectory, 64 * 1024);
+             SpoolReplayer replayer = new SpoolReplayer(spool, throttledUtil, 10000, 100, null)) {
+            assertEquals("Spooled rows should survive reopening", avroRecords.size(), spool.getDepth());
+            Log.info(spool.toString());
+            replayer.start();
+            assertTrue("Spool should drain: " + replayer, replayer.awaitDrained(60, TimeUnit.SECONDS));
+            Log.info(replayer.toString());
+            assertEquals("Every spooled row should be replayed", avroRecords.size(), replayer.getRowsReplayed());
+        }
+        try (Stream<Path> files = Files.walk(spoolDirectory)) {
+            files.forEach(file -> file.toFile().deleteOnExit());
+        }
+        
+        VisibilityTracker.Result visibility = throttledTracker.awaitVisible(Duration.ofSeconds(30));
+        Log.info("Visibility: " + visibility);
+        assertTrue("Rows should become visible: " + visibility, visibility.isAllVisible());
+    }
+    
+    @When("I route the Avro request and {int} order events through the table router configured in {string}")
+    public void i_route_the_avro_request_and_order_events_through_the_table_router(int eventCount, String resource) throws Exception {
+        try (TableRouter router = new TableRouter(bigQueryUtil, BigQueryConfig.fromResource("/" + resource))) {
+            // Schemas, encoders, mappings and tables are all checked here, before the first record is written
+            router.warmUp();
+            TableRouter.Route orders = router.routeNamed("orders");
+            TableRouter.Route events = router.routeNamed("order_events");
+            assertTrue("Orders route should carry its field mappings", orders.getMappingPlan() != null);
+            
+            // One event per order for the first orders, interleaved with them as they would arrive on one topic
+            List<String> ids = orderIds();
+            routedEventOrderIds = new ArrayList<>(ids.subList(0, Math.min(eventCount, ids.size())));
+            List<GenericRecord> mixed = new ArrayList<>(avroRecords.size() + routedEventOrderIds.size());
+            for (int i = 0; i < avroRecords.size(); i++) {
+                mixed.add(avroRecords.get(i));
+                if (i < routedEventOrderIds.size()) {
+                    GenericRecord event = new GenericData.Record(events.getSchema());
+                    event.put("orderId", routedEventOrderIds.get(i));
+                    event.put("eventType", "CREATED");
+                    event.put("eventTime", (long) i);
+                    mixed.add(event);
                 }
-            } else {
-                System.out.println("    -> Object type detected");
-                // Validate each mapping for objects
-                for (String mapping : content.split(",")) {
-                    String[] kv = mapping.split("=");
-                    validateObjectField(origNode, retrievedNode, field, kv);
+            }
+            
+            Map<String, BatchingBigQueryWriter.WriteResult> results = router.write(mixed);
+            assertEquals("Every order should be routed to the orders table", avroRecords.size(), results.get("orders").getTotalRows());
+            assertEquals("Every event should be routed to the events table", routedEventOrderIds.size(), results.get("order_events").getTotalRows());
+            for (BatchingBigQueryWriter.WriteResult result : results.values()) {
+                assertTrue("Routed write should succeed: " + result, !result.hasFailures());
+            }
+            
+            datasetId = orders.getTable().getDataset();
+            tableId = orders.getTable().getTable();
+            routedEventsTable = events.getTable();
+            visibilityTracker.recordWrites(orders.getTable(), ids);
+            visibilityTracker.recordWrites(routedEventsTable, routedEventOrderIds);
+        }
+        VisibilityTracker.Result visibility = visibilityTracker.awaitVisible(Duration.ofSeconds(30));
+        Log.info("Visibility: " + visibility);
+        assertTrue("Rows should become visible: " + visibility, visibility.isAllVisible());
+    }
+    
+    @Then("the order events table should hold one event per routed order")
+    public void the_order_events_table_should_hold_one_event_per_routed_order() throws Exception {
+        List<String> rows = bigQueryUtil.getClient().queryRowsAsJson(routedEventsTable, "order_id", routedEventOrderIds);
+        assertEquals("Events table should hold one row per routed event", routedEventOrderIds.size(), rows.size());
+    }
+    
+    @When("I compare the JSON {string} with {string} allowing at most {int} mismatch(es)")
+    public void i_compare_the_json_with_allowing_at_most_mismatches(String expectedJson, String actualJson, int maxMismatches) throws Exception {
+        jsonComparison = JsonUtil.compareJson(expectedJson, actualJson, maxMismatches);
+        Log.info("JSON comparison: " + jsonComparison);
+    }
+    
+    @Then("the comparison should report differences at {string}, truncated {word}")
+    public void the_comparison_should_report_differences_at(String paths, String truncated) {
+        List<String> expectedPaths = paths.isEmpty() ? Collections.emptyList() : Arrays.asList(paths.split(","));
+        List<String> actualPaths = new ArrayList<>();
+        for (JsonUtil.JsonDiff diff : jsonComparison.getDiffs()) {
+            actualPaths.add(diff.getPath());
+        }
+        assertEquals("Differences should be reported at: " + jsonComparison, expectedPaths, actualPaths);
+        assertEquals("Comparison should match exactly when nothing differs", expectedPaths.isEmpty(), jsonComparison.isMatch());
+        assertEquals("Truncation should follow the mismatch limit", Boolean.parseBoolean(truncated), jsonComparison.isTruncated());
+    }
+    
+    @Then("I should retrieve the same data from BigQuery")
+    public void i_should_retrieve_the_same_data_from_bigquery() throws Exception {
+        // Stream the rows for the order ids we wrote instead of materializing the whole result
+        Log.debug("Retrieved JSON data from BigQuery:");
+        try (KeyedRowReader<String> reader = bigQueryUtil.readDataAsJson(datasetId, tableId, orderIds())) {
+            int i = 0;
+            while (reader.hasNext()) {
+                String json = reader.next();
+                if (Log.isDebugEnabled()) {
+                    Log.debug("JSON data [" + i + "]: " + json);
                 }
+                i++;
             }
         }
     }
+
+    @Then("the retrieved JSON data should match the original data structure")
+    public void the_retrieved_json_data_should_match_the_original_data_structure() throws Exception {
+        // Rows are joined to the expected records by order id and compared in parallel
+        RecordValidator.Report report;
+        try (RecordValidator validator = new RecordValidator(fieldMappingPlan, "orderId");
+             KeyedRowReader<String> reader = bigQueryUtil.readDataAsJson(datasetId, tableId, orderIds())) {
+            report = validator.validateJson(cucumberData, reader);
+        }
+        Log.info("JSON validation: " + report);
+        assertEquals("JSON data count should match", cucumberData.size(), report.getActualRows());
+        assertTrue("JSON data should match the original data: " + report, report.isClean());
+    }
     
-    private void validateArrayField(JsonNode origNode, JsonNode retrievedNode, String field, String[] kv) {
-        System.out.println("      Array validation - mapping: " + kv[0] + " -> " + kv[1]);
-        assertEquals(field + " array size should match", origNode.size(), retrievedNode.size());
-        for (int i = 0; i < origNode.size(); i++) {
-            String itemName = field.substring(0, field.length() - 1) + "[" + i + "] " + kv[0];
-            validate(origNode.get(i).get(kv[0]), retrievedNode.get(i).get(kv[1]), itemName, kv[1]);
+    @Then("the projected typed columns should match the original data structure")
+    public void the_projected_typed_columns_should_match_the_original_data_structure() throws Exception {
+        // Only the mapped columns are selected and decoded straight from FieldValueList, no JSON round trip
+        RecordValidator.Report report;
+        try (RecordValidator validator = new RecordValidator(fieldMappingPlan, "orderId");
+             KeyedRowReader<Map<String, Object>> reader = bigQueryUtil.readProjectedData(datasetId, tableId,
+                     fieldMappingPlan.toColumnProjection(schema), orderIds())) {
+            report = validator.validate(cucumberData, reader);
         }
+        Log.info("Projected validation: " + report);
+        assertEquals("Projected row count should match", cucumberData.size(), report.getActualRows());
+        assertTrue("Projected columns should match the original data: " + report, report.isClean());
     }
     
-    private void validateObjectField(JsonNode origNode, JsonNode retrievedNode, String field, String[] kv) {
-        System.out.println("      Object validation - mapping: " + kv[0] + " -> " + kv[1]);
-        String prefix = field.substring(0, 1).toUpperCase() + field.substring(1) + " ";
-        validate(origNode.get(kv[0]), retrievedNode.get(kv[1]), prefix + kv[0], kv[1]);
+    @Then("the table fingerprints should reconcile with the Avro records")
+    public void the_table_fingerprints_should_reconcile_with_the_avro_records() throws Exception {
+        // The table is shared across runs, so only this scenario's order ids are reconciled
+        FingerprintReconciler.Result result = bigQueryUtil.reconcileData(datasetId, tableId, schema, avroRecords, true);
+        Log.info("Fingerprint reconciliation: " + result);
+        assertEquals("Reconciled row count should match", avroRecords.size(), result.getRemoteRows());
+        assertTrue("Table should reconcile with the Avro records: " + result, result.isReconciled());
     }
     
-    private void validate(JsonNode expected, JsonNode actual, String name, String bqField) {
-        boolean matches = JsonUtil.compareJsonValues(expected, actual, name);
-        String arrow = name.equals(bqField) ? "" : " -> " + bqField;
-        System.out.println(name + arrow + ": " + (matches ? "PASS" : "FAIL") + " | Expected: " + expected + " | Actual: " + actual);
-        assertTrue(name + " should match", matches);
+    private List<String> orderIds() {
+        List<String> orderIds = new ArrayList<>(cucumberData.size());
+        for (Map<String, Object> row : cucumberData) {
+            orderIds.add((String) row.get("orderId"));
+        }
+        return orderIds;
     }
-  
+    
     @After
     public void cleanup() {
         // No cleanup needed - table should remain
     }
+    
+    @AfterAll
+    public static void closeSharedInserts() throws InterruptedException {
+        synchronized (BigQuerySteps.class) {
+            if (sharedInserts != null) {
+                sharedInserts.close();
+            }
+        }
+    }
 }
\ No newline at end of file
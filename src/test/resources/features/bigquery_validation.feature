@@ -9,6 +9,80 @@ Feature: BigQuery Data Validation
       | ORD_001 | CUST_001   | John Doe     | john@example.com | +1-555-0123   | GOLD        | PROD_001  | Laptop      | 1        | 999.99    | Electronics | 2024-01-01 | 123 Main St | Seattle | WA    | 98101   | USA     | CREDIT_CARD   | COMPLETED | {"source":"web"} | 1099.99     | 100.00    | false           |
       | ORD_002 | CUST_002   | Jane Smith   | jane@example.com | +1-555-0456   | SILVER      | PROD_002  | Mouse       | 2        | 25.50     | Electronics | 2024-01-02 | 456 Oak Ave | Portland| OR    | 97201   | USA     | PAYPAL        | PENDING   | {"source":"mobile"} | 56.10       | 5.10      | true            |
     When I create Avro request from schema using the data
+    And the typed Order records should encode identically to the generic records
+    And the Avro records should round trip through single-object encoding
+    And orders written with the previous schema version should decode into the current schema
     And I load the Avro request to BigQuery table "test_dataset.orders"
     Then I should retrieve the same data from BigQuery
-    And the retrieved JSON data should match the original data structure
\ No newline at end of file
+    And the retrieved JSON data should match the original data structure
+    And the projected typed columns should match the original data structure
+    And the table fingerprints should reconcile with the Avro records
+
+  Scenario: Load and validate seeded synthetic orders
+    Given I have 500 synthetic orders generated with seed 42
+    When I create Avro request from schema using the data
+    And the typed Order records should encode identically to the generic records
+    And I load the Avro request to BigQuery table "test_dataset.orders"
+    Then the retrieved JSON data should match the original data structure
+    And the projected typed columns should match the original data structure
+    And the table fingerprints should reconcile with the Avro records
+
+  Scenario: Stream synthetic orders through the ingest pipeline
+    Given I have 2000 synthetic orders generated with seed 7
+    When I create Avro request from schema using the data
+    And I stream the Avro request through the ingest pipeline into BigQuery table "test_dataset.orders"
+    Then the retrieved JSON data should match the original data structure
+    And the table fingerprints should reconcile with the Avro records
+
+  Scenario: Spool throttled inserts and replay them once quota recovers
+    Given I have 300 synthetic orders generated with seed 11
+    When I create Avro request from schema using the data
+    And I load the Avro request to BigQuery table "test_dataset.orders" while the first 3 inserts are throttled
+    Then the retrieved JSON data should match the original data structure
+    And the table fingerprints should reconcile with the Avro records
+
+  Scenario: Stream synthetic orders staged in off-heap columns
+    Given I have 1000 synthetic orders generated with seed 5
+    When I create Avro request from schema using the data
+    And I stage the order data in a columnar buffer
+    Then the staged columns should encode identically to the Avro records
+    When I stream the staged columns into BigQuery table "test_dataset.orders"
+    Then the retrieved JSON data should match the original data structure
+    And the table fingerprints should reconcile with the Avro records
+
+  Scenario: Load synthetic orders staged in off-heap columns through Avro load jobs
+    Given I have 500 synthetic orders generated with seed 9
+    When I create Avro request from schema using the data
+    And I stage the order data in a columnar buffer
+    And I load the staged columns as Avro files into BigQuery table "test_dataset.orders"
+    Then the projected typed columns should match the original data structure
+    And the table fingerprints should reconcile with the Avro records
+
+  Scenario: Route orders and their events to separate tables from configuration
+    Given I have 400 synthetic orders generated with seed 13
+    When I create Avro request from schema using the data
+    And I route the Avro request and 250 order events through the table router configured in "router.properties"
+    Then the retrieved JSON data should match the original data structure
+    And the table fingerprints should reconcile with the Avro records
+    And the order events table should hold one event per routed order
+
+  Scenario: Load synthetic orders through rolling Avro files
+    Given I have 2000 synthetic orders generated with seed 17
+    When I create Avro request from schema using the data
+    And I load the Avro request to BigQuery table "test_dataset.orders" in Avro files of at most 65536 bytes
+    Then the projected typed columns should match the original data structure
+    And the table fingerprints should reconcile with the Avro records
+
+  Scenario Outline: Compare JSON documents token by token: <case>
+    When I compare the JSON '<expected>' with '<actual>' allowing at most <limit> mismatches
+    Then the comparison should report differences at "<paths>", truncated <truncated>
+
+    Examples:
+      | case                     | expected                                               | actual                                                  | limit | paths            | truncated |
+      | nested object mismatch   | {"a":1,"b":{"c":"x","d":{"e":2}}}                      | {"a":1,"b":{"c":"y","d":{"e":3}}}                       | 100   | b.c,b.d.e        | false     |
+      | reordered fields         | {"a":1.0,"b":{"c":"x","d":[1,2]}}                      | {"b":{"d":[1,2],"c":"x"},"a":1.0004}                    | 100   |                  | false     |
+      | array size difference    | {"items":[{"q":1},{"q":2},{"q":3}]}                    | {"items":[{"q":1},{"q":2}]}                             | 100   | items.size       | false     |
+      | array element mismatch   | {"items":[{"q":1},{"q":2}]}                            | {"items":[{"q":1},{"q":5}]}                             | 100   | items[1].q       | false     |
+      | missing nested object    | {"a":1,"b":{"c":1}}                                    | {"a":1}                                                 | 100   | b                | false     |
+      | mismatch limit           | {"a":1,"b":2,"c":3}                                    | {"a":9,"b":9,"c":9}                                     | 2     | a,b              | true      |
+      | diffs equal to the limit | {"a":1,"b":2,"c":3}                                    | {"a":9,"b":9,"c":3}                                     | 2     | a,b              | false     |